@@ -1,10 +1,14 @@
 package com.tdjs.tatm;
 
+import com.tdjs.tatm.network.TardisClientCache;
 import net.fabricmc.api.ClientModInitializer;
 
 public class TatmClient implements ClientModInitializer {
 	@Override
 	public void onInitializeClient() {
 		// This entrypoint is suitable for setting up client-specific logic, such as rendering.
+
+		// Keep a copy of the TARDIS exteriors near the player, sent by TardisSync
+		TardisClientCache.register();
 	}
 }
\ No newline at end of file
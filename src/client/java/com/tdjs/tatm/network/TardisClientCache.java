@@ -0,0 +1,130 @@
+package com.tdjs.tatm.network;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import net.fabricmc.fabric.api.client.networking.v1.ClientPlayConnectionEvents;
+import net.fabricmc.fabric.api.client.networking.v1.ClientPlayNetworking;
+import net.minecraft.network.PacketByteBuf;
+import net.minecraft.util.Identifier;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.World;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Client-side copy of the TARDIS exteriors near the player, kept up to date by {@link TardisSync}.
+ * Keyed by packed position (BlockPos.asLong), with the positions of each chunk so a chunk
+ * update replaces exactly what the server sent for it before. Only read and written on the client thread.
+ */
+public class TardisClientCache {
+    /**
+     * A TARDIS exterior as the client knows it
+     *
+     * @param ready whether the interior is built, so the TARDIS can be entered
+     */
+    public record Entry(UUID tardisId, boolean ready) {
+    }
+
+    private static final Long2ObjectMap<Entry> byPos = new Long2ObjectOpenHashMap<>();
+    private static final Long2ObjectMap<LongArrayList> byChunk = new Long2ObjectOpenHashMap<>();
+    // Dimension the cache describes; lookups in any other world find nothing
+    private static Identifier dimension;
+
+    /**
+     * A decoded sync packet, applied on the client thread
+     */
+    private record Update(Identifier resetDimension, long[] chunks, int[] counts, long[] positions, Entry[] entries) {
+    }
+
+    public static void register() {
+        ClientPlayNetworking.registerGlobalReceiver(TardisSync.CHANNEL, (client, handler, buf, responseSender) -> {
+            Update update = read(buf);
+            client.execute(() -> apply(update));
+        });
+        ClientPlayConnectionEvents.DISCONNECT.register((handler, client) -> client.execute(TardisClientCache::clear));
+    }
+
+    /**
+     * Get the TARDIS exterior at a position, or null if the server has not reported one there
+     */
+    public static Entry get(World world, BlockPos pos) {
+        if (!world.getRegistryKey().getValue().equals(dimension)) {
+            return null;
+        }
+        return byPos.get(pos.asLong());
+    }
+
+    public static boolean isTardisAt(World world, BlockPos pos) {
+        return get(world, pos) != null;
+    }
+
+    public static int size() {
+        return byPos.size();
+    }
+
+    public static void clear() {
+        byPos.clear();
+        byChunk.clear();
+        dimension = null;
+    }
+
+    private static Update read(PacketByteBuf buf) {
+        Identifier resetDimension = buf.readBoolean() ? buf.readIdentifier() : null;
+        LongArrayList chunks = new LongArrayList();
+        IntArrayList counts = new IntArrayList();
+        LongArrayList positions = new LongArrayList();
+        List<Entry> entries = new ArrayList<>();
+
+        while (buf.isReadable()) {
+            long chunk = buf.readLong();
+            int count = buf.readVarInt();
+            chunks.add(chunk);
+            counts.add(count);
+            int baseX = ChunkPos.getPackedX(chunk) << 4;
+            int baseZ = ChunkPos.getPackedZ(chunk) << 4;
+            for (int i = 0; i < count; i++) {
+                int local = buf.readUnsignedByte();
+                int zigzag = buf.readVarInt();
+                int y = zigzag >>> 1 ^ -(zigzag & 1);
+                positions.add(BlockPos.asLong(baseX | local >> 4, y, baseZ | local & 15));
+                entries.add(new Entry(buf.readUuid(), buf.readBoolean()));
+            }
+        }
+
+        return new Update(resetDimension, chunks.toLongArray(), counts.toIntArray(), positions.toLongArray(), entries.toArray(new Entry[0]));
+    }
+
+    private static void apply(Update update) {
+        if (update.resetDimension() != null) {
+            clear();
+            dimension = update.resetDimension();
+        }
+
+        int next = 0;
+        for (int c = 0; c < update.chunks().length; c++) {
+            long chunk = update.chunks()[c];
+            LongArrayList previous = byChunk.remove(chunk);
+            if (previous != null) {
+                for (int i = 0; i < previous.size(); i++) {
+                    byPos.remove(previous.getLong(i));
+                }
+            }
+
+            int count = update.counts()[c];
+            if (count > 0) {
+                LongArrayList positions = new LongArrayList(count);
+                for (int i = 0; i < count; i++, next++) {
+                    long pos = update.positions()[next];
+                    byPos.put(pos, update.entries()[next]);
+                    positions.add(pos);
+                }
+                byChunk.put(chunk, positions);
+            }
+        }
+    }
+}
@@ -0,0 +1,495 @@
+package com.tdjs.tatm.gametest;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import com.tdjs.tatm.Tatm;
+import com.tdjs.tatm.block.TatmBlocks;
+import com.tdjs.tatm.config.TatmConfig;
+import com.tdjs.tatm.item.TatmItems;
+import com.tdjs.tatm.metrics.LatencyHistogram;
+import com.tdjs.tatm.metrics.TatmMetrics;
+import com.tdjs.tatm.tardis.TardisDimensionManager;
+import com.tdjs.tatm.tardis.TardisInstance;
+import com.tdjs.tatm.tardis.TardisLandingSearch;
+import com.tdjs.tatm.tardis.TardisRegistry;
+import com.tdjs.tatm.tardis.TardisTransferQueue;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
+import net.fabricmc.fabric.api.gametest.v1.FabricGameTest;
+import net.fabricmc.loader.api.FabricLoader;
+import net.minecraft.SharedConstants;
+import net.minecraft.block.Blocks;
+import net.minecraft.item.ItemStack;
+import net.minecraft.item.ItemUsageContext;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.network.ServerPlayerEntity;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.test.GameTest;
+import net.minecraft.test.GameTestException;
+import net.minecraft.test.TestContext;
+import net.minecraft.util.ActionResult;
+import net.minecraft.util.Hand;
+import net.minecraft.util.hit.BlockHitResult;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.Direction;
+import net.minecraft.util.math.Vec3d;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Load suite for a whole server, run headless with {@code ./gradlew runLoadTest}.
+ * Places a fleet through the TARDIS item, waits for the interiors to build, then has mock
+ * players walk in and out through the door blocks while exteriors are moved, and broken and
+ * placed again, timing every server tick. The build and churn phases are reported separately.
+ * Results go to {@code tatm-loadtest.json} in the run directory, with the mod's metrics in
+ * Prometheus format next to it, so runs of different versions can be compared.
+ * Sizes come from {@code tatm.loadtest.*} system properties, which the Gradle run passes through.
+ */
+public class TardisLoadTest implements FabricGameTest {
+    private static final int TARDISES = Integer.getInteger("tatm.loadtest.tardises", 64);
+    private static final int PLAYERS = Integer.getInteger("tatm.loadtest.players", 8);
+    private static final int CHURN_TICKS = Integer.getInteger("tatm.loadtest.seconds", 120) * 20;
+    private static final long SEED = Long.getLong("tatm.loadtest.seed", 1);
+    private static final String OUTPUT = System.getProperty("tatm.loadtest.output", "tatm-loadtest.json");
+    // Version of the output layout; bump when fields change meaning
+    private static final int SCHEMA_VERSION = 1;
+
+    // The churn starts after this long even if some interiors are still building
+    private static final int MAX_BUILD_TICKS = 20 * 120;
+    private static final int BUILD_CHECK_INTERVAL = 20;
+    private static final int SPACING = 4;
+    // Ticks between the actions of one player, between exterior moves, and between breaking and replacing one
+    private static final int PLAYER_INTERVAL = 20;
+    private static final int MOVE_INTERVAL = 10;
+    private static final int BREAK_INTERVAL = 40;
+    private static final int MOVE_DISTANCE = 16;
+    // Upper bound on build plus churn; the run ends well before it
+    private static final int TICK_LIMIT = 20 * 60 * 60;
+
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9, 100 };
+    private static final String[] PERCENTILE_NAMES = { "p50_ms", "p90_ms", "p99_ms", "p999_ms", "max_ms" };
+
+    // Tick times of the phase being measured, recorded from the tick events; null between runs
+    private static volatile LatencyHistogram tickTimes;
+    private static long tickStart;
+    private static boolean timerRegistered;
+
+    @GameTest(templateName = EMPTY_STRUCTURE, tickLimit = TICK_LIMIT)
+    public void fleetChurn(TestContext context) {
+        registerTickTimer();
+        new Run(context).start();
+    }
+
+    /**
+     * Time every server tick, from its start to the end of the last END_SERVER_TICK handler registered before this
+     */
+    private static void registerTickTimer() {
+        if (timerRegistered) {
+            return;
+        }
+        timerRegistered = true;
+        ServerTickEvents.START_SERVER_TICK.register(server -> tickStart = System.nanoTime());
+        ServerTickEvents.END_SERVER_TICK.register(server -> {
+            LatencyHistogram histogram = tickTimes;
+            if (histogram != null) {
+                histogram.recordSince(tickStart);
+            }
+        });
+    }
+
+    /**
+     * State of one run, driven from the test every tick on the server thread
+     */
+    private static final class Run {
+        private final TestContext context;
+        private final ServerWorld world;
+        private final MinecraftServer server;
+        private final Random random = new Random(SEED);
+        private final BlockPos origin;
+
+        // Places and breaks exteriors, and never enters
+        private ServerPlayerEntity builder;
+        private final List<ServerPlayerEntity> players = new ArrayList<>();
+        // Current exterior of each fleet slot, or null while it is being moved
+        private final BlockPos[] exteriors = new BlockPos[TARDISES];
+
+        private final LatencyHistogram buildTicks = new LatencyHistogram();
+        private final LatencyHistogram churnTicks = new LatencyHistogram();
+
+        private int tick;
+        private int churnStartTick = -1;
+        private boolean finished;
+        private long churnStartNanos;
+        private long serverThreadAllocatedStart;
+        private long allThreadsAllocatedStart;
+        private long gcCountStart;
+        private long gcMillisStart;
+
+        private long placements;
+        private long entries;
+        private long exits;
+        private long moves;
+        private long breaks;
+        private long blockedPlacements;
+        private long failedActions;
+
+        private Run(TestContext context) {
+            this.context = context;
+            this.world = context.getWorld();
+            this.server = world.getServer();
+            this.origin = context.getAbsolutePos(BlockPos.ORIGIN).add(2, 0, 2);
+        }
+
+        private void start() {
+            builder = context.createMockCreativeServerPlayerInWorld();
+            for (int i = 0; i < PLAYERS; i++) {
+                players.add(context.createMockCreativeServerPlayerInWorld());
+            }
+
+            tickTimes = buildTicks;
+            for (int slot = 0; slot < TARDISES; slot++) {
+                place(slot, home(slot));
+            }
+            Tatm.LOGGER.info("Load test: placed {} of {} TARDISes, waiting for interiors", placements, TARDISES);
+            context.runAtEveryTick(this::tick);
+        }
+
+        private void tick() {
+            if (finished) {
+                return;
+            }
+            tick++;
+
+            if (churnStartTick < 0) {
+                if (tick >= MAX_BUILD_TICKS || (tick % BUILD_CHECK_INTERVAL == 0 && countBuilt() == placements)) {
+                    startChurn();
+                }
+                return;
+            }
+
+            int churnTick = tick - churnStartTick;
+            if (churnTick >= CHURN_TICKS) {
+                finish();
+                return;
+            }
+
+            for (int i = 0; i < players.size(); i++) {
+                // Staggered, so the players do not all act on the same tick
+                if ((churnTick + i * PLAYER_INTERVAL / players.size()) % PLAYER_INTERVAL == 0) {
+                    act(players.get(i));
+                }
+            }
+            if (churnTick % MOVE_INTERVAL == 0) {
+                move(random.nextInt(TARDISES));
+            }
+            if (churnTick % BREAK_INTERVAL == 0) {
+                breakAndReplace(random.nextInt(TARDISES));
+            }
+        }
+
+        private void startChurn() {
+            int built = countBuilt();
+            if (built == 0) {
+                throw new GameTestException("No TARDIS interior was built within " + MAX_BUILD_TICKS + " ticks");
+            }
+            Tatm.LOGGER.info("Load test: {} interiors built after {} ticks, churning for {} ticks", built, tick, CHURN_TICKS);
+
+            churnStartTick = tick;
+            tickTimes = churnTicks;
+            churnStartNanos = System.nanoTime();
+            serverThreadAllocatedStart = serverThreadAllocatedBytes();
+            allThreadsAllocatedStart = allThreadsAllocatedBytes();
+            gcCountStart = gcCount();
+            gcMillisStart = gcMillis();
+        }
+
+        private void finish() {
+            finished = true;
+            tickTimes = null;
+            long churnNanos = System.nanoTime() - churnStartNanos;
+            long serverThreadAllocated = serverThreadAllocatedBytes() - serverThreadAllocatedStart;
+            long allThreadsAllocated = allThreadsAllocatedBytes() - allThreadsAllocatedStart;
+            long gcCount = gcCount() - gcCountStart;
+            long gcMillis = gcMillis() - gcMillisStart;
+
+            // A full save of every world and the registry, as at shutdown
+            long saveStart = System.nanoTime();
+            server.saveAll(true, true, true);
+            long saveNanos = System.nanoTime() - saveStart;
+
+            JsonObject results = new JsonObject();
+            results.addProperty("schema", SCHEMA_VERSION);
+            results.addProperty("mod_version", FabricLoader.getInstance().getModContainer(Tatm.MOD_ID)
+                .map(mod -> mod.getMetadata().getVersion().getFriendlyString()).orElse("unknown"));
+            results.addProperty("minecraft_version", SharedConstants.getGameVersion().getName());
+            results.addProperty("java_version", Runtime.version().toString());
+            results.addProperty("timestamp", Instant.now().toString());
+
+            JsonObject parameters = new JsonObject();
+            parameters.addProperty("tardises", TARDISES);
+            parameters.addProperty("players", PLAYERS);
+            parameters.addProperty("churn_ticks", CHURN_TICKS);
+            parameters.addProperty("seed", SEED);
+            parameters.addProperty("shared_interiors", TatmConfig.sharedInteriors);
+            parameters.addProperty("available_processors", Runtime.getRuntime().availableProcessors());
+            parameters.addProperty("max_heap_bytes", Runtime.getRuntime().maxMemory());
+            results.add("parameters", parameters);
+
+            JsonObject mspt = new JsonObject();
+            mspt.add("build", describe(buildTicks));
+            mspt.add("churn", describe(churnTicks));
+            results.add("mspt", mspt);
+
+            double churnSeconds = churnNanos / 1e9;
+            JsonObject allocation = new JsonObject();
+            allocation.addProperty("server_thread_bytes", serverThreadAllocated);
+            allocation.addProperty("server_thread_bytes_per_tick", (double) serverThreadAllocated / CHURN_TICKS);
+            // Threads that ended during the churn are missed
+            allocation.addProperty("all_threads_bytes", allThreadsAllocated);
+            allocation.addProperty("all_threads_bytes_per_second", allThreadsAllocated / churnSeconds);
+            allocation.addProperty("gc_count", gcCount);
+            allocation.addProperty("gc_millis", gcMillis);
+            results.add("allocation", allocation);
+
+            JsonObject save = new JsonObject();
+            save.addProperty("full_save_ms", saveNanos / 1e6);
+            // Background registry writes over the whole run, including those of autosaves
+            save.add("registry_write", describe(TatmMetrics.SAVE_TIME));
+            results.add("save", save);
+
+            JsonObject operations = new JsonObject();
+            operations.addProperty("churn_seconds", churnSeconds);
+            operations.addProperty("ticks_per_second", CHURN_TICKS / churnSeconds);
+            operations.addProperty("placements", placements);
+            operations.addProperty("entries", entries);
+            operations.addProperty("exits", exits);
+            operations.addProperty("moves", moves);
+            operations.addProperty("breaks", breaks);
+            // Replacements skipped because another exterior had moved onto the home
+            operations.addProperty("blocked_placements", blockedPlacements);
+            operations.addProperty("failed_actions", failedActions);
+            operations.addProperty("tardises_at_end", TardisRegistry.get(server).size());
+            results.add("operations", operations);
+
+            write(results);
+            for (ServerPlayerEntity player : players) {
+                server.getPlayerManager().remove(player);
+            }
+            server.getPlayerManager().remove(builder);
+            context.complete();
+        }
+
+        private void write(JsonObject results) {
+            Gson gson = new GsonBuilder().setPrettyPrinting().create();
+            Path path = server.getRunDirectory().toPath().resolve(OUTPUT);
+            Path metrics = path.resolveSibling(path.getFileName().toString().replaceFirst("\\.json$", "") + ".prom");
+            try {
+                Files.createDirectories(path.toAbsolutePath().getParent());
+                Files.writeString(path, gson.toJson(results));
+                Files.writeString(metrics, TatmMetrics.render(server));
+            } catch (IOException e) {
+                throw new GameTestException("Failed to write load test results to " + path + ": " + e);
+            }
+            Tatm.LOGGER.info("Load test: results written to {}", path.toAbsolutePath());
+        }
+
+        // Fleet
+
+        private BlockPos home(int slot) {
+            int side = (int) Math.ceil(Math.sqrt(TARDISES));
+            return origin.add(slot % side * SPACING, 0, slot / side * SPACING);
+        }
+
+        /**
+         * Place a TARDIS the way a player does, through the item's placement.
+         * Exteriors moved near a home may stand on it or on the block below, and clearing
+         * those would remove them without breaking them, so the slot is left empty instead.
+         */
+        private void place(int slot, BlockPos pos) {
+            if (hasExterior(pos) || hasExterior(pos.down())) {
+                exteriors[slot] = null;
+                blockedPlacements++;
+                return;
+            }
+            world.setBlockState(pos.down(), Blocks.STONE.getDefaultState());
+            world.setBlockState(pos, Blocks.AIR.getDefaultState());
+
+            ItemStack stack = new ItemStack(TatmItems.TARDIS_ITEM);
+            builder.setStackInHand(Hand.MAIN_HAND, stack);
+            BlockHitResult hit = new BlockHitResult(Vec3d.ofCenter(pos.down()).add(0, 0.5, 0), Direction.UP, pos.down(), false);
+            ActionResult result = stack.useOnBlock(new ItemUsageContext(builder, Hand.MAIN_HAND, hit));
+            if (result.isAccepted() && world.getBlockState(pos).isOf(TatmBlocks.TARDIS_BLOCK)) {
+                exteriors[slot] = pos;
+                placements++;
+            } else {
+                exteriors[slot] = null;
+                failedActions++;
+            }
+        }
+
+        private boolean hasExterior(BlockPos pos) {
+            return world.getBlockState(pos).isOf(TatmBlocks.TARDIS_BLOCK)
+                || TardisRegistry.get(server).getTardisIdByExteriorLocation(pos, world.getRegistryKey().getValue()) != null;
+        }
+
+        private int countBuilt() {
+            int built = 0;
+            for (BlockPos pos : exteriors) {
+                TardisInstance tardis = pos != null ? TardisDimensionManager.getTardisAt(world, pos) : null;
+                if (tardis != null && tardis.isInteriorBuilt()) {
+                    built++;
+                }
+            }
+            return built;
+        }
+
+        /**
+         * Move an exterior to a landing site near its home, like /tardis land
+         */
+        private void move(int slot) {
+            BlockPos pos = exteriors[slot];
+            TardisInstance tardis = pos != null ? TardisDimensionManager.getTardisAt(world, pos) : null;
+            if (tardis == null) {
+                return;
+            }
+
+            exteriors[slot] = null;
+            BlockPos target = home(slot).add(random.nextInt(MOVE_DISTANCE * 2 + 1) - MOVE_DISTANCE, 0,
+                random.nextInt(MOVE_DISTANCE * 2 + 1) - MOVE_DISTANCE);
+            TardisLandingSearch.relocate(world, tardis.getTardisId(), target).whenCompleteAsync((site, error) -> {
+                if (site != null) {
+                    exteriors[slot] = site;
+                    moves++;
+                } else {
+                    // No site, or it failed; the exterior stays where it was
+                    exteriors[slot] = tardis.getExteriorPos();
+                    failedActions++;
+                }
+            }, server);
+        }
+
+        /**
+         * Break an exterior as a player would, and place a new TARDIS at its home
+         */
+        private void breakAndReplace(int slot) {
+            BlockPos pos = exteriors[slot];
+            if (pos == null) {
+                return;
+            }
+
+            builder.teleport(world, pos.getX() + 0.5, pos.getY(), pos.getZ() - 1.5, 0, 0);
+            if (builder.interactionManager.tryBreakBlock(pos)) {
+                breaks++;
+            } else {
+                failedActions++;
+            }
+            place(slot, home(slot));
+        }
+
+        // Players
+
+        private void act(ServerPlayerEntity player) {
+            if (TardisTransferQueue.isPending(player)) {
+                return;
+            }
+            if (TardisDimensionManager.isInTardisInterior(player)) {
+                exit(player);
+            } else if (player.getServerWorld() != world) {
+                // Stranded in the interior of a TARDIS that was broken
+                player.teleport(world, origin.getX() + 0.5, origin.getY(), origin.getZ() - 1.5, 0, 0);
+            } else {
+                enter(player);
+            }
+        }
+
+        /**
+         * Walk up to a random exterior and use its door
+         */
+        private void enter(ServerPlayerEntity player) {
+            int slot = random.nextInt(TARDISES);
+            BlockPos pos = exteriors[slot];
+            TardisInstance tardis = pos != null ? TardisDimensionManager.getTardisAt(world, pos) : null;
+            if (tardis == null || !tardis.isInteriorBuilt()) {
+                return;
+            }
+
+            player.teleport(world, pos.getX() + 0.5, pos.getY(), pos.getZ() + 1.5, 180, 0);
+            BlockHitResult hit = new BlockHitResult(Vec3d.ofCenter(pos), Direction.SOUTH, pos, false);
+            if (world.getBlockState(pos).onUse(world, player, Hand.MAIN_HAND, hit).isAccepted()) {
+                entries++;
+            } else {
+                failedActions++;
+            }
+        }
+
+        /**
+         * Use the exit door from wherever the player stands in the interior
+         */
+        private void exit(ServerPlayerEntity player) {
+            ServerWorld interior = player.getServerWorld();
+            BlockHitResult hit = new BlockHitResult(player.getPos(), Direction.UP, player.getBlockPos(), false);
+            if (TatmBlocks.TARDIS_EXIT_BLOCK.getDefaultState().onUse(interior, player, Hand.MAIN_HAND, hit).isAccepted()) {
+                exits++;
+            } else {
+                failedActions++;
+            }
+        }
+    }
+
+    /**
+     * Percentiles, mean and count of a histogram, in milliseconds
+     */
+    private static JsonObject describe(LatencyHistogram histogram) {
+        JsonObject out = new JsonObject();
+        long count = histogram.getCount();
+        out.addProperty("count", count);
+        out.addProperty("mean_ms", count == 0 ? 0 : histogram.getSum() / 1e6 / count);
+        for (int i = 0; i < PERCENTILES.length; i++) {
+            out.addProperty(PERCENTILE_NAMES[i], histogram.getPercentile(PERCENTILES[i]) / 1e6);
+        }
+        return out;
+    }
+
+    private static long serverThreadAllocatedBytes() {
+        // Tests run on the server thread
+        return threads().getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static long allThreadsAllocatedBytes() {
+        long total = 0;
+        for (long bytes : threads().getThreadAllocatedBytes(threads().getAllThreadIds())) {
+            if (bytes > 0) {
+                total += bytes;
+            }
+        }
+        return total;
+    }
+
+    private static com.sun.management.ThreadMXBean threads() {
+        return (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return millis;
+    }
+}
@@ -0,0 +1,48 @@
+package com.tdjs.tatm.benchmark;
+
+import com.tdjs.tatm.tardis.TardisDimensionManager;
+import com.tdjs.tatm.tardis.TardisInstance;
+import com.tdjs.tatm.tardis.TardisRegistry;
+import com.tdjs.tatm.tardis.TardisRegistryStorage;
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.util.Identifier;
+import net.minecraft.util.math.BlockPos;
+
+/**
+ * Builds registries filled with initialized TARDISes for the benchmarks
+ */
+final class Fleets {
+    private static final Identifier OVERWORLD = new Identifier("minecraft", "overworld");
+    private static final int ROW_LENGTH = 1000;
+
+    private Fleets() {
+    }
+
+    /**
+     * A registry without on-disk storage holding the given number of TARDISes
+     */
+    static TardisRegistry createRegistry(int fleetSize) {
+        return fill(new TardisRegistry(null), fleetSize);
+    }
+
+    /**
+     * Add TARDISes to a registry, one exterior every 16 blocks in rows of 1000
+     */
+    static TardisRegistry fill(TardisRegistry registry, int fleetSize) {
+        for (int i = 0; i < fleetSize; i++) {
+            BlockPos exteriorPos = new BlockPos((i % ROW_LENGTH) * 16, 64, (i / ROW_LENGTH) * 16);
+            TardisInstance tardis = registry.createTardis(exteriorPos, OVERWORLD);
+            registry.initializeTardisInterior(tardis.getTardisId(),
+                TardisDimensionManager.generateInteriorSpawnPos(),
+                TardisDimensionManager.createTardisDimension(tardis.getTardisId()));
+        }
+        return registry;
+    }
+
+    /**
+     * Create a registry backed by shard files in a directory
+     */
+    static TardisRegistry createStoredRegistry(TardisRegistryStorage storage, int fleetSize) {
+        return fill(TardisRegistry.createFromNbt(new NbtCompound(), storage), fleetSize);
+    }
+}
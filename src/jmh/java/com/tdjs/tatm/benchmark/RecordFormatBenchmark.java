@@ -0,0 +1,93 @@
+package com.tdjs.tatm.benchmark;
+
+import com.tdjs.tatm.tardis.TardisInstance;
+import com.tdjs.tatm.tardis.TardisRecord;
+import com.tdjs.tatm.tardis.TardisRegistryStorage;
+import net.minecraft.nbt.NbtIo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding one shard of records in the compact binary layout, against the
+ * NBT record files it replaced. The size of both is printed once per fork.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RecordFormatBenchmark {
+    // A shard of a 100k and a 1M fleet
+    @Param({"400", "4000"})
+    public int recordsPerShard;
+
+    private List<TardisRecord> records;
+    private byte[] nbtBytes;
+    private byte[] compactBytes;
+
+    @Setup
+    public void setup() throws IOException {
+        records = new ArrayList<>(recordsPerShard);
+        for (TardisInstance tardis : Fleets.createRegistry(recordsPerShard).getAllTardises()) {
+            records.add(tardis.snapshot());
+        }
+        nbtBytes = encodeNbt();
+        compactBytes = encodeCompact();
+        System.out.printf("%n%d records: NBT %d bytes (%.1f per record), compact %d bytes (%.1f per record)%n",
+            recordsPerShard, nbtBytes.length, (double) nbtBytes.length / recordsPerShard,
+            compactBytes.length, (double) compactBytes.length / recordsPerShard);
+    }
+
+    @Benchmark
+    public byte[] encodeNbt() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (TardisRecord record : records) {
+            NbtIo.write(record.toNbt(), out);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    public List<TardisRecord> decodeNbt() throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(nbtBytes));
+        List<TardisRecord> decoded = new ArrayList<>(recordsPerShard);
+        for (int i = 0; i < recordsPerShard; i++) {
+            decoded.add(TardisInstance.fromNbt(NbtIo.read(in)).snapshot());
+        }
+        return decoded;
+    }
+
+    @Benchmark
+    public byte[] encodeCompact() {
+        return TardisRegistryStorage.encodeShard(records);
+    }
+
+    @Benchmark
+    public List<TardisRecord> decodeCompact() throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(compactBytes);
+        // Skip the version, as TardisRegistryStorage does before decoding
+        buffer.getInt();
+        return TardisRegistryStorage.decodeShard(buffer);
+    }
+}
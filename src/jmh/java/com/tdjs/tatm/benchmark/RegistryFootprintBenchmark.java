@@ -0,0 +1,124 @@
+package com.tdjs.tatm.benchmark;
+
+import com.tdjs.tatm.tardis.TardisDimensionManager;
+import com.tdjs.tatm.tardis.TardisExteriorIndex;
+import com.tdjs.tatm.tardis.TardisRegistry;
+import net.minecraft.util.Identifier;
+import net.minecraft.util.math.BlockPos;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building a fleet, and the heap it retains. The retained heap per TARDIS is measured
+ * once per fork from the used heap after full collections, and printed next to the
+ * store's own estimate. The baseline builds the same fleet the way the registry held it
+ * before the struct-of-arrays store: one object per TARDIS with its own positions and
+ * identifiers, in a map by UUID, with the same exterior index.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4G")
+@State(Scope.Benchmark)
+public class RegistryFootprintBenchmark {
+    @Param({"100000"})
+    public int fleetSize;
+
+    private static final Identifier OVERWORLD = new Identifier("minecraft", "overworld");
+
+    /**
+     * A TARDIS as an object, with the fields it had before the store
+     */
+    private static final class ObjectTardis {
+        final UUID tardisId;
+        BlockPos exteriorPos;
+        Identifier exteriorDimension;
+        BlockPos interiorPos;
+        Identifier interiorDimension;
+        boolean initialized;
+        boolean interiorBuilt;
+        boolean dirty = true;
+        long lastEnteredTime;
+        int occupants;
+
+        ObjectTardis(UUID tardisId, BlockPos exteriorPos, Identifier exteriorDimension) {
+            this.tardisId = tardisId;
+            this.exteriorPos = exteriorPos;
+            this.exteriorDimension = exteriorDimension;
+        }
+    }
+
+    /**
+     * The registry's state before the store: instances by UUID and the exterior index
+     */
+    private record ObjectFleet(Map<UUID, ObjectTardis> instances, TardisExteriorIndex exteriors) {}
+
+    @Setup
+    public void setup() {
+        long before = usedHeapAfterGc();
+        ObjectFleet baseline = createObjectFleet(fleetSize);
+        long after = usedHeapAfterGc();
+        System.out.printf("%n%d TARDISes as objects (baseline): %.1f bytes retained per TARDIS%n",
+            baseline.instances().size(), (double) (after - before) / fleetSize);
+        baseline = null;
+
+        before = usedHeapAfterGc();
+        TardisRegistry registry = Fleets.createRegistry(fleetSize);
+        after = usedHeapAfterGc();
+        System.out.printf("%d TARDISes in the store: %.1f bytes retained per TARDIS (store estimate %.1f)%n",
+            registry.size(), (double) (after - before) / fleetSize, (double) registry.getStoreBytes() / fleetSize);
+    }
+
+    @Benchmark
+    public TardisRegistry createFleet() {
+        return Fleets.createRegistry(fleetSize);
+    }
+
+    @Benchmark
+    public Object createObjectFleetBaseline() {
+        return createObjectFleet(fleetSize);
+    }
+
+    /**
+     * Build the same fleet as {@link Fleets#fill}, one object per TARDIS
+     */
+    private static ObjectFleet createObjectFleet(int fleetSize) {
+        ObjectFleet fleet = new ObjectFleet(new ConcurrentHashMap<>(), new TardisExteriorIndex());
+        for (int i = 0; i < fleetSize; i++) {
+            UUID tardisId = UUID.randomUUID();
+            BlockPos exteriorPos = new BlockPos((i % 1000) * 16, 64, (i / 1000) * 16);
+            ObjectTardis tardis = new ObjectTardis(tardisId, exteriorPos, OVERWORLD);
+            tardis.interiorPos = TardisDimensionManager.generateInteriorSpawnPos();
+            tardis.interiorDimension = TardisDimensionManager.createTardisDimension(tardisId);
+            tardis.initialized = true;
+            fleet.instances().put(tardisId, tardis);
+            fleet.exteriors().put(exteriorPos.asLong(), tardisId);
+        }
+        return fleet;
+    }
+
+    private static long usedHeapAfterGc() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,137 @@
+package com.tdjs.tatm.benchmark;
+
+import com.tdjs.tatm.tardis.TardisInstance;
+import com.tdjs.tatm.tardis.TardisRegistry;
+import net.minecraft.util.Identifier;
+import net.minecraft.util.math.BlockPos;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Registry lookups by exterior location, UUID and interior dimension at different fleet sizes.
+ * Each call looks up a different TARDIS from a fixed random sample, so results include cache misses.
+ * The baseline benchmarks repeat the lookup as the registry did before exteriors were indexed by packed
+ * position, with a string key per call, so both can be compared from one run.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4G")
+@State(Scope.Benchmark)
+public class RegistryLookupBenchmark {
+    private static final int SAMPLE_SIZE = 4096;
+    private static final Identifier OVERWORLD = new Identifier("minecraft", "overworld");
+
+    @Param({"1000", "100000", "1000000"})
+    public int fleetSize;
+
+    private TardisRegistry registry;
+    // The maps the registry used to look exteriors up with
+    private final Map<String, UUID> baselineExteriorLocations = new ConcurrentHashMap<>();
+    private final Map<UUID, TardisInstance> baselineInstances = new ConcurrentHashMap<>();
+    private final BlockPos[] exteriorPositions = new BlockPos[SAMPLE_SIZE];
+    private final UUID[] tardisIds = new UUID[SAMPLE_SIZE];
+    private final Identifier[] interiorDimensions = new Identifier[SAMPLE_SIZE];
+    private int next;
+
+    @Setup
+    public void setup() {
+        registry = Fleets.createRegistry(fleetSize);
+
+        TardisInstance[] all = registry.getAllTardises().toArray(new TardisInstance[0]);
+        for (TardisInstance tardis : all) {
+            baselineInstances.put(tardis.getTardisId(), tardis);
+            baselineExteriorLocations.put(createLocationKey(tardis.getExteriorPos(), tardis.getExteriorDimension()), tardis.getTardisId());
+        }
+        Random random = new Random(42);
+        for (int i = 0; i < SAMPLE_SIZE; i++) {
+            TardisInstance tardis = all[random.nextInt(all.length)];
+            exteriorPositions[i] = tardis.getExteriorPos();
+            tardisIds[i] = tardis.getTardisId();
+            interiorDimensions[i] = tardis.getInteriorDimension();
+        }
+    }
+
+    @Benchmark
+    public TardisInstance getTardisByExteriorLocation() {
+        return registry.getTardisByExteriorLocation(exteriorPositions[nextIndex()], OVERWORLD);
+    }
+
+    /**
+     * Exterior lookup for callers that only need the UUID, without creating a view
+     */
+    @Benchmark
+    public UUID getTardisIdByExteriorLocation() {
+        return registry.getTardisIdByExteriorLocation(exteriorPositions[nextIndex()], OVERWORLD);
+    }
+
+    /**
+     * Exterior lookup as it was first written: a string key built on every call
+     */
+    @Benchmark
+    public TardisInstance getTardisByExteriorLocationStringKeyBaseline() {
+        UUID tardisId = baselineExteriorLocations.get(createLocationKey(exteriorPositions[nextIndex()], OVERWORLD));
+        return tardisId != null ? baselineInstances.get(tardisId) : null;
+    }
+
+    @Benchmark
+    public TardisInstance getTardis() {
+        return registry.getTardis(tardisIds[nextIndex()]);
+    }
+
+    @Benchmark
+    public TardisInstance getTardisByInteriorDimension() {
+        return registry.getTardisByInteriorDimension(interiorDimensions[nextIndex()]);
+    }
+
+    /**
+     * Interior lookup as run for every player each second by TardisHibernation
+     */
+    @Benchmark
+    public UUID getTardisIdByInteriorDimension() {
+        return registry.getTardisIdByInteriorDimension(interiorDimensions[nextIndex()]);
+    }
+
+    @Benchmark
+    public TardisInstance getTardisByExteriorLocationMiss() {
+        // Position just above a real exterior, as when clicking a block that is not a TARDIS
+        return registry.getTardisByExteriorLocation(exteriorPositions[nextIndex()].up(), OVERWORLD);
+    }
+
+    @Benchmark
+    public List<TardisInstance> findWithinRadius() {
+        // Exteriors are 16 blocks apart, so this finds a handful around the sampled one
+        return registry.findWithinRadius(OVERWORLD, exteriorPositions[nextIndex()], 40);
+    }
+
+    @Benchmark
+    public TardisInstance nearest() {
+        return registry.nearest(OVERWORLD, exteriorPositions[nextIndex()].add(5, 0, 7), 256);
+    }
+
+    private static String createLocationKey(BlockPos pos, Identifier dimension) {
+        return dimension.toString() + ":" + pos.getX() + "," + pos.getY() + "," + pos.getZ();
+    }
+
+    private int nextIndex() {
+        next = (next + 1) & (SAMPLE_SIZE - 1);
+        return next;
+    }
+}
@@ -0,0 +1,161 @@
+package com.tdjs.tatm.benchmark;
+
+import com.tdjs.tatm.tardis.TardisInstance;
+import com.tdjs.tatm.tardis.TardisRegistry;
+import com.tdjs.tatm.tardis.TardisRegistryStorage;
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.nbt.NbtHelper;
+import net.minecraft.nbt.NbtIo;
+import net.minecraft.nbt.NbtList;
+import net.minecraft.util.Identifier;
+import net.minecraft.util.math.BlockPos;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Saving and loading a registry of a whole fleet through its shard files.
+ * Saves wait for the registry IO thread, so they include encoding and the file writes.
+ * {@link #saveSingleListBaseline} saves the fleet the way the registry did before it was sharded,
+ * for comparison with {@link #saveOneChange} and {@link #saveFullRewrite}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4G")
+@State(Scope.Benchmark)
+public class RegistryPersistenceBenchmark {
+    private static final Identifier OVERWORLD = new Identifier("minecraft", "overworld");
+
+    @Param({"10000", "100000"})
+    public int fleetSize;
+
+    private Path directory;
+    private File manifestFile;
+    private File baselineFile;
+    private TardisRegistryStorage storage;
+    private TardisRegistry registry;
+    private NbtCompound manifest;
+    private UUID movedTardis;
+    private int moves;
+
+    @Setup
+    public void setup() throws InterruptedException, IOException {
+        directory = Files.createTempDirectory("tatm-registry-bench");
+        manifestFile = directory.resolve("tardis_registry.dat").toFile();
+        baselineFile = directory.resolve("tardis_registry_baseline.dat").toFile();
+        storage = new TardisRegistryStorage(directory.resolve("tardis_registry"));
+        registry = Fleets.createStoredRegistry(storage, fleetSize);
+        movedTardis = registry.getAllTardises().iterator().next().getTardisId();
+
+        registry.save(manifestFile);
+        awaitWrites(storage);
+        manifest = registry.writeNbt(new NbtCompound());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        storage.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    /**
+     * An autosave after one TARDIS moved: only its shard is rewritten
+     */
+    @Benchmark
+    public void saveOneChange() throws InterruptedException {
+        registry.updateTardisExteriorLocation(movedTardis, new BlockPos(-16, 64, moves++ & 1023), OVERWORLD);
+        registry.save(manifestFile);
+        awaitWrites(storage);
+    }
+
+    /**
+     * A save with every TARDIS changed, equivalent to rewriting the whole fleet
+     */
+    @Benchmark
+    public void saveFullRewrite() throws InterruptedException {
+        for (TardisInstance tardis : registry.getAllTardises()) {
+            tardis.markDirty();
+        }
+        registry.save(manifestFile);
+        awaitWrites(storage);
+    }
+
+    /**
+     * A save as it was first written: every TARDIS in one NBT list, written as a single compressed file
+     */
+    @Benchmark
+    public void saveSingleListBaseline() throws IOException {
+        NbtList tardises = new NbtList();
+        for (TardisInstance tardis : registry.getAllTardises()) {
+            tardises.add(tardis.toNbt());
+        }
+        NbtCompound data = new NbtCompound();
+        data.put("tardises", tardises);
+
+        // What PersistentState.save wraps the data in
+        NbtCompound root = new NbtCompound();
+        root.put("data", data);
+        NbtHelper.putDataVersion(root);
+        NbtIo.writeCompressed(root, baselineFile);
+    }
+
+    @Benchmark
+    public NbtCompound writeNbt() {
+        return registry.writeNbt(new NbtCompound());
+    }
+
+    /**
+     * Loading at server start, which reads the compact shard files without creating instances
+     */
+    @Benchmark
+    public TardisRegistry createFromNbt() {
+        TardisRegistryStorage loadStorage = new TardisRegistryStorage(directory.resolve("tardis_registry"));
+        TardisRegistry loaded = TardisRegistry.createFromNbt(manifest, loadStorage);
+        loadStorage.close();
+        return loaded;
+    }
+
+    /**
+     * Loading followed by creating a view of every TARDIS, as listing the whole fleet does.
+     * Loading already decodes every record into the store, so the difference to {@link #createFromNbt} is the views.
+     */
+    @Benchmark
+    public int createFromNbtAndDecodeAll() {
+        TardisRegistryStorage loadStorage = new TardisRegistryStorage(directory.resolve("tardis_registry"));
+        int count = TardisRegistry.createFromNbt(manifest, loadStorage).getAllTardises().size();
+        loadStorage.close();
+        return count;
+    }
+
+    private static void awaitWrites(TardisRegistryStorage storage) throws InterruptedException {
+        // The IO thread runs tasks in order, so this runs after every write queued before it
+        CountDownLatch done = new CountDownLatch(1);
+        storage.submit(done::countDown);
+        done.await();
+    }
+}
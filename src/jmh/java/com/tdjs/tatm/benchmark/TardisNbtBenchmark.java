@@ -0,0 +1,73 @@
+package com.tdjs.tatm.benchmark;
+
+import com.tdjs.tatm.tardis.TardisDimensionManager;
+import com.tdjs.tatm.tardis.TardisInstance;
+import com.tdjs.tatm.tardis.TardisRecord;
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.util.Identifier;
+import net.minecraft.util.math.BlockPos;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding a single TARDIS, and creating its interior dimension identifier
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TardisNbtBenchmark {
+    private TardisInstance tardis;
+    private NbtCompound encoded;
+    private UUID tardisId;
+
+    @Setup
+    public void setup() {
+        tardisId = UUID.randomUUID();
+        tardis = TardisInstance.fromRecord(new TardisRecord(
+            tardisId,
+            true,
+            true,
+            new BlockPos(1234, 64, -5678),
+            new Identifier("minecraft", "overworld"),
+            TardisDimensionManager.generateInteriorSpawnPos(),
+            TardisDimensionManager.createTardisDimension(tardisId),
+            0L,
+            false
+        ));
+        encoded = tardis.toNbt();
+    }
+
+    @Benchmark
+    public NbtCompound toNbt() {
+        return tardis.toNbt();
+    }
+
+    @Benchmark
+    public TardisInstance fromNbt() {
+        return TardisInstance.fromNbt(encoded);
+    }
+
+    @Benchmark
+    public TardisInstance roundTrip() {
+        return TardisInstance.fromNbt(tardis.toNbt());
+    }
+
+    @Benchmark
+    public Identifier createTardisDimension() {
+        return TardisDimensionManager.createTardisDimension(tardisId);
+    }
+}
@@ -2,7 +2,21 @@ package com.tdjs.tatm;
 
 import com.tdjs.tatm.block.TatmBlockEntities;
 import com.tdjs.tatm.block.TatmBlocks;
+import com.tdjs.tatm.command.TardisCommand;
+import com.tdjs.tatm.config.TatmConfig;
 import com.tdjs.tatm.item.TatmItems;
+import com.tdjs.tatm.metrics.TatmMetrics;
+import com.tdjs.tatm.network.TardisSync;
+import com.tdjs.tatm.tardis.TardisArchive;
+import com.tdjs.tatm.tardis.TardisHibernation;
+import com.tdjs.tatm.tardis.TardisInteriorBuilder;
+import com.tdjs.tatm.tardis.TardisInteriorWorlds;
+import com.tdjs.tatm.tardis.TardisLandingSearch;
+import com.tdjs.tatm.tardis.TardisPrewarmer;
+import com.tdjs.tatm.tardis.TardisReconciler;
+import com.tdjs.tatm.tardis.TardisRegistry;
+import com.tdjs.tatm.tardis.TardisSectionStore;
+import com.tdjs.tatm.tardis.TardisTransferQueue;
 import net.fabricmc.api.ModInitializer;
 
 import org.slf4j.Logger;
@@ -24,11 +38,51 @@ public class Tatm implements ModInitializer {
 
 		LOGGER.info("Initializing TARDIS mod...");
 
+		// Load settings from config/tatm.properties
+		TatmConfig.load();
+
 		// Register blocks, items, and block entities
 		TatmBlocks.register();
 		TatmItems.register();
 		TatmBlockEntities.register();
 
+		// Resolve the server-wide TARDIS registry once per server
+		TardisRegistry.registerLifecycleEvents();
+
+		// Create interior worlds on demand and unload them when idle
+		TardisInteriorWorlds.register();
+
+		// Save untouched interior sections as references to the shared template sections
+		TardisSectionStore.register();
+
+		// Build interiors from the precompiled template under a per-tick time budget
+		TardisInteriorBuilder.register();
+
+		// Move entities through TARDIS doors once their destination chunk is loaded
+		TardisTransferQueue.register();
+
+		// Load interior spawn chunks while players are near a TARDIS exterior
+		TardisPrewarmer.register();
+
+		// Release and flush interiors that have been empty for a while
+		TardisHibernation.register();
+
+		// Pack interiors nobody has entered for days into archives, and unpack them on the next entry
+		TardisArchive.register();
+
+		// Keep exterior blocks and registry entries in agreement, a slice at a time
+		TardisReconciler.register();
+
+		// Search for safe landing sites off the tick thread, against copies of loaded chunks
+		TardisLandingSearch.register();
+
+		// Send players the TARDIS exteriors in the chunks around them
+		TardisSync.register();
+
+		// Counters and latency histograms, shown by /tardis stats
+		TatmMetrics.register();
+		TardisCommand.register();
+
 		LOGGER.info("TARDIS mod initialized successfully!");
 	}
 }
\ No newline at end of file
@@ -1,7 +1,11 @@
 package com.tdjs.tatm.block;
 
+import com.tdjs.tatm.metrics.TatmMetrics;
+import com.tdjs.tatm.metrics.TeleportResult;
+import com.tdjs.tatm.tardis.TardisArchive;
 import com.tdjs.tatm.tardis.TardisInstance;
 import com.tdjs.tatm.tardis.TardisDimensionManager;
+import com.tdjs.tatm.tardis.TardisInteriorBuilder;
 import com.tdjs.tatm.tardis.TardisRegistry;
 import net.minecraft.block.Block;
 import net.minecraft.block.BlockState;
@@ -58,10 +62,22 @@ public class TardisBlock extends BlockWithEntity {
             return ActionResult.FAIL;
         }
 
+        if (!tardis.isInteriorBuilt()) {
+            // Interior still being built; this also resumes a build interrupted by a restart
+            TardisInteriorBuilder.enqueue(serverWorld.getServer(), tardis);
+            TatmMetrics.recordTeleport(true, TeleportResult.INTERIOR_NOT_READY);
+            player.sendMessage(Text.literal("TARDIS is not ready yet!"), false);
+            return ActionResult.FAIL;
+        }
+
         // Attempt to teleport player into TARDIS
         boolean success = TardisDimensionManager.teleportIntoTardis(serverPlayer, tardis);
         
-        if (success) {
+        if (success && TardisArchive.isRestoring(tardis.getTardisId())) {
+            // Dormant interior being unpacked; the player is let in once it is back
+            player.sendMessage(Text.literal("Restoring the TARDIS interior, please wait..."), true);
+            return ActionResult.SUCCESS;
+        } else if (success) {
             player.sendMessage(Text.literal("Welcome aboard the TARDIS!"), false);
             return ActionResult.SUCCESS;
         } else {
@@ -2,6 +2,7 @@ package com.tdjs.tatm.block;
 
 import com.tdjs.tatm.tardis.TardisInstance;
 import com.tdjs.tatm.tardis.TardisDimensionManager;
+import com.tdjs.tatm.tardis.TardisInteriorBuilder;
 import com.tdjs.tatm.tardis.TardisRegistry;
 import net.minecraft.block.BlockState;
 import net.minecraft.block.entity.BlockEntity;
@@ -62,11 +63,20 @@ public class TardisBlockEntity extends BlockEntity {
         
         setTardisId(tardis.getTardisId());
         
-        // Initialize the interior (in a full implementation, this would create the dimension)
-        // For now, we'll use the overworld as a placeholder
-        BlockPos interiorPos = TardisDimensionManager.generateInteriorSpawnPos();
-        registry.initializeTardisInterior(tardis.getTardisId(), interiorPos, 
-                                        TardisDimensionManager.createTardisDimension(tardis.getTardisId()));
+        if (TardisDimensionManager.usesSharedInteriors()) {
+            // The interior is a plot in the shared interiors dimension
+            BlockPos interiorPos = registry.allocateInteriorPlot(tardis.getTardisId());
+            registry.initializeTardisInterior(tardis.getTardisId(), interiorPos,
+                                            TardisDimensionManager.SHARED_INTERIOR_DIMENSION);
+        } else {
+            // The interior gets its own dimension, created on first entry
+            BlockPos interiorPos = TardisDimensionManager.generateInteriorSpawnPos();
+            registry.initializeTardisInterior(tardis.getTardisId(), interiorPos, 
+                                            TardisDimensionManager.createTardisDimension(tardis.getTardisId()));
+        }
+
+        // Place the interior structure over the next few ticks
+        TardisInteriorBuilder.enqueue(serverWorld.getServer(), tardis);
     }
 
     @Override
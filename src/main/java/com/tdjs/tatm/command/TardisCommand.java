@@ -0,0 +1,85 @@
+package com.tdjs.tatm.command;
+
+import com.mojang.brigadier.context.CommandContext;
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import com.tdjs.tatm.Tatm;
+import com.tdjs.tatm.metrics.TatmMetrics;
+import com.tdjs.tatm.tardis.TardisDimensionManager;
+import com.tdjs.tatm.tardis.TardisInstance;
+import com.tdjs.tatm.tardis.TardisLandingSearch;
+import net.fabricmc.fabric.api.command.v2.CommandRegistrationCallback;
+import net.minecraft.command.argument.BlockPosArgumentType;
+import net.minecraft.registry.RegistryKey;
+import net.minecraft.registry.RegistryKeys;
+import net.minecraft.server.command.CommandManager;
+import net.minecraft.server.command.ServerCommandSource;
+import net.minecraft.server.network.ServerPlayerEntity;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.text.Text;
+import net.minecraft.util.math.BlockPos;
+
+import java.util.List;
+
+/**
+ * The operator-only {@code /tardis} command
+ */
+public class TardisCommand {
+
+    public static void register() {
+        CommandRegistrationCallback.EVENT.register((dispatcher, registryAccess, environment) -> dispatcher.register(
+            CommandManager.literal("tardis")
+                .requires(source -> source.hasPermissionLevel(2))
+                .then(CommandManager.literal("stats").executes(TardisCommand::stats))
+                .then(CommandManager.literal("land")
+                    .then(CommandManager.argument("pos", BlockPosArgumentType.blockPos()).executes(TardisCommand::land)))
+        ));
+    }
+
+    /**
+     * List every metric that has a value
+     */
+    private static int stats(CommandContext<ServerCommandSource> context) {
+        ServerCommandSource source = context.getSource();
+        List<String> lines = TatmMetrics.describe(source.getServer());
+
+        source.sendFeedback(() -> Text.literal("TARDIS stats (zero counters omitted):"), false);
+        for (String line : lines) {
+            source.sendFeedback(() -> Text.literal(line), false);
+        }
+        return lines.size();
+    }
+
+    /**
+     * Move the TARDIS the player is inside to the nearest safe landing site around a position
+     * in the dimension of its exterior. The search runs in the background and reports when done.
+     */
+    private static int land(CommandContext<ServerCommandSource> context) throws CommandSyntaxException {
+        ServerCommandSource source = context.getSource();
+        ServerPlayerEntity player = source.getPlayerOrThrow();
+        TardisInstance tardis = TardisDimensionManager.getTardisContaining(player);
+        if (tardis == null || tardis.getExteriorDimension() == null) {
+            source.sendError(Text.literal("You are not inside a TARDIS"));
+            return 0;
+        }
+
+        ServerWorld world = source.getServer().getWorld(RegistryKey.of(RegistryKeys.WORLD, tardis.getExteriorDimension()));
+        if (world == null) {
+            source.sendError(Text.literal("The exterior dimension of this TARDIS is not loaded"));
+            return 0;
+        }
+
+        BlockPos target = BlockPosArgumentType.getBlockPos(context, "pos");
+        source.sendFeedback(() -> Text.literal("Searching for a landing site near " + target.toShortString() + "..."), false);
+        TardisLandingSearch.relocate(world, tardis.getTardisId(), target).whenCompleteAsync((site, error) -> {
+            if (error != null) {
+                Tatm.LOGGER.error("Landing search for TARDIS {} failed", tardis.getTardisId(), error);
+                source.sendError(Text.literal("Landing failed"));
+            } else if (site == null) {
+                source.sendError(Text.literal("No safe landing site near " + target.toShortString()));
+            } else {
+                source.sendFeedback(() -> Text.literal("Landed at " + site.toShortString()), true);
+            }
+        }, source.getServer());
+        return 1;
+    }
+}
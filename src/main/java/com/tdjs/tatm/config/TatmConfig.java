@@ -0,0 +1,103 @@
+package com.tdjs.tatm.config;
+
+import com.tdjs.tatm.Tatm;
+import net.fabricmc.loader.api.FabricLoader;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+/**
+ * Server-side settings, read from config/tatm.properties.
+ * Missing keys keep their defaults and are written back, so the file always lists every option.
+ */
+public class TatmConfig {
+    private static final String FILE_NAME = "tatm.properties";
+
+    // Seconds an interior world may stay empty before it is saved and unloaded
+    public static int interiorIdleUnloadSeconds = 300;
+
+    // Place new interiors as plots in the shared tatm:interiors dimension instead of one dimension each
+    public static boolean sharedInteriors = false;
+
+    // Microseconds per tick spent writing interior templates into the world
+    public static int interiorBuildBudgetMicros = 1000;
+
+    // Microseconds per tick spent completing queued TARDIS entry and exit transfers
+    public static int teleportBudgetMicros = 2000;
+
+    // Blocks from a TARDIS exterior within which a player loads the spawn chunks of its interior, if its world is loaded; 0 disables
+    public static int prewarmRadius = 16;
+
+    // Minutes an interior may stay empty before its chunk tickets are released and it is flushed to disk; 0 disables
+    public static int interiorHibernateMinutes = 5;
+
+    // Exterior blocks and registry entries the reconciler checks per tick; 0 disables it
+    public static int reconcileChecksPerTick = 64;
+
+    // Blocks from the requested position within which a landing TARDIS looks for solid ground with room above it
+    public static int landingSearchRadius = 16;
+
+    // Days without anyone entering before a dedicated interior world is packed into an archive; 0 disables
+    public static int interiorArchiveDays = 30;
+
+    // Seconds between writes of tatm-metrics.prom (Prometheus text format) to the world folder; 0 disables
+    public static int metricsDumpSeconds = 0;
+
+    /**
+     * Load the config file, creating it with defaults if it does not exist
+     */
+    public static void load() {
+        Path path = FabricLoader.getInstance().getConfigDir().resolve(FILE_NAME);
+        Properties properties = new Properties();
+
+        if (Files.exists(path)) {
+            try (Reader reader = Files.newBufferedReader(path)) {
+                properties.load(reader);
+            } catch (IOException e) {
+                Tatm.LOGGER.error("Failed to read {}, using defaults", FILE_NAME, e);
+            }
+        }
+
+        interiorIdleUnloadSeconds = readInt(properties, "interior_idle_unload_seconds", interiorIdleUnloadSeconds);
+        sharedInteriors = readBoolean(properties, "shared_interiors", sharedInteriors);
+        interiorBuildBudgetMicros = readInt(properties, "interior_build_budget_micros", interiorBuildBudgetMicros);
+        teleportBudgetMicros = readInt(properties, "teleport_budget_micros", teleportBudgetMicros);
+        prewarmRadius = readInt(properties, "prewarm_radius", prewarmRadius);
+        interiorHibernateMinutes = readInt(properties, "interior_hibernate_minutes", interiorHibernateMinutes);
+        reconcileChecksPerTick = readInt(properties, "reconcile_checks_per_tick", reconcileChecksPerTick);
+        landingSearchRadius = readInt(properties, "landing_search_radius", landingSearchRadius);
+        interiorArchiveDays = readInt(properties, "interior_archive_days", interiorArchiveDays);
+        metricsDumpSeconds = readInt(properties, "metrics_dump_seconds", metricsDumpSeconds);
+
+        try (Writer writer = Files.newBufferedWriter(path)) {
+            properties.store(writer, "TARDIS mod settings");
+        } catch (IOException e) {
+            Tatm.LOGGER.error("Failed to write {}", FILE_NAME, e);
+        }
+    }
+
+    private static boolean readBoolean(Properties properties, String key, boolean defaultValue) {
+        String raw = properties.getProperty(key);
+        boolean value = raw != null ? Boolean.parseBoolean(raw.trim()) : defaultValue;
+        properties.setProperty(key, Boolean.toString(value));
+        return value;
+    }
+
+    private static int readInt(Properties properties, String key, int defaultValue) {
+        int value = defaultValue;
+        String raw = properties.getProperty(key);
+        if (raw != null) {
+            try {
+                value = Integer.parseInt(raw.trim());
+            } catch (NumberFormatException e) {
+                Tatm.LOGGER.warn("Invalid value '{}' for {} in {}, using {}", raw, key, FILE_NAME, defaultValue);
+            }
+        }
+        properties.setProperty(key, Integer.toString(value));
+        return value;
+    }
+}
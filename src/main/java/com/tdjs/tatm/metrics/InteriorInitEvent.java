@@ -0,0 +1,25 @@
+package com.tdjs.tatm.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for assigning a TARDIS its interior dimension and position
+ */
+@Name("tatm.InteriorInit")
+@Label("TARDIS Interior Initialization")
+@Category("TARDIS")
+@StackTrace(false)
+public class InteriorInitEvent extends Event {
+    @Label("TARDIS")
+    public String tardisId;
+
+    @Label("Interior Dimension")
+    public String dimension;
+
+    @Label("Shared Dimension")
+    public boolean shared;
+}
@@ -0,0 +1,29 @@
+package com.tdjs.tatm.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for loading the TARDIS registry at server start
+ */
+@Name("tatm.RegistryLoad")
+@Label("TARDIS Registry Load")
+@Category("TARDIS")
+@StackTrace(false)
+public class RegistryLoadEvent extends Event {
+    @Label("Shards")
+    @Description("Shard indexes read")
+    public int shards;
+
+    @Label("Entity Count")
+    @Description("TARDISes in the registry after loading")
+    public int entityCount;
+
+    @Label("Migrated")
+    @Description("TARDISes read from an older save format")
+    public int migrated;
+}
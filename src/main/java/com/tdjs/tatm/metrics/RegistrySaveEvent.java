@@ -0,0 +1,37 @@
+package com.tdjs.tatm.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for one TARDIS registry save. Emitted twice per save: once for the snapshot taken
+ * on the server thread, and once for the shard writes on the registry IO thread.
+ */
+@Name("tatm.RegistrySave")
+@Label("TARDIS Registry Save")
+@Category("TARDIS")
+@StackTrace(false)
+public class RegistrySaveEvent extends Event {
+    @Label("Background Write")
+    @Description("False for the snapshot on the server thread, true for the file writes on the IO thread")
+    public boolean write;
+
+    @Label("Shards")
+    public int shards;
+
+    @Label("Entity Count")
+    @Description("TARDISes in the saved shards")
+    public int entityCount;
+
+    @Label("Bytes Written")
+    @DataAmount
+    public long bytes;
+
+    @Label("Failed Shards")
+    public int failedShards;
+}
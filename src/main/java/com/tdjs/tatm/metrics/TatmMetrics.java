@@ -0,0 +1,267 @@
+package com.tdjs.tatm.metrics;
+
+import com.tdjs.tatm.Tatm;
+import com.tdjs.tatm.config.TatmConfig;
+import com.tdjs.tatm.tardis.TardisArchive;
+import com.tdjs.tatm.tardis.TardisHibernation;
+import com.tdjs.tatm.tardis.TardisInteriorWorlds;
+import com.tdjs.tatm.tardis.TardisPrewarmer;
+import com.tdjs.tatm.tardis.TardisRegistry;
+import com.tdjs.tatm.tardis.TardisTransferQueue;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.Util;
+import net.minecraft.util.WorldSavePath;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Counters, latency histograms and gauges for the TARDIS subsystems.
+ * Hot-path metrics are static fields, so recording is a single atomic update with no lookup
+ * or allocation. Everything is listed by {@code /tardis stats} and can be dumped periodically
+ * in Prometheus text format to the world folder.
+ */
+public class TatmMetrics {
+    private static final String DUMP_FILE = "tatm-metrics.prom";
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+    /**
+     * A registered metric. Metrics with the same name differ by labels and share one HELP/TYPE header.
+     */
+    private record Metric(String name, String labels, String help, String type, Object source) {}
+
+    private static final List<Metric> metrics = new ArrayList<>();
+
+    // Registry operations
+    public static final Counter LOOKUPS_BY_ID = counter("tatm_registry_lookups_total", "kind=\"id\"", "TARDIS registry lookups");
+    public static final Counter LOOKUPS_BY_EXTERIOR = counter("tatm_registry_lookups_total", "kind=\"exterior\"", "TARDIS registry lookups");
+    public static final Counter LOOKUPS_BY_INTERIOR = counter("tatm_registry_lookups_total", "kind=\"interior\"", "TARDIS registry lookups");
+    public static final Counter LOOKUPS_SPATIAL = counter("tatm_registry_lookups_total", "kind=\"spatial\"", "TARDIS registry lookups");
+    public static final Counter LOOKUP_MISSES = counter("tatm_registry_lookup_misses_total", "", "Registry lookups that found no TARDIS");
+    public static final Counter CREATES = counter("tatm_registry_creates_total", "", "TARDISes created");
+    public static final Counter REMOVES = counter("tatm_registry_removes_total", "", "TARDISes removed");
+
+    // Consistency checks between exterior blocks and the registry
+    public static final Counter RECONCILE_CHECKS = counter("tatm_reconcile_checks_total", "", "Exterior blocks and registry entries checked by the reconciler");
+    public static final Counter RECONCILE_REPAIRED = counter("tatm_reconcile_fixes_total", "action=\"repaired\"", "Mismatches fixed by the reconciler");
+    public static final Counter RECONCILE_RESTORED = counter("tatm_reconcile_fixes_total", "action=\"restored\"", "Mismatches fixed by the reconciler");
+    public static final Counter RECONCILE_QUARANTINED = counter("tatm_reconcile_fixes_total", "action=\"quarantined\"", "Mismatches fixed by the reconciler");
+
+    // Registry saves, recorded on the registry IO thread
+    public static final Counter SAVES = counter("tatm_registry_saves_total", "", "Registry saves that wrote at least one shard or the manifest");
+    public static final Counter SAVED_SHARDS = counter("tatm_registry_saved_shards_total", "", "Registry shards written");
+    public static final Counter SAVED_BYTES = counter("tatm_registry_saved_bytes_total", "", "Bytes of shard records and indexes written");
+    public static final LatencyHistogram SAVE_TIME = histogram("tatm_registry_save_seconds", "", "Time to write the dirty shards and manifest of one save");
+
+    // Registry change events (TardisChangeStream)
+    public static final Counter CHANGES_PUBLISHED = counter("tatm_registry_changes_total", "", "Registry change events published");
+    public static final Counter CHANGES_DROPPED = counter("tatm_registry_changes_dropped_total", "", "Registry change events overwritten before a subscriber read them");
+
+    // Client sync of nearby exteriors (TardisSync)
+    public static final Counter SYNC_PACKETS = counter("tatm_sync_packets_total", "", "TARDIS sync packets sent to players");
+    public static final Counter SYNC_BYTES = counter("tatm_sync_bytes_total", "", "Payload bytes of TARDIS sync packets");
+    public static final Counter SYNC_RESETS = counter("tatm_sync_resets_total", "", "Full TARDIS snapshots sent to players");
+
+    // Landing-site searches (TardisLandingSearch), partly recorded on worker threads
+    public static final Counter LANDING_SEARCHES = counter("tatm_landing_searches_total", "", "Landing-site searches started");
+    public static final Counter LANDING_NO_SITE = counter("tatm_landing_no_site_total", "", "Landing-site searches that found no safe site");
+    public static final Counter LANDING_COLUMNS_CACHED = counter("tatm_landing_columns_total", "source=\"cache\"", "Block columns checked for a landing site");
+    public static final Counter LANDING_COLUMNS_SCANNED = counter("tatm_landing_columns_total", "source=\"scan\"", "Block columns checked for a landing site");
+    public static final Counter LANDINGS = counter("tatm_landings_total", "", "TARDIS exteriors moved to a landing site");
+
+    // Interior chunk sections saved (TardisSectionStore)
+    public static final Counter SECTIONS_SHARED = counter("tatm_interior_sections_saved_total", "kind=\"shared\"", "Interior chunk sections saved, by whether they still match the template");
+    public static final Counter SECTIONS_DIVERGED = counter("tatm_interior_sections_saved_total", "kind=\"diverged\"", "Interior chunk sections saved, by whether they still match the template");
+    public static final Counter SECTION_BYTES_SHARED = counter("tatm_interior_section_shared_bytes_total", "", "Estimated block state and light bytes saved as references instead of in interior chunks");
+    public static final LatencyHistogram SECTION_SHARE_TIME = histogram("tatm_interior_section_share_seconds", "", "Time to match and reference the sections of one saved interior chunk");
+    public static final LatencyHistogram SHARED_SECTIONS_WRITE_TIME = histogram("tatm_shared_sections_write_seconds", "", "Time to write the shared section file on an IO thread");
+
+    // Archival of dormant interiors (TardisArchive), recorded on the server thread
+    public static final Counter INTERIORS_ARCHIVED = counter("tatm_interior_archives_total", "action=\"archived\"", "Interior worlds packed into or restored from an archive");
+    public static final Counter INTERIORS_RESTORED = counter("tatm_interior_archives_total", "action=\"restored\"", "Interior worlds packed into or restored from an archive");
+    public static final Counter ARCHIVE_FAILURES = counter("tatm_interior_archive_failures_total", "", "Archives or restores that failed and were left as they were");
+    public static final Counter ARCHIVED_BYTES = counter("tatm_interior_archived_bytes_total", "", "Bytes of interior world files packed into archives");
+
+    // Entries and exits by result, indexed by TeleportResult ordinal
+    private static final Counter[] TELEPORTS_IN = teleportCounters("in");
+    private static final Counter[] TELEPORTS_OUT = teleportCounters("out");
+
+    public static void register() {
+        histogram("tatm_transfer_seconds", "", "Time from a door being used to the entity arriving", TardisTransferQueue.getTransferLatency());
+        histogram("tatm_interior_world_load_seconds", "", "Time to create an interior world", TardisInteriorWorlds.getLoadLatency());
+        histogram("tatm_interior_world_unload_seconds", "", "Time to save and close an idle interior world", TardisInteriorWorlds.getUnloadLatency());
+
+        gauge("tatm_tardises", "", "TARDISes in the registry", "gauge", server -> TardisRegistry.get(server).size());
+        gauge("tatm_registry_store_bytes", "", "Estimated heap held by the TARDIS store arrays", "gauge", server -> TardisRegistry.get(server).getStoreBytes());
+        gauge("tatm_tardises_quarantined", "", "TARDISes whose exterior block is missing", "gauge", server -> TardisRegistry.get(server).getQuarantinedCount());
+        gauge("tatm_interior_worlds_loaded", "", "Interior worlds currently loaded", "gauge", server -> TardisInteriorWorlds.getLoadedWorldCount());
+        gauge("tatm_transfers_pending", "", "Entities waiting for their destination chunk", "gauge", server -> TardisTransferQueue.getPendingCount());
+        gauge("tatm_interiors_awake", "", "Interiors in use or recently used", "gauge", server -> TardisHibernation.getAwakeCount());
+        gauge("tatm_interiors_hibernated", "", "Interiors released after staying empty", "gauge", server -> TardisHibernation.getHibernatedCount());
+        gauge("tatm_interiors_restoring", "", "Archived interiors being unpacked for an entry", "gauge", server -> TardisArchive.getRestoringCount());
+        gauge("tatm_hibernations_total", "", "Interiors put to sleep", "counter", server -> TardisHibernation.getHibernations());
+        gauge("tatm_hibernation_wakes_total", "", "Hibernated interiors entered again", "counter", server -> TardisHibernation.getWakes());
+        gauge("tatm_hibernation_released_chunks_total", "", "Loaded chunks held by interiors when they hibernated", "counter", server -> TardisHibernation.getReleasedChunks());
+        gauge("tatm_hibernation_released_bytes_estimate_total", "", "Estimated block and light data held by interiors when they hibernated", "counter", server -> TardisHibernation.getReleasedBytes());
+        gauge("tatm_hibernation_reclaimed_tick_seconds", "", "Average tick time of the interior worlds unloaded by hibernation", "counter", server -> TardisHibernation.getReclaimedTickNanos() / 1e9);
+        gauge("tatm_prewarm_entries_total", "result=\"hit\"", "TARDIS entries by whether the interior spawn chunk was already loaded", "counter", server -> TardisPrewarmer.getHits());
+        gauge("tatm_prewarm_entries_total", "result=\"miss\"", "TARDIS entries by whether the interior spawn chunk was already loaded", "counter", server -> TardisPrewarmer.getMisses());
+
+        ServerTickEvents.END_SERVER_TICK.register(TatmMetrics::dumpIfDue);
+    }
+
+    /**
+     * Count a TARDIS entry (inbound) or exit
+     */
+    public static void recordTeleport(boolean inbound, TeleportResult result) {
+        (inbound ? TELEPORTS_IN : TELEPORTS_OUT)[result.ordinal()].increment();
+    }
+
+    /**
+     * One line per metric for chat, leaving out counters and histograms that are still zero
+     */
+    public static List<String> describe(MinecraftServer server) {
+        List<String> lines = new ArrayList<>();
+        for (Metric metric : metrics) {
+            String name = metric.labels().isEmpty() ? metric.name() : metric.name() + "{" + metric.labels() + "}";
+            if (metric.source() instanceof Counter counter) {
+                if (counter.get() != 0) {
+                    lines.add(name + ": " + counter.get());
+                }
+            } else if (metric.source() instanceof LatencyHistogram histogram) {
+                if (histogram.getCount() != 0) {
+                    lines.add(String.format(Locale.ROOT, "%s: n=%d p50=%.2fms p99=%.2fms p99.9=%.2fms", name, histogram.getCount(),
+                        histogram.getPercentile(50) / 1e6, histogram.getPercentile(99) / 1e6, histogram.getPercentile(99.9) / 1e6));
+                }
+            } else {
+                lines.add(name + ": " + formatValue(gaugeValue(metric, server)));
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Render every metric in the Prometheus text exposition format. Histograms are written as summaries in seconds.
+     */
+    public static String render(MinecraftServer server) {
+        StringBuilder out = new StringBuilder();
+        String lastName = null;
+        for (Metric metric : metrics) {
+            if (!metric.name().equals(lastName)) {
+                out.append("# HELP ").append(metric.name()).append(' ').append(metric.help()).append('\n');
+                out.append("# TYPE ").append(metric.name()).append(' ').append(metric.type()).append('\n');
+                lastName = metric.name();
+            }
+
+            if (metric.source() instanceof Counter counter) {
+                appendSample(out, metric.name(), metric.labels(), counter.get());
+            } else if (metric.source() instanceof LatencyHistogram histogram) {
+                for (double percentile : PERCENTILES) {
+                    String quantile = "quantile=\"" + formatValue(percentile / 100) + "\"";
+                    String labels = metric.labels().isEmpty() ? quantile : metric.labels() + "," + quantile;
+                    appendSample(out, metric.name(), labels, histogram.getPercentile(percentile) / 1e9);
+                }
+                appendSample(out, metric.name() + "_sum", metric.labels(), histogram.getSum() / 1e9);
+                appendSample(out, metric.name() + "_count", metric.labels(), histogram.getCount());
+            } else {
+                appendSample(out, metric.name(), metric.labels(), gaugeValue(metric, server));
+            }
+        }
+        return out.toString();
+    }
+
+    private static Counter counter(String name, String labels, String help) {
+        Counter counter = new Counter();
+        add(new Metric(name, labels, help, "counter", counter));
+        return counter;
+    }
+
+    private static LatencyHistogram histogram(String name, String labels, String help) {
+        return histogram(name, labels, help, new LatencyHistogram());
+    }
+
+    private static LatencyHistogram histogram(String name, String labels, String help, LatencyHistogram histogram) {
+        add(new Metric(name, labels, help, "summary", histogram));
+        return histogram;
+    }
+
+    /**
+     * A value read from elsewhere when metrics are rendered
+     */
+    private static void gauge(String name, String labels, String help, String type, ToDoubleFunction<MinecraftServer> value) {
+        add(new Metric(name, labels, help, type, value));
+    }
+
+    private static Counter[] teleportCounters(String direction) {
+        TeleportResult[] results = TeleportResult.values();
+        Counter[] counters = new Counter[results.length];
+        for (TeleportResult result : results) {
+            counters[result.ordinal()] = counter("tatm_teleports_total",
+                "direction=\"" + direction + "\",result=\"" + result.label() + "\"", "TARDIS entries and exits by result");
+        }
+        return counters;
+    }
+
+    /**
+     * Keep metrics of the same name together, so each gets a single header
+     */
+    private static void add(Metric metric) {
+        int index = metrics.size();
+        for (int i = metrics.size() - 1; i >= 0; i--) {
+            if (metrics.get(i).name().equals(metric.name())) {
+                index = i + 1;
+                break;
+            }
+        }
+        metrics.add(index, metric);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static double gaugeValue(Metric metric, MinecraftServer server) {
+        return ((ToDoubleFunction<MinecraftServer>) metric.source()).applyAsDouble(server);
+    }
+
+    private static void appendSample(StringBuilder out, String name, String labels, double value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(formatValue(value)).append('\n');
+    }
+
+    private static String formatValue(double value) {
+        return value == Math.rint(value) && Math.abs(value) < 1e15 ? Long.toString((long) value) : Double.toString(value);
+    }
+
+    private static void dumpIfDue(MinecraftServer server) {
+        int interval = TatmConfig.metricsDumpSeconds;
+        if (interval <= 0 || server.getTicks() % (interval * 20) != 0) {
+            return;
+        }
+
+        String text = render(server);
+        Path path = server.getSavePath(WorldSavePath.ROOT).resolve(DUMP_FILE).normalize();
+        Util.getIoWorkerExecutor().execute(() -> {
+            Path temp = path.resolveSibling(DUMP_FILE + ".tmp");
+            try {
+                Files.writeString(temp, text, StandardCharsets.UTF_8);
+                try {
+                    Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } catch (IOException e) {
+                Tatm.LOGGER.error("Failed to write {}", path, e);
+            }
+        });
+    }
+}
@@ -0,0 +1,42 @@
+package com.tdjs.tatm.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for moving an entity through a TARDIS door. Its duration is the move itself, once the transfer queue
+ * has loaded the destination; time spent waiting in the queue is not included.
+ */
+@Name("tatm.Teleport")
+@Label("TARDIS Teleport")
+@Category("TARDIS")
+@Description("An entity moved into or out of a TARDIS")
+@StackTrace(false)
+public class TeleportEvent extends Event {
+    @Label("TARDIS")
+    public String tardisId;
+
+    @Label("Inbound")
+    @Description("True for an entry into the interior, false for an exit")
+    public boolean inbound;
+
+    @Label("Entity Type")
+    public String entityType;
+
+    @Label("Source Dimension")
+    public String sourceDimension;
+
+    @Label("Target Dimension")
+    public String targetDimension;
+
+    @Label("Entity Count")
+    @Description("The entity and its passengers")
+    public int entityCount;
+
+    @Label("Success")
+    public boolean success;
+}
@@ -0,0 +1,27 @@
+package com.tdjs.tatm.metrics;
+
+import java.util.Locale;
+
+/**
+ * How a TARDIS entry or exit ended, for the teleport counters
+ */
+public enum TeleportResult {
+    SUCCESS,
+    NOT_INITIALIZED,
+    INTERIOR_NOT_READY,
+    NO_SERVER,
+    ALREADY_PENDING,
+    NO_DESTINATION,
+    ENTITY_REMOVED,
+    TIMED_OUT,
+    TELEPORT_FAILED;
+
+    private final String label = name().toLowerCase(Locale.ROOT);
+
+    /**
+     * Name used as the metric label
+     */
+    public String label() {
+        return label;
+    }
+}
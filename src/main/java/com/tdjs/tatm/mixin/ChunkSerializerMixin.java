@@ -0,0 +1,30 @@
+package com.tdjs.tatm.mixin;
+
+import com.tdjs.tatm.tardis.TardisSectionStore;
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.ChunkSerializer;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.ProtoChunk;
+import net.minecraft.world.poi.PointOfInterestStorage;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
+
+/**
+ * Stores the interior sections that still match the template as references to shared data
+ */
+@Mixin(ChunkSerializer.class)
+public class ChunkSerializerMixin {
+	@Inject(at = @At("RETURN"), method = "serialize")
+	private static void tatm$shareTemplateSections(ServerWorld world, Chunk chunk, CallbackInfoReturnable<NbtCompound> info) {
+		TardisSectionStore.share(world, info.getReturnValue());
+	}
+
+	@Inject(at = @At("HEAD"), method = "deserialize")
+	private static void tatm$restoreTemplateSections(ServerWorld world, PointOfInterestStorage poiStorage, ChunkPos chunkPos, NbtCompound nbt, CallbackInfoReturnable<ProtoChunk> info) {
+		TardisSectionStore.restore(world, chunkPos, nbt);
+	}
+}
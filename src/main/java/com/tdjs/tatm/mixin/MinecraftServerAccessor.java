@@ -0,0 +1,27 @@
+package com.tdjs.tatm.mixin;
+
+import net.minecraft.registry.RegistryKey;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.world.World;
+import net.minecraft.world.level.storage.LevelStorage;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.gen.Accessor;
+
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Exposes the server internals needed to add and remove TARDIS interior worlds at runtime
+ */
+@Mixin(MinecraftServer.class)
+public interface MinecraftServerAccessor {
+	@Accessor("worlds")
+	Map<RegistryKey<World>, ServerWorld> getWorldMap();
+
+	@Accessor("session")
+	LevelStorage.Session getSession();
+
+	@Accessor("workerExecutor")
+	Executor getWorkerExecutor();
+}
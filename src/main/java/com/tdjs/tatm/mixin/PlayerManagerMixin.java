@@ -0,0 +1,24 @@
+package com.tdjs.tatm.mixin;
+
+import com.tdjs.tatm.tardis.TardisInteriorWorlds;
+import net.minecraft.network.ClientConnection;
+import net.minecraft.registry.RegistryKey;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.PlayerManager;
+import net.minecraft.server.network.ServerPlayerEntity;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.world.World;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Redirect;
+
+/**
+ * Brings back the interior world a player logged out in before they are placed, since interior worlds only exist while in use
+ */
+@Mixin(PlayerManager.class)
+public class PlayerManagerMixin {
+	@Redirect(method = "onPlayerConnect", at = @At(value = "INVOKE", target = "Lnet/minecraft/server/MinecraftServer;getWorld(Lnet/minecraft/registry/RegistryKey;)Lnet/minecraft/server/world/ServerWorld;"))
+	private ServerWorld tatm$loadInteriorWorld(MinecraftServer server, RegistryKey<World> key, ClientConnection connection, ServerPlayerEntity player) {
+		return TardisInteriorWorlds.getLoginWorld(server, key, player);
+	}
+}
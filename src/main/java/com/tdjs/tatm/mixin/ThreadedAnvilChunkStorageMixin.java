@@ -0,0 +1,29 @@
+package com.tdjs.tatm.mixin;
+
+import com.tdjs.tatm.tardis.TardisSectionStore;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.server.world.ThreadedAnvilChunkStorage;
+import net.minecraft.world.chunk.Chunk;
+import org.spongepowered.asm.mixin.Final;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
+
+/**
+ * Keeps interior chunks whose shared sections could not be restored from being saved over their references
+ */
+@Mixin(ThreadedAnvilChunkStorage.class)
+public class ThreadedAnvilChunkStorageMixin {
+	@Shadow
+	@Final
+	ServerWorld world;
+
+	@Inject(at = @At("HEAD"), method = "save(Lnet/minecraft/world/chunk/Chunk;)Z", cancellable = true)
+	private void tatm$skipUnrestoredChunks(Chunk chunk, CallbackInfoReturnable<Boolean> info) {
+		if (TardisSectionStore.isUnsaveable(world, chunk.getPos())) {
+			info.setReturnValue(false);
+		}
+	}
+}
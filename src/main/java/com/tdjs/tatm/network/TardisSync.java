@@ -0,0 +1,298 @@
+package com.tdjs.tatm.network;
+
+import com.tdjs.tatm.Tatm;
+import com.tdjs.tatm.metrics.TatmMetrics;
+import com.tdjs.tatm.tardis.TardisChangeStream;
+import com.tdjs.tatm.tardis.TardisExteriorIndex;
+import com.tdjs.tatm.tardis.TardisInstance;
+import com.tdjs.tatm.tardis.TardisRecord;
+import com.tdjs.tatm.tardis.TardisRegistry;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
+import net.fabricmc.fabric.api.networking.v1.PacketByteBufs;
+import net.fabricmc.fabric.api.networking.v1.ServerPlayNetworking;
+import net.minecraft.network.PacketByteBuf;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.network.ServerPlayerEntity;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.util.Identifier;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Sends every player the TARDIS exteriors in the chunks within view distance of them,
+ * for the client-side cache. A player gets a snapshot of the occupied chunks around them
+ * when they join or change dimension, and the chunks entering or leaving their view as they move.
+ * Registry changes are collected from the {@link TardisChangeStream} and coalesced per chunk,
+ * so at the end of each tick a player gets the current contents of each changed chunk they can see,
+ * however many changes it had. Only occupied chunks are ever sent, so the traffic of a player
+ * follows the TARDISes near them, not the size of the fleet.
+ *
+ * <p>Packet format: a boolean reset flag, followed by the dimension if set (the client then
+ * drops its cache), then chunk updates up to the end of the packet. A chunk update is the packed
+ * ChunkPos, a VarInt count and that many exteriors, each a byte of local X and Z, the zigzag
+ * VarInt Y, the UUID and a ready flag. A count of zero drops the chunk.
+ */
+public class TardisSync {
+    public static final Identifier CHANNEL = new Identifier(Tatm.MOD_ID, "tardis_sync");
+    // Start another packet past this many bytes, well below the custom payload limit
+    private static final int MAX_PACKET_BYTES = 32 * 1024;
+
+    private static final Map<UUID, PlayerView> views = new HashMap<>();
+    // Chunks whose exteriors changed since the last tick, per dimension
+    private static final Map<Identifier, LongOpenHashSet> changedChunks = new HashMap<>();
+    private static TardisChangeStream.Subscription subscription;
+    // Set when change events were lost, so every player is sent a new snapshot
+    private static boolean resyncAll;
+
+    // Reused while writing a chunk
+    private static final LongArrayList chunkPositions = new LongArrayList();
+    private static final List<UUID> chunkTardises = new ArrayList<>();
+    private static final LongOpenHashSet written = new LongOpenHashSet();
+
+    /**
+     * What a player has been sent
+     */
+    private static final class PlayerView {
+        private ServerPlayerEntity player;
+        private Identifier dimension;
+        private long center;
+        private int radius;
+        // Occupied chunks the client has in its cache
+        private final LongOpenHashSet sent = new LongOpenHashSet();
+    }
+
+    public static void register() {
+        // Registered after the registry, so this tick's changes have been delivered by the time it runs
+        ServerTickEvents.END_SERVER_TICK.register(TardisSync::tick);
+        ServerLifecycleEvents.SERVER_STOPPED.register(server -> {
+            views.clear();
+            changedChunks.clear();
+            subscription = null;
+            resyncAll = false;
+        });
+    }
+
+    private static void tick(MinecraftServer server) {
+        TardisRegistry registry = TardisRegistry.get(server);
+        if (subscription == null) {
+            // Delivered on the server thread, during the registry's own end of tick
+            subscription = registry.subscribe(Runnable::run, batch -> collect(registry, batch));
+        }
+
+        views.keySet().removeIf(playerId -> server.getPlayerManager().getPlayer(playerId) == null);
+        int radius = server.getPlayerManager().getViewDistance();
+
+        for (ServerWorld world : server.getWorlds()) {
+            if (world.getPlayers().isEmpty()) {
+                continue;
+            }
+            Identifier dimension = world.getRegistryKey().getValue();
+            TardisExteriorIndex exteriors = registry.getExteriorIndex(dimension);
+            LongOpenHashSet changed = changedChunks.get(dimension);
+
+            for (ServerPlayerEntity player : world.getPlayers()) {
+                if (ServerPlayNetworking.canSend(player, CHANNEL)) {
+                    PlayerView view = views.computeIfAbsent(player.getUuid(), playerId -> new PlayerView());
+                    sync(player, view, registry, dimension, exteriors, changed, radius);
+                }
+            }
+        }
+
+        changedChunks.clear();
+        resyncAll = false;
+    }
+
+    /**
+     * Note the chunks touched by a batch of registry changes
+     */
+    private static void collect(TardisRegistry registry, TardisChangeStream.Batch batch) {
+        if (batch.dropped() > 0) {
+            resyncAll = true;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            switch (batch.kind(i)) {
+                case CREATED, MOVED, REMOVED -> {
+                    markChanged(batch.dimension(i), batch.pos(i));
+                    markChanged(batch.previousDimension(i), batch.previousPos(i));
+                }
+                case INTERIOR_INITIALIZED, INTERIOR_BUILT -> {
+                    // Changes whether the exterior is ready to enter
+                    TardisRecord record = registry.getRecord(batch.tardisId(i));
+                    if (record != null) {
+                        markChanged(record.exteriorDimension(), record.exteriorPos());
+                    }
+                }
+            }
+        }
+    }
+
+    private static void markChanged(Identifier dimension, BlockPos pos) {
+        if (dimension != null && pos != null) {
+            changedChunks.computeIfAbsent(dimension, key -> new LongOpenHashSet())
+                .add(ChunkPos.toLong(pos.getX() >> 4, pos.getZ() >> 4));
+        }
+    }
+
+    private static void sync(ServerPlayerEntity player, PlayerView view, TardisRegistry registry, Identifier dimension,
+                             TardisExteriorIndex exteriors, LongOpenHashSet changed, int radius) {
+        ChunkPos centerPos = player.getChunkPos();
+        long center = centerPos.toLong();
+        int minX = centerPos.x - radius;
+        int minZ = centerPos.z - radius;
+        int maxX = centerPos.x + radius;
+        int maxZ = centerPos.z + radius;
+        // A respawned player is a new entity, so it is always sent a snapshot
+        boolean reset = resyncAll || view.player != player || !dimension.equals(view.dimension) || view.radius != radius;
+
+        PacketWriter out = new PacketWriter(player, reset ? dimension : null);
+        written.clear();
+
+        if (reset) {
+            view.player = player;
+            view.dimension = dimension;
+            view.radius = radius;
+            view.sent.clear();
+            if (exteriors != null) {
+                exteriors.forEachOccupiedChunk(minX, minZ, maxX, maxZ, chunk -> {
+                    writeChunk(out, registry, exteriors, chunk);
+                    view.sent.add(chunk);
+                    written.add(chunk);
+                });
+            }
+            TatmMetrics.SYNC_RESETS.increment();
+        } else if (view.center != center) {
+            // Drop chunks that left the view, then send the occupied chunks that entered it
+            for (LongIterator chunks = view.sent.iterator(); chunks.hasNext(); ) {
+                long chunk = chunks.nextLong();
+                if (!contains(minX, minZ, maxX, maxZ, chunk)) {
+                    out.writeChunkHeader(chunk, 0);
+                    chunks.remove();
+                }
+            }
+            if (exteriors != null) {
+                exteriors.forEachOccupiedChunk(minX, minZ, maxX, maxZ, chunk -> {
+                    if (view.sent.add(chunk)) {
+                        writeChunk(out, registry, exteriors, chunk);
+                        written.add(chunk);
+                    }
+                });
+            }
+        }
+        view.center = center;
+
+        if (changed != null) {
+            for (LongIterator chunks = changed.iterator(); chunks.hasNext(); ) {
+                long chunk = chunks.nextLong();
+                if (written.contains(chunk) || !contains(minX, minZ, maxX, maxZ, chunk)) {
+                    continue;
+                }
+                if (exteriors != null && exteriors.hasAnyInChunk(ChunkPos.getPackedX(chunk), ChunkPos.getPackedZ(chunk))) {
+                    writeChunk(out, registry, exteriors, chunk);
+                    view.sent.add(chunk);
+                } else if (view.sent.remove(chunk)) {
+                    out.writeChunkHeader(chunk, 0);
+                }
+            }
+        }
+
+        out.flush();
+    }
+
+    /**
+     * Write the current exteriors of a chunk
+     */
+    private static void writeChunk(PacketWriter out, TardisRegistry registry, TardisExteriorIndex exteriors, long chunk) {
+        chunkPositions.clear();
+        chunkTardises.clear();
+        exteriors.forEachInChunk(ChunkPos.getPackedX(chunk), ChunkPos.getPackedZ(chunk), (pos, tardisId) -> {
+            chunkPositions.add(pos);
+            chunkTardises.add(tardisId);
+        });
+
+        int count = chunkPositions.size();
+        PacketByteBuf buf = out.writeChunkHeader(chunk, count);
+        for (int i = 0; i < count; i++) {
+            long pos = chunkPositions.getLong(i);
+            int y = BlockPos.unpackLongY(pos);
+            buf.writeByte((BlockPos.unpackLongX(pos) & 15) << 4 | BlockPos.unpackLongZ(pos) & 15);
+            buf.writeVarInt(y << 1 ^ y >> 31);
+            buf.writeUuid(chunkTardises.get(i));
+            TardisInstance tardis = registry.getTardis(chunkTardises.get(i));
+            buf.writeBoolean(tardis != null && tardis.isInitialized() && tardis.isInteriorBuilt());
+        }
+    }
+
+    private static boolean contains(int minX, int minZ, int maxX, int maxZ, long chunk) {
+        int x = ChunkPos.getPackedX(chunk);
+        int z = ChunkPos.getPackedZ(chunk);
+        return x >= minX && x <= maxX && z >= minZ && z <= maxZ;
+    }
+
+    /**
+     * Splits the updates for one player into packets, only sending when there is something to send
+     */
+    private static final class PacketWriter {
+        private final ServerPlayerEntity player;
+        private Identifier resetDimension;
+        private PacketByteBuf buf;
+
+        private PacketWriter(ServerPlayerEntity player, Identifier resetDimension) {
+            this.player = player;
+            this.resetDimension = resetDimension;
+        }
+
+        /**
+         * Start a chunk update, returning the buffer its exteriors are written to
+         */
+        private PacketByteBuf writeChunkHeader(long chunk, int count) {
+            if (buf != null && buf.writerIndex() > MAX_PACKET_BYTES) {
+                send();
+            }
+            if (buf == null) {
+                start();
+            }
+            buf.writeLong(chunk);
+            buf.writeVarInt(count);
+            return buf;
+        }
+
+        /**
+         * Send what has been written, and the reset even if no chunk was written
+         */
+        private void flush() {
+            if (buf == null && resetDimension != null) {
+                start();
+            }
+            if (buf != null) {
+                send();
+            }
+        }
+
+        private void start() {
+            buf = PacketByteBufs.create();
+            buf.writeBoolean(resetDimension != null);
+            if (resetDimension != null) {
+                buf.writeIdentifier(resetDimension);
+                // Only the first packet of a snapshot clears the cache
+                resetDimension = null;
+            }
+        }
+
+        private void send() {
+            TatmMetrics.SYNC_PACKETS.increment();
+            TatmMetrics.SYNC_BYTES.add(buf.writerIndex());
+            ServerPlayNetworking.send(player, CHANNEL, buf);
+            buf = null;
+        }
+    }
+}
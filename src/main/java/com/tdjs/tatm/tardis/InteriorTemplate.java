@@ -0,0 +1,155 @@
+package com.tdjs.tatm.tardis;
+
+import com.tdjs.tatm.Tatm;
+import com.tdjs.tatm.block.TatmBlocks;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.block.Block;
+import net.minecraft.block.BlockState;
+import net.minecraft.block.Blocks;
+import net.minecraft.util.collection.PackedIntegerArray;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkSectionPos;
+import net.minecraft.util.math.MathHelper;
+import net.minecraft.world.chunk.PalettedContainer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An interior layout compiled into chunk-section-sized palettes of packed block indices,
+ * ready to be written into a world one section at a time.
+ * Positions are relative to the interior spawn position, which is always section-aligned,
+ * so a compiled section maps directly onto a world section.
+ */
+public class InteriorTemplate {
+    private static final int SECTION_VOLUME = 16 * 16 * 16;
+
+    /**
+     * One compiled section. Palette index 0 means "leave the block unchanged".
+     * Blocks are indexed the way vanilla sections are: {@code y << 8 | z << 4 | x}.
+     *
+     * @param blockStates the section as a block state container with air for unchanged blocks,
+     *                    copied whole into sections that are still empty
+     */
+    public record CompiledSection(int sectionX, int sectionY, int sectionZ, BlockState[] palette, PackedIntegerArray blocks,
+                                  PalettedContainer<BlockState> blockStates, int blockCount) {}
+
+    private final List<CompiledSection> sections;
+    private final int blockCount;
+
+    private InteriorTemplate(List<CompiledSection> sections) {
+        this.sections = Collections.unmodifiableList(sections);
+        this.blockCount = sections.stream().mapToInt(CompiledSection::blockCount).sum();
+    }
+
+    public List<CompiledSection> getSections() {
+        return sections;
+    }
+
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    /**
+     * The default console room: a lit 16x16 room with the exit door opposite the spawn point
+     */
+    public static InteriorTemplate createDefault() {
+        BlockState floor = Blocks.SMOOTH_QUARTZ.getDefaultState();
+        BlockState wall = Blocks.WHITE_CONCRETE.getDefaultState();
+        BlockState ceiling = Blocks.QUARTZ_BLOCK.getDefaultState();
+        BlockState light = Blocks.SEA_LANTERN.getDefaultState();
+
+        return new Builder()
+            .fill(-8, -1, -8, 7, -1, 7, floor)
+            .fill(-8, 6, -8, 7, 6, 7, ceiling)
+            .fill(-8, 0, -8, 7, 5, -8, wall)
+            .fill(-8, 0, 7, 7, 5, 7, wall)
+            .fill(-8, 0, -7, -8, 5, 6, wall)
+            .fill(7, 0, -7, 7, 5, 6, wall)
+            .set(-4, 6, -4, light)
+            .set(3, 6, -4, light)
+            .set(-4, 6, 3, light)
+            .set(3, 6, 3, light)
+            .set(0, 0, 6, TatmBlocks.TARDIS_EXIT_BLOCK.getDefaultState())
+            .compile();
+    }
+
+    /**
+     * Collects blocks relative to the spawn position and compiles them into sections
+     */
+    public static class Builder {
+        private final Long2ObjectMap<BlockState> blocks = new Long2ObjectOpenHashMap<>();
+
+        public Builder set(int x, int y, int z, BlockState state) {
+            if (state.hasBlockEntity()) {
+                // Sections are written directly, which would skip creating the block entity
+                Tatm.LOGGER.warn("Ignoring {} in interior template: block entities are not supported", state);
+                return this;
+            }
+            blocks.put(BlockPos.asLong(x, y, z), state);
+            return this;
+        }
+
+        public Builder fill(int x1, int y1, int z1, int x2, int y2, int z2, BlockState state) {
+            for (int x = Math.min(x1, x2); x <= Math.max(x1, x2); x++) {
+                for (int y = Math.min(y1, y2); y <= Math.max(y1, y2); y++) {
+                    for (int z = Math.min(z1, z2); z <= Math.max(z1, z2); z++) {
+                        set(x, y, z, state);
+                    }
+                }
+            }
+            return this;
+        }
+
+        public InteriorTemplate compile() {
+            // Group blocks by section, keyed by packed section position
+            Long2ObjectMap<Int2ObjectMap<BlockState>> bySection = new Long2ObjectOpenHashMap<>();
+            for (Long2ObjectMap.Entry<BlockState> entry : blocks.long2ObjectEntrySet()) {
+                long pos = entry.getLongKey();
+                int x = BlockPos.unpackLongX(pos);
+                int y = BlockPos.unpackLongY(pos);
+                int z = BlockPos.unpackLongZ(pos);
+                long sectionKey = ChunkSectionPos.asLong(
+                    ChunkSectionPos.getSectionCoord(x), ChunkSectionPos.getSectionCoord(y), ChunkSectionPos.getSectionCoord(z));
+                int index = (y & 15) << 8 | (z & 15) << 4 | (x & 15);
+                bySection.computeIfAbsent(sectionKey, key -> new Int2ObjectOpenHashMap<>()).put(index, entry.getValue());
+            }
+
+            List<CompiledSection> sections = new ArrayList<>();
+            for (Long2ObjectMap.Entry<Int2ObjectMap<BlockState>> entry : bySection.long2ObjectEntrySet()) {
+                List<BlockState> palette = new ArrayList<>();
+                palette.add(null);
+                for (BlockState state : entry.getValue().values()) {
+                    if (!palette.contains(state)) {
+                        palette.add(state);
+                    }
+                }
+
+                PackedIntegerArray packed = new PackedIntegerArray(Math.max(1, MathHelper.ceilLog2(palette.size())), SECTION_VOLUME);
+                PalettedContainer<BlockState> blockStates = new PalettedContainer<>(
+                    Block.STATE_IDS, Blocks.AIR.getDefaultState(), PalettedContainer.PaletteProvider.BLOCK_STATE);
+                for (Int2ObjectMap.Entry<BlockState> block : entry.getValue().int2ObjectEntrySet()) {
+                    int index = block.getIntKey();
+                    packed.set(index, palette.indexOf(block.getValue()));
+                    blockStates.set(index & 15, index >> 8 & 15, index >> 4 & 15, block.getValue());
+                }
+
+                long sectionKey = entry.getLongKey();
+                sections.add(new CompiledSection(
+                    ChunkSectionPos.unpackX(sectionKey),
+                    ChunkSectionPos.unpackY(sectionKey),
+                    ChunkSectionPos.unpackZ(sectionKey),
+                    palette.toArray(new BlockState[0]),
+                    packed,
+                    blockStates,
+                    entry.getValue().size()
+                ));
+            }
+            return new InteriorTemplate(sections);
+        }
+    }
+}
@@ -0,0 +1,413 @@
+package com.tdjs.tatm.tardis;
+
+import com.tdjs.tatm.Tatm;
+import com.tdjs.tatm.config.TatmConfig;
+import com.tdjs.tatm.metrics.TatmMetrics;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
+import net.minecraft.registry.RegistryKey;
+import net.minecraft.registry.RegistryKeys;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.Identifier;
+import net.minecraft.util.Util;
+import net.minecraft.util.WorldSavePath;
+import net.minecraft.world.World;
+import net.minecraft.world.dimension.DimensionType;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Packs the interior worlds of TARDISes nobody has entered for {@code interior_archive_days}
+ * into one zip per TARDIS under {@code tatm_archive} in the world folder, and removes their
+ * region, entity and POI files, so dormant interiors stop costing backup and disk scans.
+ * An archived TARDIS is flagged on its {@link TardisInstance}; the next time its interior world
+ * is needed (see {@link TardisInteriorWorlds#withInteriorWorld}) the archive is unpacked on an IO
+ * thread first, and the entering entity follows once it is back.
+ * Only interiors with a dimension of their own are archived; plots in the shared dimension
+ * live in region files shared with other TARDISes.
+ * The interior directory is only ever swapped in or out whole by renaming, so after a crash
+ * the flag is set again from whichever of the directory and the archive exists.
+ */
+public class TardisArchive {
+    private static final String DIRECTORY = "tatm_archive";
+    // Suffixes of an interior directory being removed or unpacked, next to where it lives
+    private static final String REMOVING_SUFFIX = ".tatm_removing";
+    private static final String RESTORING_SUFFIX = ".tatm_restoring";
+
+    // Dormant interiors are looked for every five minutes, and only a few are packed at a time
+    private static final int CHECK_INTERVAL = 20 * 60 * 5;
+    private static final int MAX_ARCHIVES_PER_CHECK = 8;
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    /**
+     * An archive or restore in progress
+     *
+     * @param io the file work, which must finish before the server exits
+     * @param done completes on the server thread with whether it succeeded
+     */
+    private record Operation(boolean restore, CompletableFuture<?> io, CompletableFuture<Boolean> done) {
+    }
+
+    // Operation running for each TARDIS; a restore waits for an archive still running (server thread only)
+    private static final Map<UUID, Operation> operations = new HashMap<>();
+
+    public static void register() {
+        ServerLifecycleEvents.SERVER_STARTED.register(TardisArchive::recover);
+        ServerTickEvents.END_SERVER_TICK.register(TardisArchive::tick);
+        ServerLifecycleEvents.SERVER_STOPPED.register(server -> {
+            awaitFileWork();
+            operations.clear();
+        });
+    }
+
+    /**
+     * Check if the interior of a TARDIS is archived, or being archived or restored, so its world must not be created yet
+     */
+    public static boolean isArchived(TardisInstance tardis) {
+        return tardis.isArchived() || operations.containsKey(tardis.getTardisId());
+    }
+
+    /**
+     * Check if the interior of a TARDIS is being unpacked for an entry
+     */
+    public static boolean isRestoring(UUID tardisId) {
+        Operation operation = operations.get(tardisId);
+        return operation != null && operation.restore();
+    }
+
+    public static int getRestoringCount() {
+        int count = 0;
+        for (Operation operation : operations.values()) {
+            if (operation.restore()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Unpack the interior of a TARDIS, after any archive of it still running. The future completes
+     * on the server thread with true once the interior world can be created, or false if it failed.
+     */
+    public static CompletableFuture<Boolean> restore(MinecraftServer server, TardisInstance tardis) {
+        UUID tardisId = tardis.getTardisId();
+        Operation running = operations.get(tardisId);
+        if (running != null && running.restore()) {
+            return running.done();
+        }
+
+        Identifier dimension = tardis.getInteriorDimension();
+        Path directory = interiorDirectory(server, dimension);
+        Path archive = archivePath(server, tardisId);
+        CompletableFuture<Boolean> previous = running != null ? running.done() : CompletableFuture.completedFuture(true);
+
+        // Runs on the server thread: the archive finished there, or nothing was running
+        CompletableFuture<Void> io = previous.thenCompose(archived -> {
+            TardisInstance current = TardisRegistry.get(server).getTardis(tardisId);
+            if (current == null || !current.isArchived()) {
+                return CompletableFuture.completedFuture(null);
+            }
+            return CompletableFuture.runAsync(() -> {
+                try {
+                    unpack(archive, directory);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }, Util.getIoWorkerExecutor());
+        });
+
+        CompletableFuture<Boolean> done = new CompletableFuture<>();
+        Operation operation = new Operation(true, io, done);
+        operations.put(tardisId, operation);
+        io.whenCompleteAsync((result, error) -> {
+            operations.remove(tardisId, operation);
+            done.complete(finishRestore(server, tardisId, archive, error));
+        }, server);
+        return done;
+    }
+
+    private static boolean finishRestore(MinecraftServer server, UUID tardisId, Path archive, Throwable error) {
+        if (error != null) {
+            TatmMetrics.ARCHIVE_FAILURES.increment();
+            Tatm.LOGGER.error("Failed to restore the interior of TARDIS {} from {}", tardisId, archive, error);
+            return false;
+        }
+
+        TardisRegistry registry = TardisRegistry.get(server);
+        TardisInstance tardis = registry.getTardis(tardisId);
+        if (tardis == null) {
+            return false;
+        }
+        if (tardis.isArchived()) {
+            registry.setArchived(tardisId, false);
+            TatmMetrics.INTERIORS_RESTORED.increment();
+            Tatm.LOGGER.info("Restored the interior of TARDIS {} from its archive", tardisId);
+            // The unpacked directory is authoritative now; recover() drops the archive if this delete fails
+            Util.getIoWorkerExecutor().execute(() -> deleteQuietly(archive));
+        }
+        return true;
+    }
+
+    private static void tick(MinecraftServer server) {
+        int days = TatmConfig.interiorArchiveDays;
+        if (days <= 0 || server.getTicks() % CHECK_INTERVAL != 0) {
+            return;
+        }
+
+        long cutoff = System.currentTimeMillis() - days * DAY_MILLIS;
+        int started = 0;
+        for (TardisInstance tardis : TardisRegistry.get(server).getAllTardises()) {
+            // Never-entered TARDISes have no entry time to go by, so they are left alone
+            long lastEntered = tardis.getLastEnteredTime();
+            if (lastEntered == 0 || lastEntered > cutoff || isArchived(tardis) || !tardis.isInteriorBuilt()) {
+                continue;
+            }
+            Identifier dimension = tardis.getInteriorDimension();
+            if (!tardis.getTardisId().equals(TardisDimensionManager.getTardisIdOf(dimension))) {
+                continue;
+            }
+            // Loaded interiors are archived once they have been unloaded for being idle
+            RegistryKey<World> key = RegistryKey.of(RegistryKeys.WORLD, dimension);
+            if (server.getWorld(key) != null || TardisInteriorWorlds.isLoadPending(key)) {
+                continue;
+            }
+
+            archive(server, tardis);
+            if (++started >= MAX_ARCHIVES_PER_CHECK) {
+                break;
+            }
+        }
+    }
+
+    private static void archive(MinecraftServer server, TardisInstance tardis) {
+        UUID tardisId = tardis.getTardisId();
+        Path directory = interiorDirectory(server, tardis.getInteriorDimension());
+        Path archive = archivePath(server, tardisId);
+
+        CompletableFuture<Long> io = CompletableFuture.supplyAsync(() -> {
+            try {
+                return pack(directory, archive);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, Util.getIoWorkerExecutor());
+
+        CompletableFuture<Boolean> done = new CompletableFuture<>();
+        Operation operation = new Operation(false, io, done);
+        operations.put(tardisId, operation);
+        io.whenCompleteAsync((bytes, error) -> {
+            // A restore queued behind this archive replaces it in the map, and stays there
+            operations.remove(tardisId, operation);
+            done.complete(finishArchive(server, tardisId, bytes, error));
+        }, server);
+    }
+
+    private static boolean finishArchive(MinecraftServer server, UUID tardisId, Long bytes, Throwable error) {
+        if (error != null) {
+            TatmMetrics.ARCHIVE_FAILURES.increment();
+            Tatm.LOGGER.error("Failed to archive the interior of TARDIS {}", tardisId, error);
+            return false;
+        }
+        if (bytes < 0) {
+            // Nothing was ever saved for this interior
+            return false;
+        }
+
+        TardisRegistry registry = TardisRegistry.get(server);
+        if (registry.getTardis(tardisId) == null) {
+            // Removed while it was packed; the archive is left as the only copy of its interior
+            return false;
+        }
+        registry.setArchived(tardisId, true);
+        TatmMetrics.INTERIORS_ARCHIVED.increment();
+        TatmMetrics.ARCHIVED_BYTES.add(bytes);
+        Tatm.LOGGER.debug("Archived the interior of TARDIS {} ({} bytes)", tardisId, bytes);
+        return true;
+    }
+
+    /**
+     * Zip an interior directory and then remove it. Runs on an IO thread.
+     *
+     * @return bytes of files packed, or -1 if the directory does not exist
+     */
+    private static long pack(Path directory, Path archive) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return -1;
+        }
+
+        Files.createDirectories(archive.getParent());
+        Path temp = archive.resolveSibling(archive.getFileName() + ".tmp");
+        long bytes = 0;
+        try (ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)));
+             Stream<Path> walk = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) walk.filter(Files::isRegularFile)::iterator) {
+                out.putNextEntry(new ZipEntry(directory.relativize(file).toString().replace(File.separatorChar, '/')));
+                bytes += Files.copy(file, out);
+                out.closeEntry();
+            }
+        }
+        TardisRegistryStorage.moveAtomically(temp, archive);
+
+        // Moved aside in one step, so the directory is either whole or gone
+        Path removing = sibling(directory, REMOVING_SUFFIX);
+        deleteRecursively(removing);
+        TardisRegistryStorage.moveAtomically(directory, removing);
+        deleteRecursively(removing);
+        return bytes;
+    }
+
+    /**
+     * Unzip an archive into a fresh interior directory. Runs on an IO thread.
+     */
+    private static void unpack(Path archive, Path directory) throws IOException {
+        Path restoring = sibling(directory, RESTORING_SUFFIX);
+        deleteRecursively(restoring);
+        Files.createDirectories(restoring);
+
+        try (ZipInputStream in = new ZipInputStream(new BufferedInputStream(Files.newInputStream(archive)))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                Path file = restoring.resolve(entry.getName()).normalize();
+                if (!file.startsWith(restoring)) {
+                    throw new IOException("Archive entry outside the interior directory: " + entry.getName());
+                }
+                Files.createDirectories(file.getParent());
+                Files.copy(in, file);
+            }
+        }
+
+        // A directory written since the archive was made would be empty void; the archive wins
+        Path removing = sibling(directory, REMOVING_SUFFIX);
+        if (Files.exists(directory)) {
+            deleteRecursively(removing);
+            TardisRegistryStorage.moveAtomically(directory, removing);
+        }
+        TardisRegistryStorage.moveAtomically(restoring, directory);
+        deleteRecursively(removing);
+    }
+
+    /**
+     * Make the archived flags agree with the files, after a crash between the file work and a registry save
+     */
+    private static void recover(MinecraftServer server) {
+        TardisRegistry registry = TardisRegistry.get(server);
+        for (TardisInstance tardis : registry.getAllTardises()) {
+            if (tardis.isArchived() && !Files.exists(archivePath(server, tardis.getTardisId()))) {
+                Tatm.LOGGER.warn("Archive of TARDIS {} is missing; using its interior directory as it is", tardis.getTardisId());
+                registry.setArchived(tardis.getTardisId(), false);
+            }
+        }
+
+        Path archives = archiveDirectory(server);
+        if (!Files.isDirectory(archives)) {
+            return;
+        }
+        List<Path> stale = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(archives, "*.zip")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                UUID tardisId;
+                try {
+                    tardisId = UUID.fromString(name.substring(0, name.length() - 4));
+                } catch (IllegalArgumentException e) {
+                    continue;
+                }
+
+                TardisInstance tardis = registry.getTardis(tardisId);
+                if (tardis == null || tardis.isArchived() || tardis.getInteriorDimension() == null) {
+                    // Archives of removed TARDISes are kept, like their interior directories
+                    continue;
+                }
+                if (Files.isDirectory(interiorDirectory(server, tardis.getInteriorDimension()))) {
+                    // Restored, or the directory was never removed
+                    stale.add(file);
+                } else {
+                    registry.setArchived(tardisId, true);
+                }
+            }
+        } catch (IOException e) {
+            Tatm.LOGGER.warn("Failed to check TARDIS interior archives", e);
+        }
+
+        if (!stale.isEmpty()) {
+            Util.getIoWorkerExecutor().execute(() -> stale.forEach(TardisArchive::deleteQuietly));
+        }
+    }
+
+    /**
+     * Wait for file work still running, so the server does not exit halfway through writing an archive
+     */
+    private static void awaitFileWork() {
+        List<CompletableFuture<?>> running = new ArrayList<>();
+        for (Operation operation : operations.values()) {
+            running.add(operation.io());
+        }
+        try {
+            CompletableFuture.allOf(running.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            // Already logged as each operation failed
+        } catch (TimeoutException e) {
+            Tatm.LOGGER.warn("Timed out waiting for TARDIS interior archives to finish");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Path interiorDirectory(MinecraftServer server, Identifier dimension) {
+        return DimensionType.getSaveDirectory(RegistryKey.of(RegistryKeys.WORLD, dimension), server.getSavePath(WorldSavePath.ROOT))
+            .toAbsolutePath().normalize();
+    }
+
+    private static Path archiveDirectory(MinecraftServer server) {
+        return server.getSavePath(WorldSavePath.ROOT).resolve(DIRECTORY);
+    }
+
+    private static Path archivePath(MinecraftServer server, UUID tardisId) {
+        return archiveDirectory(server).resolve(tardisId + ".zip");
+    }
+
+    private static Path sibling(Path directory, String suffix) {
+        return directory.resolveSibling(directory.getFileName() + suffix);
+    }
+
+    private static void deleteRecursively(Path directory) throws IOException {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> walk = Files.walk(directory)) {
+            // Children before their parents
+            for (Path path : (Iterable<Path>) walk.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            Tatm.LOGGER.warn("Failed to delete {}", path, e);
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package com.tdjs.tatm.tardis;
+
+import com.tdjs.tatm.Tatm;
+import com.tdjs.tatm.metrics.TatmMetrics;
+import net.minecraft.util.Identifier;
+import net.minecraft.util.math.BlockPos;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.invoke.VarHandle;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Changes to the TARDIS registry, published to subscribers in batches.
+ * Events are written by the server thread into a fixed-size ring of parallel arrays,
+ * so publishing allocates nothing and never waits. Once per tick every subscriber with
+ * new events gets a delivery task on its own executor, which copies the events into a
+ * reusable {@link Batch}. A subscriber that falls more than a ring behind loses its
+ * oldest events; the loss is counted and reported with the next batch, instead of
+ * holding up the tick.
+ */
+public class TardisChangeStream {
+    public enum Kind {
+        CREATED,
+        // The exterior moved, including being restored from quarantine; no new position when quarantined
+        MOVED,
+        INTERIOR_INITIALIZED,
+        // The interior was placed, so the TARDIS can be entered
+        INTERIOR_BUILT,
+        REMOVED
+    }
+
+    private static final Kind[] KINDS = Kind.values();
+    private static final int BATCH_SIZE = 1024;
+
+    private final int mask;
+    private final byte[] kinds;
+    private final long[] idMost;
+    private final long[] idLeast;
+    private final long[] positions;
+    private final Identifier[] dimensions;
+    private final long[] previousPositions;
+    private final Identifier[] previousDimensions;
+    // Sequence number of the next event; everything below it is published
+    private volatile long head;
+
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    /**
+     * Receives batches of events, on the executor given when subscribing
+     */
+    @FunctionalInterface
+    public interface Listener {
+        void onChanges(Batch batch);
+    }
+
+    /**
+     * @param capacity events kept for subscribers that have not caught up, rounded up to a power of two
+     */
+    public TardisChangeStream(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        mask = size - 1;
+        kinds = new byte[size];
+        idMost = new long[size];
+        idLeast = new long[size];
+        positions = new long[size];
+        dimensions = new Identifier[size];
+        previousPositions = new long[size];
+        previousDimensions = new Identifier[size];
+    }
+
+    /**
+     * Subscribe to every event published from now on. Batches are delivered one at a time,
+     * in order, on the given executor; a listener on the server thread should be quick.
+     */
+    public Subscription subscribe(Executor executor, Listener listener) {
+        Subscription subscription = new Subscription(executor, listener, head);
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    /**
+     * Publish an event. Server thread only.
+     *
+     * @param pos the exterior position, or the interior position for {@link Kind#INTERIOR_INITIALIZED}
+     * @param previousPos the exterior position before a move or removal
+     */
+    void publish(Kind kind, UUID tardisId, @Nullable BlockPos pos, @Nullable Identifier dimension,
+                 @Nullable BlockPos previousPos, @Nullable Identifier previousDimension) {
+        long sequence = head;
+        int index = (int) sequence & mask;
+        kinds[index] = (byte) kind.ordinal();
+        idMost[index] = tardisId.getMostSignificantBits();
+        idLeast[index] = tardisId.getLeastSignificantBits();
+        positions[index] = pos != null ? pos.asLong() : Long.MAX_VALUE;
+        dimensions[index] = dimension;
+        previousPositions[index] = previousPos != null ? previousPos.asLong() : Long.MAX_VALUE;
+        previousDimensions[index] = previousDimension;
+        // The volatile write publishes the slot to subscribers reading it after reading head
+        head = sequence + 1;
+        TatmMetrics.CHANGES_PUBLISHED.increment();
+    }
+
+    /**
+     * Schedule delivery for every subscriber with events it has not seen. Server thread only, once per tick.
+     */
+    void dispatch() {
+        long published = head;
+        for (Subscription subscription : subscriptions) {
+            if (subscription.cursor < published && subscription.scheduled.compareAndSet(false, true)) {
+                try {
+                    subscription.executor.execute(subscription::drain);
+                } catch (RejectedExecutionException e) {
+                    subscription.scheduled.set(false);
+                    Tatm.LOGGER.warn("Executor of a TARDIS change subscriber rejected delivery", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Drop every subscriber, e.g. when the server stops
+     */
+    void closeAll() {
+        for (Subscription subscription : subscriptions) {
+            subscription.close();
+        }
+    }
+
+    /**
+     * A subscriber's position in the stream
+     */
+    public final class Subscription implements AutoCloseable {
+        private final Executor executor;
+        private final Listener listener;
+        private final Batch batch = new Batch();
+        // Next sequence to deliver; only written by the delivery task
+        private volatile long cursor;
+        private volatile long dropped;
+        // Set while a delivery task is queued or running, so deliveries never overlap
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private volatile boolean closed;
+
+        private Subscription(Executor executor, Listener listener, long cursor) {
+            this.executor = executor;
+            this.listener = listener;
+            this.cursor = cursor;
+        }
+
+        /**
+         * Events overwritten before this subscriber read them
+         */
+        public long getDropped() {
+            return dropped;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            subscriptions.remove(this);
+        }
+
+        private void drain() {
+            try {
+                long end = head;
+                while (!closed && cursor < end) {
+                    long from = cursor;
+                    long to = Math.min(end, from + BATCH_SIZE);
+                    long first = batch.copy(from, to);
+                    long lost = first - from;
+                    if (lost > 0) {
+                        dropped += lost;
+                        TatmMetrics.CHANGES_DROPPED.add(lost);
+                    }
+                    batch.dropped = lost;
+                    if (batch.size > 0) {
+                        listener.onChanges(batch);
+                    }
+                    cursor = to;
+                }
+            } catch (RuntimeException e) {
+                Tatm.LOGGER.error("TARDIS change subscriber failed", e);
+            } finally {
+                scheduled.set(false);
+            }
+        }
+    }
+
+    /**
+     * Events delivered to a subscriber, in publication order. Reused for every batch,
+     * so it must not be kept past {@link Listener#onChanges}.
+     */
+    public final class Batch {
+        private final byte[] batchKinds = new byte[BATCH_SIZE];
+        private final long[] batchIdMost = new long[BATCH_SIZE];
+        private final long[] batchIdLeast = new long[BATCH_SIZE];
+        private final long[] batchPositions = new long[BATCH_SIZE];
+        private final Identifier[] batchDimensions = new Identifier[BATCH_SIZE];
+        private final long[] batchPreviousPositions = new long[BATCH_SIZE];
+        private final Identifier[] batchPreviousDimensions = new Identifier[BATCH_SIZE];
+        private int offset;
+        private int size;
+        private long dropped;
+
+        private Batch() {
+        }
+
+        /**
+         * Copy published events into this batch, skipping any the producer has overwritten
+         * meanwhile. Returns the sequence of the first event kept.
+         */
+        private long copy(long from, long to) {
+            long ringSize = mask + 1L;
+            // Events more than a ring behind are already gone
+            long start = Math.max(from, head - ringSize);
+            for (long sequence = start; sequence < to; sequence++) {
+                int index = (int) sequence & mask;
+                int i = (int) (sequence - from);
+                batchKinds[i] = kinds[index];
+                batchIdMost[i] = idMost[index];
+                batchIdLeast[i] = idLeast[index];
+                batchPositions[i] = positions[index];
+                batchDimensions[i] = dimensions[index];
+                batchPreviousPositions[i] = previousPositions[index];
+                batchPreviousDimensions[i] = previousDimensions[index];
+            }
+            // Any slot the producer reached while we copied may be torn; check head only after the copies
+            VarHandle.loadLoadFence();
+            long valid = Math.max(start, head - ringSize + 1);
+            valid = Math.min(valid, to);
+            offset = (int) (valid - from);
+            size = (int) (to - valid);
+            return valid;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Events this subscriber lost immediately before this batch
+         */
+        public long dropped() {
+            return dropped;
+        }
+
+        public Kind kind(int i) {
+            return KINDS[batchKinds[offset + i]];
+        }
+
+        public UUID tardisId(int i) {
+            return new UUID(batchIdMost[offset + i], batchIdLeast[offset + i]);
+        }
+
+        @Nullable
+        public BlockPos pos(int i) {
+            long pos = batchPositions[offset + i];
+            return pos != Long.MAX_VALUE ? BlockPos.fromLong(pos) : null;
+        }
+
+        @Nullable
+        public Identifier dimension(int i) {
+            return batchDimensions[offset + i];
+        }
+
+        /**
+         * The exterior position before a move or removal, or null
+         */
+        @Nullable
+        public BlockPos previousPos(int i) {
+            long pos = batchPreviousPositions[offset + i];
+            return pos != Long.MAX_VALUE ? BlockPos.fromLong(pos) : null;
+        }
+
+        @Nullable
+        public Identifier previousDimension(int i) {
+            return batchPreviousDimensions[offset + i];
+        }
+    }
+}
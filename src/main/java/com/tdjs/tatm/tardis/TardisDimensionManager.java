@@ -1,5 +1,11 @@
 package com.tdjs.tatm.tardis;
 
+import com.tdjs.tatm.config.TatmConfig;
+import com.tdjs.tatm.metrics.TatmMetrics;
+import com.tdjs.tatm.metrics.TeleportEvent;
+import com.tdjs.tatm.metrics.TeleportResult;
+import net.minecraft.registry.RegistryKey;
+import net.minecraft.registry.RegistryKeys;
 import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.world.ServerWorld;
 import net.minecraft.util.Identifier;
@@ -7,8 +13,10 @@ import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.Vec3d;
 import net.minecraft.world.World;
 import net.minecraft.entity.Entity;
+import net.minecraft.entity.EntityType;
 import net.minecraft.server.network.ServerPlayerEntity;
 import net.minecraft.network.packet.s2c.play.PositionFlag;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.Set;
 import java.util.UUID;
@@ -16,64 +24,121 @@ import java.util.UUID;
 /**
  * Manages TARDIS dimensional operations including teleportation and dimension creation.
  * Handles moving entities between TARDIS exterior and interior spaces.
+ * Entry and exit go through {@link TardisTransferQueue}, so the entity only moves
+ * once its destination chunk is loaded.
  */
 public class TardisDimensionManager {
 
+    // Dimension holding every interior as a fixed-size plot when shared interiors are enabled
+    public static final Identifier SHARED_INTERIOR_DIMENSION = new Identifier("tatm", "interiors");
+
+    // Path of a TARDIS's own dimension before its UUID, which has underscores for dashes
+    private static final String TARDIS_DIMENSION_PREFIX = "tardis_";
+
     /**
-     * Teleport an entity into a TARDIS (from exterior to interior)
+     * Teleport an entity into a TARDIS (from exterior to interior).
+     * Returns true once the transfer is requested; the entity arrives when the interior is loaded.
      */
     public static boolean teleportIntoTardis(Entity entity, TardisInstance tardis) {
         if (!tardis.isInitialized()) {
+            TatmMetrics.recordTeleport(true, TeleportResult.NOT_INITIALIZED);
             return false;
         }
 
         MinecraftServer server = entity.getServer();
         if (server == null) {
+            TatmMetrics.recordTeleport(true, TeleportResult.NO_SERVER);
             return false;
         }
 
-        ServerWorld interiorWorld = server.getWorld(tardis.getInteriorDimension());
-        if (interiorWorld == null) {
+        if (TardisTransferQueue.isPending(entity)) {
+            TatmMetrics.recordTeleport(true, TeleportResult.ALREADY_PENDING);
             return false;
         }
 
-        return teleportEntity(entity, interiorWorld, tardis.getInteriorPos().toCenterPos());
+        TardisPrewarmer.recordEntry(server, tardis);
+        TardisRegistry.get(server).markEntered(tardis.getTardisId());
+
+        // Interior worlds are created on first entry, so the transfer may only be queued next tick.
+        // An archived interior is unpacked in the background first (TardisArchive), and the entity follows once it is back.
+        // The TARDIS may be removed meanwhile, so it is looked up again by UUID rather than kept.
+        UUID tardisId = tardis.getTardisId();
+        TardisInteriorWorlds.withInteriorWorld(server, tardis, world -> {
+            TardisInstance current = TardisRegistry.get(server).getTardis(tardisId);
+            if (current == null || !current.isInitialized()) {
+                TatmMetrics.recordTeleport(true, TeleportResult.NOT_INITIALIZED);
+            } else if (entity.isRemoved()) {
+                TatmMetrics.recordTeleport(true, TeleportResult.ENTITY_REMOVED);
+            } else {
+                // Wakes a hibernated interior; the transfer ticket loads its chunks again
+                TardisHibernation.wake(server, current, world);
+                TardisTransferQueue.request(entity, tardisId, world, current.getInteriorPos().toCenterPos(), true);
+            }
+        });
+        return true;
     }
 
     /**
-     * Teleport an entity out of a TARDIS (from interior to exterior)
+     * Teleport an entity out of a TARDIS (from interior to exterior).
+     * Returns true once the transfer is requested; the entity arrives when the exterior chunk is loaded.
      */
     public static boolean teleportOutOfTardis(Entity entity, TardisInstance tardis) {
         if (!tardis.isInitialized()) {
+            TatmMetrics.recordTeleport(false, TeleportResult.NOT_INITIALIZED);
             return false;
         }
 
         MinecraftServer server = entity.getServer();
         if (server == null) {
+            TatmMetrics.recordTeleport(false, TeleportResult.NO_SERVER);
             return false;
         }
 
-        ServerWorld exteriorWorld = server.getWorld(tardis.getExteriorDimension());
+        ServerWorld exteriorWorld = server.getWorld(RegistryKey.of(RegistryKeys.WORLD, tardis.getExteriorDimension()));
         if (exteriorWorld == null) {
+            TatmMetrics.recordTeleport(false, TeleportResult.NO_DESTINATION);
             return false;
         }
 
-        // Position entity slightly in front of the TARDIS exterior
-        BlockPos exteriorPos = tardis.getExteriorPos();
-        Vec3d targetPos = new Vec3d(exteriorPos.getX() + 0.5, exteriorPos.getY() + 1, exteriorPos.getZ() + 1.5);
+        return TardisTransferQueue.request(entity, tardis.getTardisId(), exteriorWorld, getExitPos(tardis.getExteriorPos()), false);
+    }
 
-        return teleportEntity(entity, exteriorWorld, targetPos);
+    /**
+     * Where an entity leaving a TARDIS arrives: slightly in front of the exterior
+     */
+    public static Vec3d getExitPos(BlockPos exteriorPos) {
+        return new Vec3d(exteriorPos.getX() + 0.5, exteriorPos.getY() + 1, exteriorPos.getZ() + 1.5);
     }
 
     /**
-     * Generic entity teleportation method
+     * Generic entity teleportation method. Called by the transfer queue once the destination is loaded.
+     * Emits a {@link TeleportEvent} when JFR is recording it.
      */
-    private static boolean teleportEntity(Entity entity, ServerWorld targetWorld, Vec3d targetPos) {
+    static boolean teleportEntity(Entity entity, ServerWorld targetWorld, Vec3d targetPos, UUID tardisId, boolean inbound) {
+        TeleportEvent event = new TeleportEvent();
+        event.begin();
+        // Read before the move: passengers are dismounted and non-player entities are replaced by a copy
+        World sourceWorld = entity.world;
+        int entityCount = event.isEnabled() ? (int) entity.streamSelfAndPassengers().count() : 0;
+
+        boolean success;
         if (entity instanceof ServerPlayerEntity player) {
-            return teleportPlayer(player, targetWorld, targetPos);
+            success = teleportPlayer(player, targetWorld, targetPos);
         } else {
-            return teleportNonPlayerEntity(entity, targetWorld, targetPos);
+            success = teleportNonPlayerEntity(entity, targetWorld, targetPos);
         }
+
+        if (event.shouldCommit()) {
+            event.tardisId = tardisId.toString();
+            event.inbound = inbound;
+            event.entityType = EntityType.getId(entity.getType()).toString();
+            event.sourceDimension = sourceWorld.getRegistryKey().getValue().toString();
+            event.targetDimension = targetWorld.getRegistryKey().getValue().toString();
+            event.entityCount = entityCount;
+            event.success = success;
+            event.commit();
+        }
+        return success;
     }
 
     /**
@@ -120,16 +185,74 @@ public class TardisDimensionManager {
      * Create a unique dimension identifier for a TARDIS
      */
     public static Identifier createTardisDimension(UUID tardisId) {
-        return new Identifier("tatm", "tardis_" + tardisId.toString().replace("-", "_"));
+        return new Identifier("tatm", TARDIS_DIMENSION_PREFIX + tardisId.toString().replace("-", "_"));
+    }
+
+    /**
+     * Get the TARDIS a dimension identifier was created for by {@link #createTardisDimension}, or null
+     */
+    public static UUID getTardisIdOf(Identifier dimension) {
+        return isTardisDimension(dimension) ? new UUID(getTardisIdMost(dimension), getTardisIdLeast(dimension)) : null;
+    }
+
+    /**
+     * Check if a dimension identifier is exactly one {@link #createTardisDimension} makes: the lowercase
+     * UUID with underscores at the dashes. Reads the path in place, so lookups by dimension allocate nothing.
+     */
+    public static boolean isTardisDimension(Identifier dimension) {
+        String path = dimension.getPath();
+        int start = TARDIS_DIMENSION_PREFIX.length();
+        if (path.length() != start + 36 || !path.startsWith(TARDIS_DIMENSION_PREFIX) || !dimension.getNamespace().equals("tatm")) {
+            return false;
+        }
+        for (int i = 0; i < 36; i++) {
+            char c = path.charAt(start + i);
+            boolean valid = i == 8 || i == 13 || i == 18 || i == 23 ? c == '_' : c >= '0' && c <= '9' || c >= 'a' && c <= 'f';
+            if (!valid) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Most significant half of the UUID in a dimension accepted by {@link #isTardisDimension}
+     */
+    public static long getTardisIdMost(Identifier dimension) {
+        String path = dimension.getPath();
+        int start = TARDIS_DIMENSION_PREFIX.length();
+        return parseHex(path, start, start + 8) << 32 | parseHex(path, start + 9, start + 13) << 16 | parseHex(path, start + 14, start + 18);
+    }
+
+    /**
+     * Least significant half of the UUID in a dimension accepted by {@link #isTardisDimension}
+     */
+    public static long getTardisIdLeast(Identifier dimension) {
+        String path = dimension.getPath();
+        int start = TARDIS_DIMENSION_PREFIX.length();
+        return parseHex(path, start + 19, start + 23) << 48 | parseHex(path, start + 24, start + 36);
+    }
+
+    private static long parseHex(String string, int from, int to) {
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            value = value << 4 | Character.digit(string.charAt(i), 16);
+        }
+        return value;
     }
 
     /**
-     * Generate interior spawn position for a new TARDIS
-     * In a full implementation, this would create the interior structure
+     * Check if new TARDISes get a plot in the shared interiors dimension instead of their own dimension
+     */
+    public static boolean usesSharedInteriors() {
+        return TatmConfig.sharedInteriors;
+    }
+
+    /**
+     * Generate interior spawn position for a new TARDIS with its own dimension.
+     * The interior structure is placed around it by TardisInteriorBuilder, which needs it section-aligned.
      */
     public static BlockPos generateInteriorSpawnPos() {
-        // For now, return a simple position
-        // In a full implementation, this would create the TARDIS interior structure
         return new BlockPos(0, 64, 0);
     }
 
@@ -137,11 +260,24 @@ public class TardisDimensionManager {
      * Check if an entity is inside a TARDIS interior dimension
      */
     public static boolean isInTardisInterior(Entity entity) {
+        return getTardisIdContaining(entity) != null;
+    }
+
+    /**
+     * Get the UUID of the TARDIS whose interior contains the given entity, or null.
+     * Creates no view, for callers that run for every player.
+     */
+    @Nullable
+    public static UUID getTardisIdContaining(Entity entity) {
         if (entity.world instanceof ServerWorld serverWorld) {
             TardisRegistry registry = TardisRegistry.get(serverWorld);
-            return registry.getTardisByInteriorDimension(serverWorld.getRegistryKey().getValue()) != null;
+            Identifier dimension = serverWorld.getRegistryKey().getValue();
+            if (dimension.equals(SHARED_INTERIOR_DIMENSION)) {
+                return registry.getTardisIdByInteriorPlot(entity.getBlockPos());
+            }
+            return registry.getTardisIdByInteriorDimension(dimension);
         }
-        return false;
+        return null;
     }
 
     /**
@@ -150,7 +286,11 @@ public class TardisDimensionManager {
     public static TardisInstance getTardisContaining(Entity entity) {
         if (entity.world instanceof ServerWorld serverWorld) {
             TardisRegistry registry = TardisRegistry.get(serverWorld);
-            return registry.getTardisByInteriorDimension(serverWorld.getRegistryKey().getValue());
+            Identifier dimension = serverWorld.getRegistryKey().getValue();
+            if (dimension.equals(SHARED_INTERIOR_DIMENSION)) {
+                return registry.getTardisByInteriorPlot(entity.getBlockPos());
+            }
+            return registry.getTardisByInteriorDimension(dimension);
         }
         return null;
     }
@@ -160,7 +300,7 @@ public class TardisDimensionManager {
      */
     public static boolean isTardisExteriorAt(ServerWorld world, BlockPos pos) {
         TardisRegistry registry = TardisRegistry.get(world);
-        return registry.getTardisByExteriorLocation(pos, world.getRegistryKey().getValue()) != null;
+        return registry.getTardisIdByExteriorLocation(pos, world.getRegistryKey().getValue()) != null;
     }
 
     /**
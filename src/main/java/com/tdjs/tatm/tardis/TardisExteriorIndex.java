@@ -0,0 +1,285 @@
+package com.tdjs.tatm.tardis;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.ChunkSectionPos;
+
+import java.util.UUID;
+import java.util.function.LongConsumer;
+
+/**
+ * TARDIS exteriors of a single dimension, keyed by packed position (BlockPos.asLong)
+ * and bucketed by chunk section, so area queries only touch the chunks they cover.
+ * Each chunk column also lists its occupied sections, so a query never walks empty sections,
+ * and a query covering more columns than are occupied scans the occupied columns instead.
+ * Lookups and queries allocate nothing. Only mutated on the server thread, under the
+ * registry's write lock.
+ */
+public class TardisExteriorIndex {
+    private final Long2ObjectMap<UUID> byPos = new Long2ObjectOpenHashMap<>();
+    private final Long2ObjectMap<LongArrayList> bySection = new Long2ObjectOpenHashMap<>();
+    // Section Y coordinates that have exteriors, per chunk column
+    private final Long2ObjectMap<IntArrayList> sectionsByColumn = new Long2ObjectOpenHashMap<>();
+
+    /**
+     * Receives the packed position and UUID of each exterior found by a query
+     */
+    @FunctionalInterface
+    public interface Visitor {
+        void visit(long pos, UUID tardisId);
+    }
+
+    /**
+     * Get the TARDIS at a packed position, or null
+     */
+    public UUID get(long pos) {
+        return byPos.get(pos);
+    }
+
+    public int size() {
+        return byPos.size();
+    }
+
+    public boolean isEmpty() {
+        return byPos.isEmpty();
+    }
+
+    public void put(long pos, UUID tardisId) {
+        if (byPos.put(pos, tardisId) != null) {
+            return;
+        }
+
+        long sectionKey = sectionKeyOf(pos);
+        LongArrayList positions = bySection.get(sectionKey);
+        if (positions == null) {
+            positions = new LongArrayList(1);
+            bySection.put(sectionKey, positions);
+            sectionsByColumn.computeIfAbsent(columnKeyOf(pos), key -> new IntArrayList(1))
+                .add(ChunkSectionPos.getSectionCoord(BlockPos.unpackLongY(pos)));
+        }
+        positions.add(pos);
+    }
+
+    /**
+     * Remove the exterior at a position, if it belongs to the given TARDIS
+     */
+    public void remove(long pos, UUID tardisId) {
+        if (!tardisId.equals(byPos.get(pos))) {
+            return;
+        }
+        byPos.remove(pos);
+
+        long sectionKey = sectionKeyOf(pos);
+        LongArrayList positions = bySection.get(sectionKey);
+        if (positions == null) {
+            return;
+        }
+        positions.rem(pos);
+        if (positions.isEmpty()) {
+            bySection.remove(sectionKey);
+            long columnKey = columnKeyOf(pos);
+            IntArrayList sections = sectionsByColumn.get(columnKey);
+            if (sections != null) {
+                sections.rem(ChunkSectionPos.getSectionCoord(BlockPos.unpackLongY(pos)));
+                if (sections.isEmpty()) {
+                    sectionsByColumn.remove(columnKey);
+                }
+            }
+        }
+    }
+
+    /**
+     * Copy every indexed position, for callers that walk the index across several ticks
+     */
+    public long[] positionsSnapshot() {
+        return byPos.keySet().toLongArray();
+    }
+
+    public boolean hasAnyInChunk(int chunkX, int chunkZ) {
+        return sectionsByColumn.containsKey(ChunkPos.toLong(chunkX, chunkZ));
+    }
+
+    /**
+     * Visit every exterior in a chunk column
+     */
+    public void forEachInChunk(int chunkX, int chunkZ, Visitor visitor) {
+        IntArrayList sections = sectionsByColumn.get(ChunkPos.toLong(chunkX, chunkZ));
+        if (sections == null) {
+            return;
+        }
+        for (int i = 0; i < sections.size(); i++) {
+            visitSection(ChunkSectionPos.asLong(chunkX, sections.getInt(i), chunkZ), visitor);
+        }
+    }
+
+    /**
+     * Visit the packed ChunkPos of every chunk column with an exterior in a square of chunks
+     */
+    public void forEachOccupiedChunk(int minChunkX, int minChunkZ, int maxChunkX, int maxChunkZ, LongConsumer visitor) {
+        long columnsCovered = (long) (maxChunkX - minChunkX + 1) * (maxChunkZ - minChunkZ + 1);
+        if (columnsCovered > sectionsByColumn.size()) {
+            for (LongIterator columns = sectionsByColumn.keySet().iterator(); columns.hasNext(); ) {
+                long columnKey = columns.nextLong();
+                int chunkX = ChunkPos.getPackedX(columnKey);
+                int chunkZ = ChunkPos.getPackedZ(columnKey);
+                if (chunkX >= minChunkX && chunkX <= maxChunkX && chunkZ >= minChunkZ && chunkZ <= maxChunkZ) {
+                    visitor.accept(columnKey);
+                }
+            }
+            return;
+        }
+
+        for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
+            for (int chunkZ = minChunkZ; chunkZ <= maxChunkZ; chunkZ++) {
+                long columnKey = ChunkPos.toLong(chunkX, chunkZ);
+                if (sectionsByColumn.containsKey(columnKey)) {
+                    visitor.accept(columnKey);
+                }
+            }
+        }
+    }
+
+    /**
+     * Visit every exterior within a radius (in blocks, Euclidean) of a position
+     */
+    public void forEachWithinRadius(BlockPos center, int radius, Visitor visitor) {
+        long radiusSquared = (long) radius * radius;
+        int minChunkX = (center.getX() - radius) >> 4;
+        int maxChunkX = (center.getX() + radius) >> 4;
+        int minChunkZ = (center.getZ() - radius) >> 4;
+        int maxChunkZ = (center.getZ() + radius) >> 4;
+        int minSectionY = (center.getY() - radius) >> 4;
+        int maxSectionY = (center.getY() + radius) >> 4;
+
+        long columnsCovered = (long) (maxChunkX - minChunkX + 1) * (maxChunkZ - minChunkZ + 1);
+        if (columnsCovered > sectionsByColumn.size()) {
+            // Fewer occupied columns than the area covers; check those instead of walking the area
+            for (Long2ObjectMap.Entry<IntArrayList> column : sectionsByColumn.long2ObjectEntrySet()) {
+                int chunkX = ChunkPos.getPackedX(column.getLongKey());
+                int chunkZ = ChunkPos.getPackedZ(column.getLongKey());
+                if (chunkX >= minChunkX && chunkX <= maxChunkX && chunkZ >= minChunkZ && chunkZ <= maxChunkZ) {
+                    visitColumnWithin(chunkX, chunkZ, column.getValue(), minSectionY, maxSectionY, center, radiusSquared, visitor);
+                }
+            }
+            return;
+        }
+
+        for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
+            for (int chunkZ = minChunkZ; chunkZ <= maxChunkZ; chunkZ++) {
+                IntArrayList sections = sectionsByColumn.get(ChunkPos.toLong(chunkX, chunkZ));
+                if (sections != null) {
+                    visitColumnWithin(chunkX, chunkZ, sections, minSectionY, maxSectionY, center, radiusSquared, visitor);
+                }
+            }
+        }
+    }
+
+    /**
+     * Find the packed position of the exterior closest to a position within a radius (in blocks),
+     * searching outwards ring by ring. Returns {@code Long.MAX_VALUE} if there is none.
+     */
+    public long nearest(BlockPos center, int maxRadius) {
+        long bestPos = Long.MAX_VALUE;
+        long bestDistance = (long) maxRadius * maxRadius;
+        int centerChunkX = center.getX() >> 4;
+        int centerChunkZ = center.getZ() >> 4;
+        int maxRing = (maxRadius >> 4) + 1;
+
+        if ((long) (2 * maxRing + 1) * (2 * maxRing + 1) > sectionsByColumn.size()) {
+            // Sparse index: checking every occupied column is cheaper than walking the rings
+            for (Long2ObjectMap.Entry<IntArrayList> column : sectionsByColumn.long2ObjectEntrySet()) {
+                int chunkX = ChunkPos.getPackedX(column.getLongKey());
+                int chunkZ = ChunkPos.getPackedZ(column.getLongKey());
+                for (int i = 0; i < column.getValue().size(); i++) {
+                    LongArrayList positions = bySection.get(ChunkSectionPos.asLong(chunkX, column.getValue().getInt(i), chunkZ));
+                    for (int j = 0; j < positions.size(); j++) {
+                        long distance = distanceSquared(center, positions.getLong(j));
+                        if (distance <= bestDistance) {
+                            bestDistance = distance;
+                            bestPos = positions.getLong(j);
+                        }
+                    }
+                }
+            }
+            return bestPos;
+        }
+
+        for (int ring = 0; ring <= maxRing; ring++) {
+            // Everything in this ring is at least (ring - 1) chunks away horizontally
+            long ringMin = Math.max(0, (ring - 1) * 16L);
+            if (bestPos != Long.MAX_VALUE && ringMin * ringMin > bestDistance) {
+                break;
+            }
+
+            for (int chunkX = centerChunkX - ring; chunkX <= centerChunkX + ring; chunkX++) {
+                // Only the edge of the square belongs to this ring
+                int step = chunkX == centerChunkX - ring || chunkX == centerChunkX + ring ? 1 : Math.max(1, 2 * ring);
+                for (int chunkZ = centerChunkZ - ring; chunkZ <= centerChunkZ + ring; chunkZ += step) {
+                    IntArrayList sections = sectionsByColumn.get(ChunkPos.toLong(chunkX, chunkZ));
+                    if (sections == null) {
+                        continue;
+                    }
+                    for (int i = 0; i < sections.size(); i++) {
+                        LongArrayList positions = bySection.get(ChunkSectionPos.asLong(chunkX, sections.getInt(i), chunkZ));
+                        for (int j = 0; j < positions.size(); j++) {
+                            long distance = distanceSquared(center, positions.getLong(j));
+                            if (distance <= bestDistance) {
+                                bestDistance = distance;
+                                bestPos = positions.getLong(j);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return bestPos;
+    }
+
+    private void visitColumnWithin(int chunkX, int chunkZ, IntArrayList sections, int minSectionY, int maxSectionY,
+                                   BlockPos center, long radiusSquared, Visitor visitor) {
+        for (int i = 0; i < sections.size(); i++) {
+            int sectionY = sections.getInt(i);
+            if (sectionY < minSectionY || sectionY > maxSectionY) {
+                continue;
+            }
+            LongArrayList positions = bySection.get(ChunkSectionPos.asLong(chunkX, sectionY, chunkZ));
+            for (int j = 0; j < positions.size(); j++) {
+                long pos = positions.getLong(j);
+                if (distanceSquared(center, pos) <= radiusSquared) {
+                    visitor.visit(pos, byPos.get(pos));
+                }
+            }
+        }
+    }
+
+    private void visitSection(long sectionKey, Visitor visitor) {
+        LongArrayList positions = bySection.get(sectionKey);
+        for (int i = 0; i < positions.size(); i++) {
+            long pos = positions.getLong(i);
+            visitor.visit(pos, byPos.get(pos));
+        }
+    }
+
+    private static long distanceSquared(BlockPos center, long pos) {
+        long dx = BlockPos.unpackLongX(pos) - center.getX();
+        long dy = BlockPos.unpackLongY(pos) - center.getY();
+        long dz = BlockPos.unpackLongZ(pos) - center.getZ();
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    private static long sectionKeyOf(long pos) {
+        return ChunkSectionPos.asLong(
+            ChunkSectionPos.getSectionCoord(BlockPos.unpackLongX(pos)),
+            ChunkSectionPos.getSectionCoord(BlockPos.unpackLongY(pos)),
+            ChunkSectionPos.getSectionCoord(BlockPos.unpackLongZ(pos)));
+    }
+
+    private static long columnKeyOf(long pos) {
+        return ChunkPos.toLong(BlockPos.unpackLongX(pos) >> 4, BlockPos.unpackLongZ(pos) >> 4);
+    }
+}
@@ -0,0 +1,277 @@
+package com.tdjs.tatm.tardis;
+
+import com.tdjs.tatm.Tatm;
+import com.tdjs.tatm.config.TatmConfig;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerWorldEvents;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.network.ServerPlayerEntity;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.ChunkSectionPos;
+import net.minecraft.world.LightType;
+import net.minecraft.world.chunk.ChunkNibbleArray;
+import net.minecraft.world.chunk.ChunkSection;
+import net.minecraft.world.chunk.WorldChunk;
+import net.minecraft.world.chunk.light.ChunkLightingView;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Puts interiors to sleep once nobody has been inside them for a while.
+ * Occupancy is counted on {@link TardisInstance} every second; an interior that stays empty
+ * for the configured time has its chunk tickets and forced chunks released. A dedicated
+ * interior world is then flushed to disk and unloaded; a plot in the shared dimension is
+ * written as its chunks unload, like any other chunk. Entering the TARDIS wakes it again.
+ * Pre-warm tickets are not occupancy: a player passing the exterior loads the spawn chunks
+ * of a hibernated interior without waking it, and the ticket lapses on its own.
+ */
+public class TardisHibernation {
+    private static final int CHECK_INTERVAL = 20;
+
+    private static final class AwakeInterior {
+        final ServerWorld world;
+        int lastOccupiedTick;
+
+        AwakeInterior(ServerWorld world, int lastOccupiedTick) {
+            this.world = world;
+            this.lastOccupiedTick = lastOccupiedTick;
+        }
+    }
+
+    // Interiors that have been entered and not yet hibernated (server thread only)
+    private static final Map<UUID, AwakeInterior> awake = new HashMap<>();
+    private static final Set<UUID> hibernated = new HashSet<>();
+    private static final Object2IntMap<UUID> occupancy = new Object2IntOpenHashMap<>();
+
+    // Moving average of the tick time of each dedicated interior world, in nanoseconds
+    private static final Map<ServerWorld, long[]> worldTickNanos = new IdentityHashMap<>();
+
+    private static long hibernations;
+    private static long wakes;
+    private static long releasedChunks;
+    private static long releasedBytes;
+    private static long reclaimedTickNanos;
+
+    public static void register() {
+        ServerTickEvents.START_WORLD_TICK.register(world -> {
+            if (TardisInteriorWorlds.isInteriorWorld(world)) {
+                worldTickNanos.computeIfAbsent(world, w -> new long[2])[0] = System.nanoTime();
+            }
+        });
+        ServerTickEvents.END_WORLD_TICK.register(world -> {
+            long[] timing = worldTickNanos.get(world);
+            if (timing != null) {
+                long elapsed = System.nanoTime() - timing[0];
+                timing[1] = timing[1] == 0 ? elapsed : (timing[1] * 15 + elapsed) / 16;
+            }
+        });
+        ServerWorldEvents.UNLOAD.register((server, world) -> worldTickNanos.remove(world));
+        ServerTickEvents.END_SERVER_TICK.register(TardisHibernation::tick);
+        ServerLifecycleEvents.SERVER_STOPPED.register(server -> {
+            awake.clear();
+            hibernated.clear();
+            occupancy.clear();
+            worldTickNanos.clear();
+            hibernations = 0;
+            wakes = 0;
+            releasedChunks = 0;
+            releasedBytes = 0;
+            reclaimedTickNanos = 0;
+        });
+    }
+
+    /**
+     * Mark the interior of a TARDIS as in use, waking it if it was hibernated
+     */
+    public static void wake(MinecraftServer server, TardisInstance tardis, ServerWorld world) {
+        if (hibernated.remove(tardis.getTardisId())) {
+            wakes++;
+        }
+        AwakeInterior interior = awake.get(tardis.getTardisId());
+        if (interior == null || interior.world != world) {
+            awake.put(tardis.getTardisId(), new AwakeInterior(world, server.getTicks()));
+        } else {
+            interior.lastOccupiedTick = server.getTicks();
+        }
+    }
+
+    public static boolean isHibernated(UUID tardisId) {
+        return hibernated.contains(tardisId);
+    }
+
+    public static int getHibernatedCount() {
+        return hibernated.size();
+    }
+
+    public static int getAwakeCount() {
+        return awake.size();
+    }
+
+    public static long getHibernations() {
+        return hibernations;
+    }
+
+    public static long getWakes() {
+        return wakes;
+    }
+
+    /**
+     * Loaded chunks that interiors held when they went to sleep
+     */
+    public static long getReleasedChunks() {
+        return releasedChunks;
+    }
+
+    /**
+     * Estimated heap held by the block and light data of the interior chunks that were loaded when they went to sleep.
+     * Only an estimate: the memory is freed whenever the chunks unload and the next GC runs, and is not measured.
+     */
+    public static long getReleasedBytes() {
+        return releasedBytes;
+    }
+
+    /**
+     * Sum of the average per-tick cost of the dedicated interior worlds that were unloaded by hibernation
+     */
+    public static long getReclaimedTickNanos() {
+        return reclaimedTickNanos;
+    }
+
+    private static void tick(MinecraftServer server) {
+        if (server.getTicks() % CHECK_INTERVAL != 0 || awake.isEmpty()) {
+            return;
+        }
+
+        // Count players per TARDIS in one pass over the player list
+        occupancy.clear();
+        for (ServerPlayerEntity player : server.getPlayerManager().getPlayerList()) {
+            UUID containing = TardisDimensionManager.getTardisIdContaining(player);
+            if (containing != null) {
+                occupancy.mergeInt(containing, 1, Integer::sum);
+            }
+        }
+
+        int timeoutTicks = TatmConfig.interiorHibernateMinutes * 60 * 20;
+        TardisRegistry registry = TardisRegistry.get(server);
+        Iterator<Map.Entry<UUID, AwakeInterior>> iterator = awake.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<UUID, AwakeInterior> entry = iterator.next();
+            UUID tardisId = entry.getKey();
+            AwakeInterior interior = entry.getValue();
+            TardisInstance tardis = registry.getTardis(tardisId);
+
+            if (tardis == null || server.getWorld(interior.world.getRegistryKey()) != interior.world) {
+                // Removed, or its world was already unloaded for being idle
+                iterator.remove();
+                if (tardis != null) {
+                    tardis.setOccupants(0);
+                    hibernated.add(tardisId);
+                }
+                continue;
+            }
+
+            int occupants = occupancy.getInt(tardisId);
+            tardis.setOccupants(occupants);
+            if (occupants > 0 || TardisInteriorBuilder.isBuilding(tardisId)) {
+                interior.lastOccupiedTick = server.getTicks();
+            } else if (timeoutTicks > 0 && server.getTicks() - interior.lastOccupiedTick >= timeoutTicks) {
+                iterator.remove();
+                hibernate(server, tardis, interior.world);
+            }
+        }
+    }
+
+    private static void hibernate(MinecraftServer server, TardisInstance tardis, ServerWorld world) {
+        boolean shared = world.getRegistryKey().getValue().equals(TardisDimensionManager.SHARED_INTERIOR_DIMENSION);
+        int plot = shared ? TardisPlotAllocator.plotOf(tardis.getInteriorPos()) : -1;
+
+        TardisPrewarmer.release(world, tardis);
+
+        // Forced chunks would keep the interior ticking forever; the shared dimension only loses this plot's
+        LongArrayList forced = new LongArrayList(world.getForcedChunks());
+        for (int i = 0; i < forced.size(); i++) {
+            ChunkPos chunk = new ChunkPos(forced.getLong(i));
+            if (!shared || TardisPlotAllocator.plotOf(chunk.getStartPos()) == plot) {
+                world.setChunkForced(chunk.x, chunk.z, false);
+            }
+        }
+
+        releasedBytes += estimateLoadedBytes(world, tardis.getInteriorPos());
+        if (shared) {
+            // Other plots share this world; the plot's chunks are saved as they unload, like any other chunk
+            releasedChunks += countLoadedChunks(world, tardis.getInteriorPos());
+        } else {
+            releasedChunks += world.getChunkManager().getLoadedChunkCount();
+            long[] timing = worldTickNanos.get(world);
+            if (timing != null) {
+                reclaimedTickNanos += timing[1];
+            }
+            world.save(null, true, false);
+            TardisInteriorWorlds.markIdle(server, world.getRegistryKey());
+        }
+
+        tardis.setOccupants(0);
+        hibernated.add(tardis.getTardisId());
+        hibernations++;
+        Tatm.LOGGER.debug("Hibernated interior of TARDIS {} ({} hibernated)", tardis.getTardisId(), hibernated.size());
+    }
+
+    /**
+     * Estimate the heap held by the block and light data of the loaded chunks in a plot-sized area
+     * centred on an interior spawn position. Entities, block entities and the chunk objects themselves are not counted.
+     */
+    private static long estimateLoadedBytes(ServerWorld world, BlockPos spawnPos) {
+        int halfChunks = TardisPlotAllocator.PLOT_SIZE >> 5;
+        int centerX = spawnPos.getX() >> 4;
+        int centerZ = spawnPos.getZ() >> 4;
+        ChunkLightingView blockLight = world.getLightingProvider().get(LightType.BLOCK);
+        long bytes = 0;
+        for (int x = centerX - halfChunks; x < centerX + halfChunks; x++) {
+            for (int z = centerZ - halfChunks; z < centerZ + halfChunks; z++) {
+                WorldChunk chunk = world.getChunkManager().getWorldChunk(x, z);
+                if (chunk == null) {
+                    continue;
+                }
+                ChunkSection[] sections = chunk.getSectionArray();
+                for (int i = 0; i < sections.length; i++) {
+                    // The network size of a section is its palettes and packed arrays, which is what it holds on the heap
+                    bytes += sections[i].getPacketSize();
+                    if (blockLight.getLightSection(ChunkSectionPos.from(x, world.sectionIndexToCoord(i), z)) != null) {
+                        bytes += ChunkNibbleArray.BYTES_LENGTH;
+                    }
+                }
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Count the loaded chunks of the plot centred on a shared interior spawn position
+     */
+    private static int countLoadedChunks(ServerWorld world, BlockPos spawnPos) {
+        int halfChunks = TardisPlotAllocator.PLOT_SIZE >> 5;
+        int centerX = spawnPos.getX() >> 4;
+        int centerZ = spawnPos.getZ() >> 4;
+        int count = 0;
+        for (int x = centerX - halfChunks; x < centerX + halfChunks; x++) {
+            for (int z = centerZ - halfChunks; z < centerZ + halfChunks; z++) {
+                if (world.isChunkLoaded(x, z)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+}
@@ -3,111 +3,267 @@ package com.tdjs.tatm.tardis;
 import net.minecraft.nbt.NbtCompound;
 import net.minecraft.util.Identifier;
 import net.minecraft.util.math.BlockPos;
-import net.minecraft.world.World;
 
 import java.util.UUID;
 
 /**
  * Represents a single TARDIS instance with its own dimensional space.
  * Each TARDIS has a unique ID, exterior location, and interior dimension.
+ * An instance is a view over a slot of a {@link TardisStore}; instances created
+ * outside the registry get a store of their own until they are registered.
+ * Persisted state of a registered TARDIS only changes through {@link TardisRegistry}, which
+ * keeps its indices, shard and change events in step; the setters here are package-private
+ * and meant for instances that are not registered yet.
+ * Setters take the store's write lock. Getters read a single field without locking;
+ * threads other than the server thread should use {@link #snapshot()} to read several
+ * fields that must agree, such as a position and its dimension.
+ * Slots are reused once a TARDIS is removed, so every accessor first checks that the slot
+ * still holds this TARDIS. A view of a removed TARDIS reads as uninitialized, with no
+ * positions or dimensions, and ignores changes; code that keeps a TARDIS across ticks
+ * should keep its UUID and look it up again.
  */
 public class TardisInstance {
     private final UUID tardisId;
-    private BlockPos exteriorPos;
-    private Identifier exteriorDimension;
-    private BlockPos interiorPos;
-    private Identifier interiorDimension;
-    private boolean initialized;
+    // Store holding the state of this TARDIS; moved to the registry's store by TardisRegistry.registerTardis
+    private TardisStore store;
+    private int slot;
 
     public TardisInstance(UUID tardisId) {
-        this.tardisId = tardisId;
-        this.initialized = false;
+        this(new TardisStore(1), tardisId);
     }
 
     public TardisInstance(UUID tardisId, BlockPos exteriorPos, Identifier exteriorDimension) {
+        this(tardisId);
+        store.setExteriorLocation(slot, exteriorPos, exteriorDimension);
+    }
+
+    private TardisInstance(TardisStore store, UUID tardisId) {
+        this(store, store.add(tardisId), tardisId);
+    }
+
+    TardisInstance(TardisStore store, int slot, UUID tardisId) {
         this.tardisId = tardisId;
-        this.exteriorPos = exteriorPos;
-        this.exteriorDimension = exteriorDimension;
-        this.initialized = false;
+        this.store = store;
+        this.slot = slot;
+    }
+
+    /**
+     * Point this view at another store, after its state has been copied there
+     */
+    void bind(TardisStore store, int slot) {
+        this.store = store;
+        this.slot = slot;
+    }
+
+    /**
+     * Check if this TARDIS has been removed from the store this view was taken from
+     */
+    public boolean isRemoved() {
+        return !store.holds(slot, tardisId);
+    }
+
+    /**
+     * The slot of this TARDIS, or -1 if it has been removed and the slot may hold another TARDIS
+     */
+    private int liveSlot() {
+        return store.holds(slot, tardisId) ? slot : -1;
     }
 
     /**
-     * Initialize the TARDIS interior dimension and position
+     * Initialize the TARDIS interior dimension and position of an unregistered instance;
+     * registered TARDISes use {@link TardisRegistry#initializeTardisInterior}
      */
-    public void initializeInterior(BlockPos interiorPos, Identifier interiorDimension) {
-        this.interiorPos = interiorPos;
-        this.interiorDimension = interiorDimension;
-        this.initialized = true;
+    void initializeInterior(BlockPos interiorPos, Identifier interiorDimension) {
+        long stamp = store.lock().writeLock();
+        try {
+            int slot = liveSlot();
+            if (slot >= 0) {
+                store.initializeInterior(slot, interiorPos, interiorDimension);
+            }
+        } finally {
+            store.lock().unlockWrite(stamp);
+        }
     }
 
     /**
      * Check if this TARDIS is fully initialized with both exterior and interior
      */
     public boolean isInitialized() {
-        return initialized && exteriorPos != null && exteriorDimension != null 
-               && interiorPos != null && interiorDimension != null;
+        int slot = liveSlot();
+        return slot >= 0 && store.isInitialized(slot) && getExteriorPos() != null && getExteriorDimension() != null
+               && getInteriorPos() != null && getInteriorDimension() != null;
+    }
+
+    /**
+     * Check if the interior structure has been placed and the TARDIS can be entered
+     */
+    public boolean isInteriorBuilt() {
+        int slot = liveSlot();
+        return slot >= 0 && store.isInteriorBuilt(slot);
+    }
+
+    /**
+     * Registered TARDISes use {@link TardisRegistry#markInteriorBuilt}
+     */
+    void setInteriorBuilt(boolean interiorBuilt) {
+        long stamp = store.lock().writeLock();
+        try {
+            int slot = liveSlot();
+            if (slot >= 0) {
+                store.setInteriorBuilt(slot, interiorBuilt);
+            }
+        } finally {
+            store.lock().unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Record that an entity is entering the interior; registered TARDISes use {@link TardisRegistry#markEntered}
+     */
+    void markEntered(long time) {
+        long stamp = store.lock().writeLock();
+        try {
+            int slot = liveSlot();
+            if (slot >= 0) {
+                store.setLastEnteredTime(slot, time);
+            }
+        } finally {
+            store.lock().unlockWrite(stamp);
+        }
+    }
+
+    public long getLastEnteredTime() {
+        int slot = liveSlot();
+        return slot >= 0 ? store.getLastEnteredTime(slot) : 0L;
+    }
+
+    /**
+     * Check if the interior has been packed into an archive by {@link TardisArchive} and must be restored before use
+     */
+    public boolean isArchived() {
+        int slot = liveSlot();
+        return slot >= 0 && store.isArchived(slot);
+    }
+
+    /**
+     * Players currently inside the interior; not persisted, refreshed by TardisHibernation
+     */
+    public int getOccupants() {
+        int slot = liveSlot();
+        return slot >= 0 ? store.getOccupants(slot) : 0;
+    }
+
+    public void setOccupants(int occupants) {
+        int slot = liveSlot();
+        if (slot >= 0) {
+            store.setOccupants(slot, occupants);
+        }
     }
 
     // Getters
     public UUID getTardisId() { return tardisId; }
-    public BlockPos getExteriorPos() { return exteriorPos; }
-    public Identifier getExteriorDimension() { return exteriorDimension; }
-    public BlockPos getInteriorPos() { return interiorPos; }
-    public Identifier getInteriorDimension() { return interiorDimension; }
 
-    // Setters for exterior (when TARDIS moves)
-    public void setExteriorLocation(BlockPos pos, Identifier dimension) {
-        this.exteriorPos = pos;
-        this.exteriorDimension = dimension;
+    public BlockPos getExteriorPos() {
+        int slot = liveSlot();
+        return slot >= 0 ? store.getExteriorPos(slot) : null;
+    }
+
+    public Identifier getExteriorDimension() {
+        int slot = liveSlot();
+        return slot >= 0 ? store.getExteriorDimension(slot) : null;
+    }
+
+    public BlockPos getInteriorPos() {
+        int slot = liveSlot();
+        return slot >= 0 ? store.getInteriorPos(slot) : null;
+    }
+
+    public Identifier getInteriorDimension() {
+        int slot = liveSlot();
+        return slot >= 0 ? store.getInteriorDimension(slot) : null;
     }
 
     /**
-     * Serialize this TARDIS instance to NBT for persistence
+     * Move the exterior of an unregistered instance; registered TARDISes use {@link TardisRegistry#updateTardisExteriorLocation}
      */
-    public NbtCompound toNbt() {
-        NbtCompound nbt = new NbtCompound();
-        nbt.putUuid("tardis_id", tardisId);
-        nbt.putBoolean("initialized", initialized);
-        
-        if (exteriorPos != null) {
-            nbt.putLong("exterior_pos", exteriorPos.asLong());
+    void setExteriorLocation(BlockPos pos, Identifier dimension) {
+        long stamp = store.lock().writeLock();
+        try {
+            int slot = liveSlot();
+            if (slot >= 0) {
+                store.setExteriorLocation(slot, pos, dimension);
+            }
+        } finally {
+            store.lock().unlockWrite(stamp);
         }
-        if (exteriorDimension != null) {
-            nbt.putString("exterior_dimension", exteriorDimension.toString());
+    }
+
+    /**
+     * Check if this TARDIS changed since it was last saved
+     */
+    public boolean isDirty() {
+        int slot = liveSlot();
+        return slot >= 0 && store.isDirty(slot);
+    }
+
+    public void markDirty() {
+        int slot = liveSlot();
+        if (slot >= 0) {
+            store.markDirty(slot);
         }
-        if (interiorPos != null) {
-            nbt.putLong("interior_pos", interiorPos.asLong());
+    }
+
+    void clearDirty() {
+        int slot = liveSlot();
+        if (slot >= 0) {
+            store.clearDirty(slot);
         }
-        if (interiorDimension != null) {
-            nbt.putString("interior_dimension", interiorDimension.toString());
+    }
+
+    /**
+     * Take an immutable snapshot of the persisted state of this TARDIS, consistent even
+     * while the server thread changes it, or null if the TARDIS has since been removed
+     */
+    public TardisRecord snapshot() {
+        return store.read(() -> store.holds(slot, tardisId) ? store.snapshot(slot) : null);
+    }
+
+    /**
+     * Serialize this TARDIS instance to NBT for persistence
+     *
+     * @throws IllegalStateException if the TARDIS has been removed
+     */
+    public NbtCompound toNbt() {
+        TardisRecord record = snapshot();
+        if (record == null) {
+            throw new IllegalStateException("TARDIS " + tardisId + " has been removed");
         }
-        
-        return nbt;
+        return record.toNbt();
+    }
+
+    /**
+     * Create a TARDIS instance from a stored record
+     */
+    public static TardisInstance fromRecord(TardisRecord record) {
+        TardisStore store = new TardisStore(1);
+        return new TardisInstance(store, store.add(record), record.tardisId());
     }
 
     /**
      * Deserialize a TARDIS instance from NBT
      */
     public static TardisInstance fromNbt(NbtCompound nbt) {
-        UUID tardisId = nbt.getUuid("tardis_id");
-        TardisInstance instance = new TardisInstance(tardisId);
-        
-        instance.initialized = nbt.getBoolean("initialized");
-        
-        if (nbt.contains("exterior_pos")) {
-            instance.exteriorPos = BlockPos.fromLong(nbt.getLong("exterior_pos"));
-        }
-        if (nbt.contains("exterior_dimension")) {
-            instance.exteriorDimension = new Identifier(nbt.getString("exterior_dimension"));
-        }
-        if (nbt.contains("interior_pos")) {
-            instance.interiorPos = BlockPos.fromLong(nbt.getLong("interior_pos"));
-        }
-        if (nbt.contains("interior_dimension")) {
-            instance.interiorDimension = new Identifier(nbt.getString("interior_dimension"));
-        }
-        
-        return instance;
+        return fromRecord(new TardisRecord(
+            nbt.getUuid("tardis_id"),
+            nbt.getBoolean("initialized"),
+            nbt.getBoolean("interior_built"),
+            nbt.contains("exterior_pos") ? BlockPos.fromLong(nbt.getLong("exterior_pos")) : null,
+            nbt.contains("exterior_dimension") ? new Identifier(nbt.getString("exterior_dimension")) : null,
+            nbt.contains("interior_pos") ? BlockPos.fromLong(nbt.getLong("interior_pos")) : null,
+            nbt.contains("interior_dimension") ? new Identifier(nbt.getString("interior_dimension")) : null,
+            nbt.getLong("last_entered"),
+            nbt.getBoolean("archived")
+        ));
     }
 
     @Override
@@ -127,11 +283,13 @@ public class TardisInstance {
     public String toString() {
         return "TardisInstance{" +
                 "tardisId=" + tardisId +
-                ", exteriorPos=" + exteriorPos +
-                ", exteriorDimension=" + exteriorDimension +
-                ", interiorPos=" + interiorPos +
-                ", interiorDimension=" + interiorDimension +
-                ", initialized=" + initialized +
+                ", exteriorPos=" + getExteriorPos() +
+                ", exteriorDimension=" + getExteriorDimension() +
+                ", interiorPos=" + getInteriorPos() +
+                ", interiorDimension=" + getInteriorDimension() +
+                ", initialized=" + (liveSlot() >= 0 && store.isInitialized(slot)) +
+                ", interiorBuilt=" + isInteriorBuilt() +
+                ", archived=" + isArchived() +
                 '}';
     }
 }
\ No newline at end of file
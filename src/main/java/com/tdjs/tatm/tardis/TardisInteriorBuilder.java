@@ -0,0 +1,463 @@
+package com.tdjs.tatm.tardis;
+
+import com.tdjs.tatm.Tatm;
+import com.tdjs.tatm.config.TatmConfig;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
+import net.minecraft.block.Block;
+import net.minecraft.block.BlockState;
+import net.minecraft.block.Blocks;
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.player.PlayerEntity;
+import net.minecraft.network.packet.s2c.play.ChunkDataS2CPacket;
+import net.minecraft.registry.RegistryKey;
+import net.minecraft.registry.RegistryKeys;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.network.ServerPlayerEntity;
+import net.minecraft.server.world.ChunkTicketType;
+import net.minecraft.server.world.ServerChunkManager;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.Box;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.ChunkSectionPos;
+import net.minecraft.world.Heightmap;
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.ChunkSection;
+import net.minecraft.world.chunk.PalettedContainer;
+import net.minecraft.world.chunk.WorldChunk;
+import net.minecraft.world.chunk.light.LightingProvider;
+import net.minecraft.world.poi.PointOfInterest;
+import net.minecraft.world.poi.PointOfInterestStorage;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Places interior templates into interior worlds without stalling the tick.
+ * The template is compiled into packed sections once at startup; build jobs then
+ * write it section by section from a queue that is drained each tick until the
+ * configured time budget runs out. A section that is still empty gets a copy of the
+ * compiled block state container, and its heightmaps are refreshed once. Light is
+ * computed for each chunk once all of its sections are written, and watching players
+ * then get the whole chunk. A TARDIS cannot be entered until its job finishes.
+ * The same budget clears the plots of removed TARDISes in the shared interiors dimension,
+ * one plot at a time: every chunk of the plot that was ever saved or is loaded is emptied of
+ * blocks, block entities and entities, and the plot is then free to be handed out again.
+ */
+public class TardisInteriorBuilder {
+    private static final ChunkTicketType<ChunkPos> INTERIOR_BUILD_TICKET =
+        ChunkTicketType.create("tatm_interior_build", Comparator.comparingLong(ChunkPos::toLong));
+
+    private static final ChunkTicketType<ChunkPos> PLOT_CLEAR_TICKET =
+        ChunkTicketType.create("tatm_plot_clear", Comparator.comparingLong(ChunkPos::toLong));
+    // Makes the chunk entity-ticking, so its entities are loaded and can be removed with it
+    private static final int CLEAR_TICKET_RADIUS = 2;
+    private static final int MAX_CLEARING_CHUNKS = 8;
+    private static final int PLOT_CHUNKS = TardisPlotAllocator.PLOT_SIZE >> 4;
+    private static final RegistryKey<World> SHARED_INTERIOR_WORLD =
+        RegistryKey.of(RegistryKeys.WORLD, TardisDimensionManager.SHARED_INTERIOR_DIMENSION);
+
+    private static InteriorTemplate template;
+
+    // Jobs in the order they were queued (server thread only)
+    private static final Set<BuildJob> jobs = new LinkedHashSet<>();
+    private static final Set<UUID> queuedTardises = new HashSet<>();
+    // The plot being cleared, or null (server thread only)
+    private static ClearJob clearJob;
+
+    private static final class BuildJob {
+        final UUID tardisId;
+        final ServerWorld world;
+        final BlockPos spawnPos;
+        final List<ChunkPos> ticketedChunks = new ArrayList<>();
+        int nextSection;
+        // Every section is written and the chunks are being lit
+        boolean lighting;
+
+        BuildJob(UUID tardisId, ServerWorld world, BlockPos spawnPos) {
+            this.tardisId = tardisId;
+            this.world = world;
+            this.spawnPos = spawnPos;
+        }
+    }
+
+    private static final class ClearJob {
+        final int plot;
+        final ServerWorld world;
+        // Chunks of the plot that hold anything, added as the saved chunks are looked up off the server thread
+        final Queue<ChunkPos> found = new ConcurrentLinkedQueue<>();
+        final AtomicInteger lookups = new AtomicInteger();
+        // Chunks with a ticket, waiting for them and their entities to load
+        final List<ChunkPos> loading = new ArrayList<>();
+
+        ClearJob(int plot, ServerWorld world) {
+            this.plot = plot;
+            this.world = world;
+        }
+    }
+
+    public static void register() {
+        ServerLifecycleEvents.SERVER_STARTING.register(server -> {
+            template = InteriorTemplate.createDefault();
+            Tatm.LOGGER.info("Compiled interior template: {} blocks in {} sections",
+                template.getBlockCount(), template.getSections().size());
+        });
+        ServerTickEvents.END_SERVER_TICK.register(TardisInteriorBuilder::tick);
+        ServerLifecycleEvents.SERVER_STOPPED.register(server -> {
+            // Unfinished interiors are not marked built, so they are queued again on next use
+            jobs.clear();
+            queuedTardises.clear();
+            // Plots still waiting are saved with the registry and cleared after the next start
+            clearJob = null;
+        });
+    }
+
+    /**
+     * Queue the interior of a TARDIS to be built, unless it is already built or queued
+     */
+    public static void enqueue(MinecraftServer server, TardisInstance tardis) {
+        if (tardis.isInteriorBuilt() || !tardis.isInitialized() || !queuedTardises.add(tardis.getTardisId())) {
+            return;
+        }
+
+        BlockPos spawnPos = tardis.getInteriorPos();
+        if ((spawnPos.getX() & 15) != 0 || (spawnPos.getY() & 15) != 0 || (spawnPos.getZ() & 15) != 0) {
+            Tatm.LOGGER.error("Interior spawn {} of TARDIS {} is not section-aligned", spawnPos, tardis.getTardisId());
+            queuedTardises.remove(tardis.getTardisId());
+            return;
+        }
+
+        UUID tardisId = tardis.getTardisId();
+        TardisInteriorWorlds.withInteriorWorld(server, tardis, world -> {
+            if (TardisRegistry.get(server).getTardis(tardisId) == null) {
+                // Removed before its world was ready
+                queuedTardises.remove(tardisId);
+                return;
+            }
+            BuildJob job = new BuildJob(tardisId, world, spawnPos);
+            Set<ChunkPos> chunks = new LinkedHashSet<>();
+            for (InteriorTemplate.CompiledSection section : template.getSections()) {
+                chunks.add(new ChunkPos(
+                    ChunkSectionPos.getSectionCoord(spawnPos.getX()) + section.sectionX(),
+                    ChunkSectionPos.getSectionCoord(spawnPos.getZ()) + section.sectionZ()));
+            }
+            for (ChunkPos chunk : chunks) {
+                world.getChunkManager().addTicket(INTERIOR_BUILD_TICKET, chunk, 0, chunk);
+                job.ticketedChunks.add(chunk);
+            }
+            jobs.add(job);
+        });
+    }
+
+    /**
+     * The compiled interior template, or null before the server starts
+     */
+    public static InteriorTemplate getTemplate() {
+        return template;
+    }
+
+    /**
+     * Check if the interior of a TARDIS is queued or being built
+     */
+    public static boolean isBuilding(UUID tardisId) {
+        return queuedTardises.contains(tardisId);
+    }
+
+    /**
+     * Check if any build job is writing into a world
+     */
+    public static boolean isBuildingIn(ServerWorld world) {
+        for (BuildJob job : jobs) {
+            if (job.world == world) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void tick(MinecraftServer server) {
+        TardisRegistry registry = TardisRegistry.get(server);
+        if (jobs.isEmpty() && clearJob == null && registry.getUnclearedPlot() < 0) {
+            return;
+        }
+
+        List<InteriorTemplate.CompiledSection> sections = template.getSections();
+        long deadline = System.nanoTime() + TatmConfig.interiorBuildBudgetMicros * 1000L;
+        boolean wroteAny = false;
+
+        Iterator<BuildJob> iterator = jobs.iterator();
+        while (iterator.hasNext()) {
+            BuildJob job = iterator.next();
+            if (job.lighting) {
+                continue;
+            }
+            if (registry.getTardis(job.tardisId) == null) {
+                // Removed while building; its plot is cleared before it is reused, and its world is never reused
+                iterator.remove();
+                release(job);
+                continue;
+            }
+            while (job.nextSection < sections.size()) {
+                // Always make some progress, even with a budget smaller than one section
+                if (wroteAny && System.nanoTime() >= deadline) {
+                    return;
+                }
+                if (!writeSection(job, sections.get(job.nextSection))) {
+                    // Chunk not loaded yet; its ticket will bring it in
+                    break;
+                }
+                job.nextSection++;
+                wroteAny = true;
+            }
+
+            if (job.nextSection >= sections.size()) {
+                light(server, job);
+            }
+        }
+
+        clearPlots(server, registry, deadline, wroteAny);
+    }
+
+    private static boolean writeSection(BuildJob job, InteriorTemplate.CompiledSection compiled) {
+        ServerWorld world = job.world;
+        int sectionX = ChunkSectionPos.getSectionCoord(job.spawnPos.getX()) + compiled.sectionX();
+        int sectionY = ChunkSectionPos.getSectionCoord(job.spawnPos.getY()) + compiled.sectionY();
+        int sectionZ = ChunkSectionPos.getSectionCoord(job.spawnPos.getZ()) + compiled.sectionZ();
+
+        WorldChunk chunk = world.getChunkManager().getWorldChunk(sectionX, sectionZ);
+        if (chunk == null) {
+            return false;
+        }
+
+        int sectionIndex = world.sectionCoordToIndex(sectionY);
+        if (sectionIndex < 0 || sectionIndex >= chunk.getSectionArray().length) {
+            // Outside the world height; nothing to place
+            return true;
+        }
+
+        ChunkSection section = chunk.getSection(sectionIndex);
+        LightingProvider lighting = world.getChunkManager().getLightingProvider();
+        boolean wasEmpty = section.isEmpty();
+
+        if (wasEmpty) {
+            // Nothing in it to keep, so the compiled container replaces it whole; the chunk is lit once it is complete
+            section = new ChunkSection(compiled.blockStates().copy(), section.getBiomeContainer());
+            chunk.getSectionArray()[sectionIndex] = section;
+        } else {
+            int baseX = ChunkSectionPos.getBlockCoord(sectionX);
+            int baseY = ChunkSectionPos.getBlockCoord(sectionY);
+            int baseZ = ChunkSectionPos.getBlockCoord(sectionZ);
+            BlockPos.Mutable pos = new BlockPos.Mutable();
+            for (int i = 0; i < 16 * 16 * 16; i++) {
+                int paletteIndex = compiled.blocks().get(i);
+                if (paletteIndex == 0) {
+                    continue;
+                }
+                int x = i & 15;
+                int y = i >> 8 & 15;
+                int z = i >> 4 & 15;
+                section.setBlockState(x, y, z, compiled.palette()[paletteIndex]);
+                // Light already in the section may have to be taken away again, which lighting the chunk does not do
+                lighting.checkBlock(pos.set(baseX + x, baseY + y, baseZ + z));
+            }
+        }
+
+        refreshHeightmaps(chunk);
+
+        if (wasEmpty != section.isEmpty()) {
+            lighting.setSectionStatus(ChunkSectionPos.from(sectionX, sectionY, sectionZ), section.isEmpty());
+        }
+        chunk.setNeedsSaving(true);
+        return true;
+    }
+
+    private static void refreshHeightmaps(WorldChunk chunk) {
+        EnumSet<Heightmap.Type> heightmaps = EnumSet.noneOf(Heightmap.Type.class);
+        for (Map.Entry<Heightmap.Type, Heightmap> heightmap : chunk.getHeightmaps()) {
+            heightmaps.add(heightmap.getKey());
+        }
+        Heightmap.populateHeightmaps(chunk, heightmaps);
+    }
+
+    /**
+     * Light every chunk of a job whose sections are all written, then finish it
+     */
+    private static void light(MinecraftServer server, BuildJob job) {
+        job.lighting = true;
+        ServerChunkManager chunkManager = job.world.getChunkManager();
+        List<CompletableFuture<?>> lit = new ArrayList<>();
+        for (ChunkPos pos : job.ticketedChunks) {
+            WorldChunk chunk = chunkManager.getWorldChunk(pos.x, pos.z);
+            if (chunk != null) {
+                // The build ticket keeps the chunk loaded until its light is done
+                lit.add(chunkManager.getLightingProvider().light(chunk, false)
+                    .thenAcceptAsync(lightedChunk -> sendChunk(job.world, chunk), server));
+            }
+        }
+        CompletableFuture.allOf(lit.toArray(new CompletableFuture[0]))
+            .whenCompleteAsync((result, error) -> finish(server, job), server);
+    }
+
+    /**
+     * Send a built chunk to the players already watching it, in one packet instead of one update per block
+     */
+    private static void sendChunk(ServerWorld world, WorldChunk chunk) {
+        ServerChunkManager chunkManager = world.getChunkManager();
+        List<ServerPlayerEntity> watching = chunkManager.threadedAnvilChunkStorage.getPlayersWatchingChunk(chunk.getPos(), false);
+        if (watching.isEmpty()) {
+            return;
+        }
+        ChunkDataS2CPacket packet = new ChunkDataS2CPacket(chunk, chunkManager.getLightingProvider(), null, null);
+        for (ServerPlayerEntity player : watching) {
+            player.networkHandler.sendPacket(packet);
+        }
+    }
+
+    private static void finish(MinecraftServer server, BuildJob job) {
+        if (!jobs.remove(job)) {
+            // Dropped when the server stopped
+            return;
+        }
+        release(job);
+        TardisRegistry.get(server).markInteriorBuilt(job.tardisId);
+    }
+
+    private static void release(BuildJob job) {
+        for (ChunkPos chunk : job.ticketedChunks) {
+            job.world.getChunkManager().removeTicket(INTERIOR_BUILD_TICKET, chunk, 0, chunk);
+        }
+        queuedTardises.remove(job.tardisId);
+    }
+
+    /**
+     * Clear chunks of the plot of a removed TARDIS until the budget runs out, and free the plot once all are done
+     */
+    private static void clearPlots(MinecraftServer server, TardisRegistry registry, long deadline, boolean wroteAny) {
+        if (clearJob == null) {
+            int plot = registry.getUnclearedPlot();
+            ServerWorld world = plot >= 0 ? server.getWorld(SHARED_INTERIOR_WORLD) : null;
+            if (world == null) {
+                return;
+            }
+            clearJob = startClear(world, plot);
+        }
+
+        ClearJob job = clearJob;
+        for (BuildJob build : jobs) {
+            if (build.world == job.world && TardisPlotAllocator.plotOf(build.spawnPos) == job.plot) {
+                // The removed TARDIS's own build job is still writing or lighting it
+                return;
+            }
+        }
+
+        ServerChunkManager chunkManager = job.world.getChunkManager();
+        ChunkPos next;
+        while (job.loading.size() < MAX_CLEARING_CHUNKS && (next = job.found.poll()) != null) {
+            chunkManager.addTicket(PLOT_CLEAR_TICKET, next, CLEAR_TICKET_RADIUS, next);
+            job.loading.add(next);
+        }
+
+        Iterator<ChunkPos> iterator = job.loading.iterator();
+        while (iterator.hasNext()) {
+            ChunkPos pos = iterator.next();
+            WorldChunk chunk = chunkManager.getWorldChunk(pos.x, pos.z);
+            if (chunk == null || !job.world.shouldTickEntity(pos.getStartPos())) {
+                // Not loaded yet; its ticket will bring it and its entities in
+                continue;
+            }
+            if (wroteAny && System.nanoTime() >= deadline) {
+                return;
+            }
+            clearChunk(job.world, chunk);
+            chunkManager.removeTicket(PLOT_CLEAR_TICKET, pos, CLEAR_TICKET_RADIUS, pos);
+            iterator.remove();
+            wroteAny = true;
+        }
+
+        // Lookups add what they find before counting down, so nothing is still on its way once this reaches zero
+        if (job.lookups.get() == 0 && job.found.isEmpty() && job.loading.isEmpty()) {
+            clearJob = null;
+            registry.markPlotCleared(job.plot);
+            Tatm.LOGGER.debug("Cleared interior plot {} for reuse", job.plot);
+        }
+    }
+
+    /**
+     * Find the chunks of a plot that hold anything: those loaded now, and those saved, which are looked up off-thread
+     */
+    private static ClearJob startClear(ServerWorld world, int plot) {
+        ClearJob job = new ClearJob(plot, world);
+        ServerChunkManager chunkManager = world.getChunkManager();
+        ChunkPos first = TardisPlotAllocator.firstChunkOf(plot);
+        for (int x = 0; x < PLOT_CHUNKS; x++) {
+            for (int z = 0; z < PLOT_CHUNKS; z++) {
+                ChunkPos pos = new ChunkPos(first.x + x, first.z + z);
+                if (chunkManager.getWorldChunk(pos.x, pos.z) != null) {
+                    job.found.add(pos);
+                    continue;
+                }
+                // Never-generated chunks have no data, and are left unloaded
+                job.lookups.incrementAndGet();
+                chunkManager.threadedAnvilChunkStorage.getNbt(pos).whenComplete((nbt, error) -> {
+                    if (error != null || nbt.isPresent()) {
+                        job.found.add(pos);
+                    }
+                    job.lookups.decrementAndGet();
+                });
+            }
+        }
+        return job;
+    }
+
+    /**
+     * Empty a chunk of a freed plot of blocks, block entities, points of interest and every entity but players
+     */
+    private static void clearChunk(ServerWorld world, WorldChunk chunk) {
+        ChunkPos pos = chunk.getPos();
+        // Removed before their blocks, so containers do not drop what they hold
+        for (BlockPos blockPos : new ArrayList<>(chunk.getBlockEntityPositions())) {
+            chunk.removeBlockEntity(blockPos);
+        }
+        PointOfInterestStorage pointsOfInterest = world.getPointOfInterestStorage();
+        List<BlockPos> points = pointsOfInterest.getInChunk(type -> true, pos, PointOfInterestStorage.OccupationStatus.ANY)
+            .map(PointOfInterest::getPos).toList();
+        for (BlockPos point : points) {
+            pointsOfInterest.remove(point);
+        }
+
+        LightingProvider lighting = world.getChunkManager().getLightingProvider();
+        ChunkSection[] sections = chunk.getSectionArray();
+        for (int i = 0; i < sections.length; i++) {
+            if (!sections[i].isEmpty()) {
+                PalettedContainer<BlockState> air = new PalettedContainer<>(
+                    Block.STATE_IDS, Blocks.AIR.getDefaultState(), PalettedContainer.PaletteProvider.BLOCK_STATE);
+                sections[i] = new ChunkSection(air, sections[i].getBiomeContainer());
+                lighting.setSectionStatus(ChunkSectionPos.from(pos, world.sectionIndexToCoord(i)), true);
+            }
+        }
+        refreshHeightmaps(chunk);
+
+        Box box = new Box(pos.getStartX(), world.getBottomY(), pos.getStartZ(), pos.getEndX() + 1, world.getTopY(), pos.getEndZ() + 1);
+        for (Entity entity : world.getEntitiesByClass(Entity.class, box, entity -> !(entity instanceof PlayerEntity))) {
+            entity.discard();
+        }
+
+        // Light left by the removed blocks is dropped when the chunk is next loaded and lit from scratch
+        chunk.setLightOn(false);
+        chunk.setNeedsSaving(true);
+        sendChunk(world, chunk);
+    }
+}
@@ -0,0 +1,315 @@
+package com.tdjs.tatm.tardis;
+
+import com.tdjs.tatm.Tatm;
+import com.tdjs.tatm.config.TatmConfig;
+import com.tdjs.tatm.metrics.LatencyHistogram;
+import com.tdjs.tatm.mixin.MinecraftServerAccessor;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerWorldEvents;
+import net.minecraft.registry.DynamicRegistryManager;
+import net.minecraft.registry.RegistryKey;
+import net.minecraft.registry.RegistryKeys;
+import net.minecraft.registry.entry.RegistryEntry;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.WorldGenerationProgressListener;
+import net.minecraft.server.network.ServerPlayerEntity;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.util.Identifier;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.Vec3d;
+import net.minecraft.world.World;
+import net.minecraft.world.biome.Biome;
+import net.minecraft.world.biome.BiomeKeys;
+import net.minecraft.world.chunk.ChunkStatus;
+import net.minecraft.world.dimension.DimensionOptions;
+import net.minecraft.world.dimension.DimensionType;
+import net.minecraft.world.gen.chunk.ChunkGenerator;
+import net.minecraft.world.gen.chunk.FlatChunkGenerator;
+import net.minecraft.world.gen.chunk.FlatChunkGeneratorConfig;
+import net.minecraft.world.level.UnmodifiableLevelProperties;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Creates TARDIS interior worlds on demand and saves and unloads them once they go idle,
+ * so a large fleet only costs memory and tick time for the interiors in use.
+ * Worlds are only added or removed between world ticks, because the server's
+ * world map is being iterated while worlds tick.
+ */
+public class TardisInteriorWorlds {
+    public static final RegistryKey<DimensionType> INTERIOR_DIMENSION_TYPE =
+        RegistryKey.of(RegistryKeys.DIMENSION_TYPE, new Identifier("tatm", "tardis_interior"));
+
+    private static final int IDLE_CHECK_INTERVAL = 20;
+
+    // Interior worlds created here, with the server tick at which each was last occupied (server thread only)
+    private static final Map<RegistryKey<World>, Integer> lastOccupiedTick = new HashMap<>();
+
+    // Actions waiting for an interior world to be created at the start of the next tick
+    private static final Map<RegistryKey<World>, List<Consumer<ServerWorld>>> pendingLoads = new LinkedHashMap<>();
+
+    private static final LatencyHistogram loadLatency = new LatencyHistogram();
+    private static final LatencyHistogram unloadLatency = new LatencyHistogram();
+
+    public static void register() {
+        ServerTickEvents.START_SERVER_TICK.register(TardisInteriorWorlds::processPendingLoads);
+        ServerTickEvents.END_SERVER_TICK.register(TardisInteriorWorlds::unloadIdleWorlds);
+        ServerLifecycleEvents.SERVER_STOPPED.register(server -> {
+            // The server closes every world in its map on shutdown, including ours
+            lastOccupiedTick.clear();
+            pendingLoads.clear();
+        });
+    }
+
+    /**
+     * Run an action with the interior world of a TARDIS, creating the world if it is not loaded.
+     * The action runs immediately if the world exists, otherwise at the start of the next tick.
+     * An archived interior is restored first, and the action dropped if that fails.
+     */
+    public static void withInteriorWorld(MinecraftServer server, TardisInstance tardis, Consumer<ServerWorld> action) {
+        if (TardisArchive.isArchived(tardis)) {
+            UUID tardisId = tardis.getTardisId();
+            TardisArchive.restore(server, tardis).thenAccept(restored -> {
+                TardisInstance current = TardisRegistry.get(server).getTardis(tardisId);
+                if (restored && current != null) {
+                    withInteriorWorld(server, current, action);
+                }
+            });
+            return;
+        }
+
+        RegistryKey<World> key = RegistryKey.of(RegistryKeys.WORLD, tardis.getInteriorDimension());
+        ServerWorld world = server.getWorld(key);
+        if (world != null) {
+            markOccupied(server, key);
+            action.accept(world);
+            return;
+        }
+
+        pendingLoads.computeIfAbsent(key, k -> new ArrayList<>()).add(action);
+    }
+
+    /**
+     * Get the world a player logging in was saved in. Interior worlds only exist while in use, and
+     * vanilla would put a player whose interior is not loaded into the overworld at the interior's
+     * coordinates, so the interior world is created here. Players connect after the worlds have
+     * ticked, so the world map can change. If the interior is archived, or its world cannot be
+     * created, the player is moved out to the exterior instead. Returns null for unknown dimensions,
+     * as vanilla's lookup would.
+     */
+    @Nullable
+    public static ServerWorld getLoginWorld(MinecraftServer server, RegistryKey<World> key, ServerPlayerEntity player) {
+        ServerWorld world = server.getWorld(key);
+        if (world != null) {
+            return world;
+        }
+
+        TardisInstance tardis = TardisRegistry.get(server).getTardisByInteriorDimension(key.getValue());
+        if (tardis == null) {
+            return null;
+        }
+        if (!TardisArchive.isArchived(tardis)) {
+            world = createWorld(server, key);
+            if (world != null) {
+                return world;
+            }
+        }
+
+        ServerWorld exteriorWorld = tardis.getExteriorPos() != null
+            ? server.getWorld(RegistryKey.of(RegistryKeys.WORLD, tardis.getExteriorDimension()))
+            : null;
+        if (exteriorWorld == null) {
+            return null;
+        }
+        Vec3d exitPos = TardisDimensionManager.getExitPos(tardis.getExteriorPos());
+        player.refreshPositionAndAngles(exitPos.x, exitPos.y, exitPos.z, player.getYaw(), player.getPitch());
+        Tatm.LOGGER.info("Moved {} out of the unavailable interior of TARDIS {}", player.getName().getString(), tardis.getTardisId());
+        return exteriorWorld;
+    }
+
+    /**
+     * Check if an interior world is waiting to be created at the start of the next tick
+     */
+    public static boolean isLoadPending(RegistryKey<World> key) {
+        return pendingLoads.containsKey(key);
+    }
+
+    /**
+     * Number of interior worlds currently loaded
+     */
+    public static int getLoadedWorldCount() {
+        return lastOccupiedTick.size();
+    }
+
+    /**
+     * Time taken to create and register an interior world
+     */
+    public static LatencyHistogram getLoadLatency() {
+        return loadLatency;
+    }
+
+    /**
+     * Time taken to save and close an idle interior world
+     */
+    public static LatencyHistogram getUnloadLatency() {
+        return unloadLatency;
+    }
+
+    /**
+     * Check if a world is an interior world created here
+     */
+    public static boolean isInteriorWorld(ServerWorld world) {
+        return lastOccupiedTick.containsKey(world.getRegistryKey());
+    }
+
+    /**
+     * Let an interior world be unloaded at the next idle check, unless someone is inside by then
+     */
+    public static void markIdle(MinecraftServer server, RegistryKey<World> key) {
+        int idleTicks = TatmConfig.interiorIdleUnloadSeconds * 20;
+        lastOccupiedTick.computeIfPresent(key, (k, tick) -> server.getTicks() - idleTicks);
+    }
+
+    private static void markOccupied(MinecraftServer server, RegistryKey<World> key) {
+        lastOccupiedTick.computeIfPresent(key, (k, tick) -> server.getTicks());
+    }
+
+    private static void processPendingLoads(MinecraftServer server) {
+        if (pendingLoads.isEmpty()) {
+            return;
+        }
+
+        Iterator<Map.Entry<RegistryKey<World>, List<Consumer<ServerWorld>>>> iterator = pendingLoads.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<RegistryKey<World>, List<Consumer<ServerWorld>>> entry = iterator.next();
+            iterator.remove();
+
+            ServerWorld world = server.getWorld(entry.getKey());
+            if (world == null) {
+                world = createWorld(server, entry.getKey());
+            }
+            if (world == null) {
+                continue;
+            }
+
+            for (Consumer<ServerWorld> action : entry.getValue()) {
+                action.accept(world);
+            }
+        }
+    }
+
+    @Nullable
+    private static ServerWorld createWorld(MinecraftServer server, RegistryKey<World> key) {
+        long start = System.nanoTime();
+        MinecraftServerAccessor accessor = (MinecraftServerAccessor) server;
+        DynamicRegistryManager registries = server.getRegistryManager();
+
+        Optional<RegistryEntry.Reference<DimensionType>> dimensionType =
+            registries.get(RegistryKeys.DIMENSION_TYPE).getEntry(INTERIOR_DIMENSION_TYPE);
+        if (dimensionType.isEmpty()) {
+            Tatm.LOGGER.error("Missing dimension type {}, cannot create {}", INTERIOR_DIMENSION_TYPE.getValue(), key.getValue());
+            return null;
+        }
+
+        // Interiors start as empty void; their structure is placed separately
+        RegistryEntry<Biome> biome = registries.get(RegistryKeys.BIOME).entryOf(BiomeKeys.THE_VOID);
+        ChunkGenerator generator = new FlatChunkGenerator(new FlatChunkGeneratorConfig(Optional.empty(), biome, List.of()));
+
+        ServerWorld world = new ServerWorld(
+            server,
+            accessor.getWorkerExecutor(),
+            accessor.getSession(),
+            new UnmodifiableLevelProperties(server.getSaveProperties(), server.getSaveProperties().getMainWorldProperties()),
+            key,
+            new DimensionOptions(dimensionType.get(), generator),
+            NoopProgressListener.INSTANCE,
+            false,
+            server.getOverworld().getSeed(),
+            List.of(),
+            false,
+            null
+        );
+
+        accessor.getWorldMap().put(key, world);
+        lastOccupiedTick.put(key, server.getTicks());
+        ServerWorldEvents.LOAD.invoker().onWorldLoad(server, world);
+
+        loadLatency.recordSince(start);
+        Tatm.LOGGER.debug("Loaded TARDIS interior {} ({} loaded)", key.getValue(), lastOccupiedTick.size());
+        return world;
+    }
+
+    private static void unloadIdleWorlds(MinecraftServer server) {
+        if (server.getTicks() % IDLE_CHECK_INTERVAL != 0 || lastOccupiedTick.isEmpty()) {
+            return;
+        }
+
+        int idleTicks = TatmConfig.interiorIdleUnloadSeconds * 20;
+        Iterator<Map.Entry<RegistryKey<World>, Integer>> iterator = lastOccupiedTick.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<RegistryKey<World>, Integer> entry = iterator.next();
+            ServerWorld world = server.getWorld(entry.getKey());
+            if (world == null) {
+                iterator.remove();
+                continue;
+            }
+
+            if (!world.getPlayers().isEmpty() || !world.getForcedChunks().isEmpty()
+                    || TardisInteriorBuilder.isBuildingIn(world)) {
+                entry.setValue(server.getTicks());
+            } else if (server.getTicks() - entry.getValue() >= idleTicks) {
+                iterator.remove();
+                unloadWorld(server, world);
+            }
+        }
+    }
+
+    private static void unloadWorld(MinecraftServer server, ServerWorld world) {
+        long start = System.nanoTime();
+        ServerWorldEvents.UNLOAD.invoker().onWorldUnload(server, world);
+        world.save(null, true, false);
+        ((MinecraftServerAccessor) server).getWorldMap().remove(world.getRegistryKey());
+        try {
+            world.close();
+        } catch (IOException e) {
+            Tatm.LOGGER.error("Failed to close TARDIS interior {}", world.getRegistryKey().getValue(), e);
+        }
+
+        unloadLatency.recordSince(start);
+        Tatm.LOGGER.debug("Unloaded idle TARDIS interior {} ({} loaded)", world.getRegistryKey().getValue(), lastOccupiedTick.size());
+    }
+
+    /**
+     * Interior worlds are small and created mid-game, so there is no spawn area progress to report
+     */
+    private static class NoopProgressListener implements WorldGenerationProgressListener {
+        static final NoopProgressListener INSTANCE = new NoopProgressListener();
+
+        @Override
+        public void start(ChunkPos spawnPos) {
+        }
+
+        @Override
+        public void setChunkStatus(ChunkPos pos, @Nullable ChunkStatus status) {
+        }
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void stop() {
+        }
+    }
+}
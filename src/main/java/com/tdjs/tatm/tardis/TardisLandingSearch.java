@@ -0,0 +1,471 @@
+package com.tdjs.tatm.tardis;
+
+import com.tdjs.tatm.block.TardisBlockEntity;
+import com.tdjs.tatm.block.TatmBlocks;
+import com.tdjs.tatm.config.TatmConfig;
+import com.tdjs.tatm.metrics.TatmMetrics;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
+import net.minecraft.block.BlockState;
+import net.minecraft.block.Blocks;
+import net.minecraft.registry.RegistryKey;
+import net.minecraft.registry.RegistryKeys;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.world.ChunkTicketType;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.util.Identifier;
+import net.minecraft.util.Util;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.ChunkSectionPos;
+import net.minecraft.world.Heightmap;
+import net.minecraft.world.chunk.PalettedContainer;
+import net.minecraft.world.chunk.WorldChunk;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds safe landing sites for TARDIS exteriors: solid ground with two blocks of air (or
+ * replaceable plants) above it, and no TARDIS in the way. Columns are checked nearest first
+ * on the vanilla worker pool, against copies of the chunk sections they need; the server
+ * thread only takes those copies, once a ticket has loaded the chunks in the background, so
+ * it never loads a chunk or reads a block for a search. What each column held is cached for a
+ * while, so searches around the same place skip the chunks they have already scanned.
+ * Dimensions with a ceiling are searched within a few blocks of the requested height, and not cached.
+ */
+public class TardisLandingSearch {
+    // Expires on its own as a safety net; normally removed as soon as the chunks are copied or the landing done
+    private static final ChunkTicketType<ChunkPos> LANDING_TICKET =
+        ChunkTicketType.create("tatm_landing", Comparator.comparingLong(ChunkPos::toLong), 20 * 60);
+    private static final int TICKET_RADIUS = 0;
+    private static final int TIMEOUT_TICKS = 20 * 30;
+    // Blocks above and below the requested height searched in dimensions with a ceiling
+    private static final int VERTICAL_RANGE = 16;
+    // Columns remembered per dimension, oldest dropped first
+    private static final int CACHE_COLUMNS = 16384;
+    private static final long CACHE_TTL_NANOS = TimeUnit.SECONDS.toNanos(30);
+    // Landing height cached for columns without a landing site
+    private static final int NO_SITE = Integer.MIN_VALUE;
+
+    // Chunk sets waiting to load (server thread only)
+    private static final List<Waiting> waiting = new ArrayList<>();
+    // Landing height by packed column (ChunkPos.toLong of the block X and Z), per dimension; guarded by the map
+    private static final Map<Identifier, Long2ObjectLinkedOpenHashMap<CachedColumn>> cache = new HashMap<>();
+    // Column offsets within a radius, nearest first, packed as dx << 16 | dz & 0xFFFF
+    private static final Map<Integer, int[]> columnOrders = new ConcurrentHashMap<>();
+
+    private record Hold(ServerWorld world, ChunkPos chunk) {}
+
+    private record Waiting(List<Hold> holds, CompletableFuture<Boolean> loaded, int requestedTick) {}
+
+    private record CachedColumn(int landingY, long scannedAt) {}
+
+    /**
+     * The cached part of a search: a site found in the cache, or the chunks left to scan
+     */
+    private record Plan(@Nullable BlockPos site, LongSet chunks) {}
+
+    /**
+     * Copies of the blocks a search needs from one chunk. Each column is checked from its
+     * start height down to its end height; sections outside the copied range read as air.
+     */
+    private record ChunkSnapshot(int[] startY, int[] endY, int minSection, PalettedContainer<BlockState>[] sections) {
+        BlockState getBlockState(int localX, int y, int localZ) {
+            int index = ChunkSectionPos.getSectionCoord(y) - minSection;
+            if (index < 0 || index >= sections.length || sections[index] == null) {
+                return Blocks.AIR.getDefaultState();
+            }
+            return sections[index].get(localX, y & 15, localZ);
+        }
+    }
+
+    public static void register() {
+        ServerTickEvents.END_SERVER_TICK.register(TardisLandingSearch::tick);
+        ServerLifecycleEvents.SERVER_STOPPED.register(server -> {
+            waiting.clear();
+            synchronized (cache) {
+                cache.clear();
+            }
+        });
+    }
+
+    /**
+     * Find the landing site nearest to a position, within {@code landing_search_radius}.
+     * Server thread only. The future completes with the position for the exterior block,
+     * or null if there is none; when it completes the site is only known to have been free,
+     * so callers check it again on the server thread before using it.
+     */
+    public static CompletableFuture<BlockPos> findLandingSite(ServerWorld world, BlockPos target) {
+        TatmMetrics.LANDING_SEARCHES.increment();
+        MinecraftServer server = world.getServer();
+        Identifier dimension = world.getRegistryKey().getValue();
+        boolean cacheable = !world.getDimension().hasCeiling();
+        int radius = Math.max(TatmConfig.landingSearchRadius, 0);
+
+        return CompletableFuture.supplyAsync(() -> plan(dimension, target, radius, cacheable), Util.getMainWorkerExecutor())
+            .thenComposeAsync(plan -> {
+                if (plan.site() != null || plan.chunks().isEmpty()) {
+                    return CompletableFuture.completedFuture(plan.site());
+                }
+
+                List<Hold> holds = new ArrayList<>(plan.chunks().size());
+                for (LongIterator chunks = plan.chunks().iterator(); chunks.hasNext(); ) {
+                    holds.add(new Hold(world, new ChunkPos(chunks.nextLong())));
+                }
+                return load(holds)
+                    .thenApply(loaded -> {
+                        try {
+                            return loaded ? snapshot(world, plan.chunks(), target) : null;
+                        } finally {
+                            release(holds);
+                        }
+                    })
+                    .thenApplyAsync(snapshots -> snapshots != null ? scan(dimension, target, radius, snapshots, cacheable) : null,
+                        Util.getMainWorkerExecutor());
+            }, server)
+            .thenApply(site -> {
+                if (site == null) {
+                    TatmMetrics.LANDING_NO_SITE.increment();
+                }
+                return site;
+            });
+    }
+
+    /**
+     * Move a TARDIS to the landing site nearest to a position: the registry entry, and the
+     * exterior block with its block entity. Server thread only. The future completes on the
+     * server thread with the new exterior position, or null if no site was found, the site
+     * was taken meanwhile, or the exterior block is missing.
+     */
+    public static CompletableFuture<BlockPos> relocate(ServerWorld world, UUID tardisId, BlockPos target) {
+        MinecraftServer server = world.getServer();
+        return findLandingSite(world, target).thenComposeAsync(site -> {
+            TardisInstance tardis = TardisRegistry.get(server).getTardis(tardisId);
+            ServerWorld oldWorld = tardis != null && tardis.getExteriorDimension() != null
+                ? server.getWorld(RegistryKey.of(RegistryKeys.WORLD, tardis.getExteriorDimension())) : null;
+            if (site == null || oldWorld == null || tardis.getExteriorPos() == null) {
+                return CompletableFuture.completedFuture(null);
+            }
+
+            // Both the old exterior and the site must be loaded to move the block; the old one is often far away
+            List<Hold> holds = List.of(new Hold(world, new ChunkPos(site)), new Hold(oldWorld, new ChunkPos(tardis.getExteriorPos())));
+            return load(holds).thenApply(loaded -> {
+                try {
+                    return loaded ? land(world, tardisId, site) : null;
+                } finally {
+                    release(holds);
+                }
+            });
+        }, server);
+    }
+
+    /**
+     * Check a landing site against the world; its chunk must be loaded. Server thread only.
+     */
+    public static boolean isLandingSite(ServerWorld world, BlockPos pos) {
+        return isGround(world.getBlockState(pos.down()))
+            && isPassable(world.getBlockState(pos))
+            && isPassable(world.getBlockState(pos.up()))
+            && TardisRegistry.get(world).getTardisIdByExteriorLocation(pos, world.getRegistryKey().getValue()) == null;
+    }
+
+    private static BlockPos land(ServerWorld world, UUID tardisId, BlockPos site) {
+        TardisRegistry registry = TardisRegistry.get(world);
+        TardisInstance tardis = registry.getTardis(tardisId);
+        if (tardis == null) {
+            return null;
+        }
+        ServerWorld oldWorld = world.getServer().getWorld(RegistryKey.of(RegistryKeys.WORLD, tardis.getExteriorDimension()));
+        BlockPos oldPos = tardis.getExteriorPos();
+        if (oldWorld == null || !oldWorld.isChunkLoaded(oldPos.getX() >> 4, oldPos.getZ() >> 4)) {
+            // Moved again while the site was being loaded
+            return null;
+        }
+
+        Identifier dimension = world.getRegistryKey().getValue();
+        if (!isLandingSite(world, site)) {
+            // The terrain changed since the scan
+            forget(dimension, site);
+            return null;
+        }
+
+        BlockState exterior = oldWorld.getBlockState(oldPos);
+        if (!exterior.isOf(TatmBlocks.TARDIS_BLOCK)) {
+            // A missing exterior block is for the reconciler to sort out
+            return null;
+        }
+
+        // Registry first, so the new block is never seen without an entry pointing at it
+        registry.updateTardisExteriorLocation(tardisId, site, dimension);
+        oldWorld.removeBlock(oldPos, false);
+        world.setBlockState(site, exterior);
+        if (world.getBlockEntity(site) instanceof TardisBlockEntity blockEntity) {
+            blockEntity.setTardisId(tardisId);
+        }
+
+        forget(dimension, site);
+        forget(oldWorld.getRegistryKey().getValue(), oldPos);
+        TatmMetrics.LANDINGS.increment();
+        return site;
+    }
+
+    private static void tick(MinecraftServer server) {
+        if (waiting.isEmpty()) {
+            return;
+        }
+
+        // Completing a wait may start another one, so collect first
+        List<Waiting> done = new ArrayList<>();
+        int now = server.getTicks();
+        for (Iterator<Waiting> iterator = waiting.iterator(); iterator.hasNext(); ) {
+            Waiting entry = iterator.next();
+            if (isLoaded(entry.holds()) || now - entry.requestedTick() > TIMEOUT_TICKS) {
+                iterator.remove();
+                done.add(entry);
+            }
+        }
+        for (Waiting entry : done) {
+            entry.loaded().complete(isLoaded(entry.holds()));
+        }
+    }
+
+    /**
+     * Add tickets for chunks and complete with true once all of them are loaded, or false
+     * when they take too long. Server thread only; the caller releases the tickets.
+     */
+    private static CompletableFuture<Boolean> load(List<Hold> holds) {
+        for (Hold hold : holds) {
+            hold.world().getChunkManager().addTicket(LANDING_TICKET, hold.chunk(), TICKET_RADIUS, hold.chunk());
+        }
+        Waiting entry = new Waiting(holds, new CompletableFuture<>(), holds.get(0).world().getServer().getTicks());
+        waiting.add(entry);
+        return entry.loaded();
+    }
+
+    private static boolean isLoaded(List<Hold> holds) {
+        for (Hold hold : holds) {
+            if (hold.world().getChunkManager().getWorldChunk(hold.chunk().x, hold.chunk().z) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void release(List<Hold> holds) {
+        for (Hold hold : holds) {
+            hold.world().getChunkManager().removeTicket(LANDING_TICKET, hold.chunk(), TICKET_RADIUS, hold.chunk());
+        }
+    }
+
+    /**
+     * Look the columns up in the cache, nearest first, and work out which chunks still need scanning.
+     * Worker thread.
+     */
+    private static Plan plan(Identifier dimension, BlockPos target, int radius, boolean cacheable) {
+        LongSet chunks = new LongOpenHashSet();
+        long now = System.nanoTime();
+        long hits = 0;
+        try {
+            for (int offset : columnOrder(radius)) {
+                int x = target.getX() + (offset >> 16);
+                int z = target.getZ() + (short) offset;
+                CachedColumn column = cacheable ? cached(dimension, ChunkPos.toLong(x, z), now) : null;
+                if (column == null) {
+                    chunks.add(ChunkPos.toLong(x >> 4, z >> 4));
+                    continue;
+                }
+                hits++;
+                if (column.landingY() != NO_SITE) {
+                    // Any nearer column still to be scanned may hold a closer site
+                    return new Plan(chunks.isEmpty() ? new BlockPos(x, column.landingY(), z) : null, chunks);
+                }
+            }
+            return new Plan(null, chunks);
+        } finally {
+            TatmMetrics.LANDING_COLUMNS_CACHED.add(hits);
+        }
+    }
+
+    /**
+     * Copy what the search needs from loaded chunks. Server thread only.
+     */
+    private static Long2ObjectMap<ChunkSnapshot> snapshot(ServerWorld world, LongSet chunks, BlockPos target) {
+        Long2ObjectMap<ChunkSnapshot> snapshots = new Long2ObjectOpenHashMap<>(chunks.size());
+        for (LongIterator iterator = chunks.iterator(); iterator.hasNext(); ) {
+            long chunkKey = iterator.nextLong();
+            WorldChunk chunk = world.getChunkManager().getWorldChunk(ChunkPos.getPackedX(chunkKey), ChunkPos.getPackedZ(chunkKey));
+            if (chunk != null) {
+                snapshots.put(chunkKey, snapshot(world, chunk, target));
+            }
+        }
+        return snapshots;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ChunkSnapshot snapshot(ServerWorld world, WorldChunk chunk, BlockPos target) {
+        Heightmap heightmap = chunk.getHeightmap(Heightmap.Type.MOTION_BLOCKING_NO_LEAVES);
+        boolean ceiling = world.getDimension().hasCeiling();
+        int[] startY = new int[256];
+        int[] endY = new int[256];
+        int lowest = Integer.MAX_VALUE;
+        int highest = Integer.MIN_VALUE;
+
+        for (int i = 0; i < 256; i++) {
+            // The heightmap holds the height above the topmost blocking block
+            int surface = heightmap.get(i & 15, i >> 4) - 1;
+            startY[i] = ceiling ? Math.min(surface, target.getY() + VERTICAL_RANGE) : surface;
+            endY[i] = ceiling ? Math.max(world.getBottomY(), target.getY() - VERTICAL_RANGE) : surface;
+            if (startY[i] >= endY[i]) {
+                lowest = Math.min(lowest, endY[i]);
+                highest = Math.max(highest, startY[i]);
+            }
+        }
+
+        if (lowest > highest) {
+            return new ChunkSnapshot(startY, endY, 0, new PalettedContainer[0]);
+        }
+        int minSection = ChunkSectionPos.getSectionCoord(lowest);
+        int maxSection = ChunkSectionPos.getSectionCoord(highest + 2);
+        PalettedContainer<BlockState>[] sections = new PalettedContainer[maxSection - minSection + 1];
+        for (int sectionY = minSection; sectionY <= maxSection; sectionY++) {
+            int index = world.sectionCoordToIndex(sectionY);
+            if (index >= 0 && index < chunk.getSectionArray().length) {
+                sections[sectionY - minSection] = chunk.getSection(index).getBlockStateContainer().copy();
+            }
+        }
+        return new ChunkSnapshot(startY, endY, minSection, sections);
+    }
+
+    /**
+     * Check columns nearest first against the snapshots, falling back to the cache for
+     * columns in chunks that were not copied. Worker thread.
+     */
+    private static BlockPos scan(Identifier dimension, BlockPos target, int radius, Long2ObjectMap<ChunkSnapshot> snapshots, boolean cacheable) {
+        long now = System.nanoTime();
+        long scanned = 0;
+        try {
+            for (int offset : columnOrder(radius)) {
+                int x = target.getX() + (offset >> 16);
+                int z = target.getZ() + (short) offset;
+                long column = ChunkPos.toLong(x, z);
+                ChunkSnapshot snapshot = snapshots.get(ChunkPos.toLong(x >> 4, z >> 4));
+
+                int landingY;
+                if (snapshot != null) {
+                    landingY = findLandingY(snapshot, x & 15, z & 15);
+                    scanned++;
+                    if (cacheable) {
+                        remember(dimension, column, landingY, now);
+                    }
+                } else {
+                    CachedColumn cached = cacheable ? cached(dimension, column, now) : null;
+                    if (cached == null) {
+                        continue;
+                    }
+                    landingY = cached.landingY();
+                }
+
+                if (landingY != NO_SITE) {
+                    return new BlockPos(x, landingY, z);
+                }
+            }
+            return null;
+        } finally {
+            TatmMetrics.LANDING_COLUMNS_SCANNED.add(scanned);
+        }
+    }
+
+    private static int findLandingY(ChunkSnapshot snapshot, int localX, int localZ) {
+        int column = localZ << 4 | localX;
+        for (int y = snapshot.startY()[column]; y >= snapshot.endY()[column]; y--) {
+            if (isGround(snapshot.getBlockState(localX, y, localZ))
+                    && isPassable(snapshot.getBlockState(localX, y + 1, localZ))
+                    && isPassable(snapshot.getBlockState(localX, y + 2, localZ))) {
+                return y + 1;
+            }
+        }
+        return NO_SITE;
+    }
+
+    private static boolean isGround(BlockState state) {
+        return state.isSolid() && state.getFluidState().isEmpty() && !state.isOf(TatmBlocks.TARDIS_BLOCK);
+    }
+
+    private static boolean isPassable(BlockState state) {
+        return (state.isAir() || state.isReplaceable()) && state.getFluidState().isEmpty();
+    }
+
+    private static int[] columnOrder(int radius) {
+        return columnOrders.computeIfAbsent(radius, r -> {
+            IntArrayList offsets = new IntArrayList();
+            for (int dx = -r; dx <= r; dx++) {
+                for (int dz = -r; dz <= r; dz++) {
+                    if (dx * dx + dz * dz <= r * r) {
+                        offsets.add(dx << 16 | dz & 0xFFFF);
+                    }
+                }
+            }
+            int[] order = offsets.toIntArray();
+            IntArrays.quickSort(order, (a, b) -> Integer.compare(distanceSquared(a), distanceSquared(b)));
+            return order;
+        });
+    }
+
+    private static int distanceSquared(int offset) {
+        int dx = offset >> 16;
+        int dz = (short) offset;
+        return dx * dx + dz * dz;
+    }
+
+    private static CachedColumn cached(Identifier dimension, long column, long now) {
+        synchronized (cache) {
+            Long2ObjectLinkedOpenHashMap<CachedColumn> columns = cache.get(dimension);
+            CachedColumn cached = columns != null ? columns.get(column) : null;
+            if (cached != null && now - cached.scannedAt() > CACHE_TTL_NANOS) {
+                columns.remove(column);
+                return null;
+            }
+            return cached;
+        }
+    }
+
+    private static void remember(Identifier dimension, long column, int landingY, long now) {
+        synchronized (cache) {
+            Long2ObjectLinkedOpenHashMap<CachedColumn> columns = cache.computeIfAbsent(dimension, key -> new Long2ObjectLinkedOpenHashMap<>());
+            columns.putAndMoveToLast(column, new CachedColumn(landingY, now));
+            while (columns.size() > CACHE_COLUMNS) {
+                columns.removeFirst();
+            }
+        }
+    }
+
+    /**
+     * Drop the cached column of a position whose blocks just changed
+     */
+    private static void forget(Identifier dimension, BlockPos pos) {
+        synchronized (cache) {
+            Long2ObjectLinkedOpenHashMap<CachedColumn> columns = cache.get(dimension);
+            if (columns != null) {
+                columns.remove(ChunkPos.toLong(pos.getX(), pos.getZ()));
+            }
+        }
+    }
+}
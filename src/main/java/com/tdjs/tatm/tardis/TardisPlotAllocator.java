@@ -0,0 +1,176 @@
+package com.tdjs.tatm.tardis;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntAVLTreeSet;
+import it.unimi.dsi.fastutil.ints.IntSortedSet;
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.MathHelper;
+
+import java.util.UUID;
+
+/**
+ * Hands out fixed-size interior plots in the shared interiors dimension.
+ * Plots are numbered along a Z-order (Morton) curve over the positive X/Z quadrant,
+ * so the allocated area stays compact around the origin. A plot of a removed
+ * TARDIS is first cleared of everything its owner left in it (see
+ * {@link TardisInteriorBuilder}), then goes on a free list, and the lowest free
+ * plot is reused first. Both lists are saved with the registry.
+ * Plots are one region file wide, so every interior lives in its own region file.
+ */
+public class TardisPlotAllocator {
+    public static final int PLOT_SIZE = 512;
+    public static final int INTERIOR_Y = 64;
+    // Keeps Morton indexes within a non-negative int (15 bits per axis)
+    private static final int MAX_PLOTS_PER_AXIS = 1 << 15;
+
+    // Maps plot index to the TARDIS that owns it
+    private final Int2ObjectMap<UUID> owners = new Int2ObjectOpenHashMap<>();
+    // Plots of removed TARDISes, waiting to be cleared and then free to hand out again
+    private final IntSortedSet uncleared = new IntAVLTreeSet();
+    private final IntSortedSet freePlots = new IntAVLTreeSet();
+    // Every plot below this has been handed out at some point
+    private int nextPlot;
+
+    /**
+     * Reserve a plot for a TARDIS and return its index
+     */
+    public int allocate(UUID tardisId) {
+        int plot;
+        if (!freePlots.isEmpty()) {
+            plot = freePlots.firstInt();
+            freePlots.remove(plot);
+        } else {
+            plot = nextPlot++;
+        }
+        owners.put(plot, tardisId);
+        return plot;
+    }
+
+    /**
+     * Record that a plot is owned by a TARDIS (used when loading existing TARDISes).
+     * Unowned plots below it that are not on either list were used by removed TARDISes
+     * and may hold what they left, so they are skipped.
+     */
+    public void claim(int plot, UUID tardisId) {
+        owners.put(plot, tardisId);
+        uncleared.remove(plot);
+        freePlots.remove(plot);
+        nextPlot = Math.max(nextPlot, plot + 1);
+    }
+
+    /**
+     * Drop the owner of a plot and queue it to be cleared
+     */
+    public void release(int plot, UUID tardisId) {
+        if (owners.remove(plot, tardisId)) {
+            uncleared.add(plot);
+        }
+    }
+
+    /**
+     * Get the lowest plot waiting to be cleared, or -1
+     */
+    public int getUnclearedPlot() {
+        return uncleared.isEmpty() ? -1 : uncleared.firstInt();
+    }
+
+    /**
+     * Put a cleared plot on the free list
+     */
+    public void markCleared(int plot) {
+        if (uncleared.remove(plot)) {
+            freePlots.add(plot);
+        }
+    }
+
+    /**
+     * Write the next plot and both lists of plots of removed TARDISes into the registry manifest
+     */
+    public void writeNbt(NbtCompound nbt) {
+        nbt.putInt("next_interior_plot", nextPlot);
+        nbt.putIntArray("uncleared_interior_plots", uncleared.toIntArray());
+        nbt.putIntArray("free_interior_plots", freePlots.toIntArray());
+    }
+
+    /**
+     * Restore what {@link #writeNbt} saved, before the owned plots are claimed
+     */
+    public void readNbt(NbtCompound nbt) {
+        nextPlot = Math.max(nextPlot, nbt.getInt("next_interior_plot"));
+        for (int plot : nbt.getIntArray("uncleared_interior_plots")) {
+            if (plot >= 0 && !owners.containsKey(plot)) {
+                uncleared.add(plot);
+            }
+        }
+        for (int plot : nbt.getIntArray("free_interior_plots")) {
+            if (plot >= 0 && !owners.containsKey(plot) && !uncleared.contains(plot)) {
+                freePlots.add(plot);
+            }
+        }
+    }
+
+    /**
+     * Get the TARDIS owning a plot, or null if the plot is free
+     */
+    public UUID getOwner(int plot) {
+        return owners.get(plot);
+    }
+
+    public void clear() {
+        owners.clear();
+        uncleared.clear();
+        freePlots.clear();
+        nextPlot = 0;
+    }
+
+    /**
+     * Get the plot index containing a block position, or -1 if it is outside the plot grid
+     */
+    public static int plotOf(BlockPos pos) {
+        int plotX = MathHelper.floorDiv(pos.getX(), PLOT_SIZE);
+        int plotZ = MathHelper.floorDiv(pos.getZ(), PLOT_SIZE);
+        if (plotX < 0 || plotZ < 0 || plotX >= MAX_PLOTS_PER_AXIS || plotZ >= MAX_PLOTS_PER_AXIS) {
+            return -1;
+        }
+        return spread(plotX) | (spread(plotZ) << 1);
+    }
+
+    /**
+     * Get the chunk at the minimum corner of a plot
+     */
+    public static ChunkPos firstChunkOf(int plot) {
+        return new ChunkPos(compact(plot) * (PLOT_SIZE >> 4), compact(plot >>> 1) * (PLOT_SIZE >> 4));
+    }
+
+    /**
+     * Get the interior spawn position at the centre of a plot
+     */
+    public static BlockPos spawnPosOf(int plot) {
+        int plotX = compact(plot);
+        int plotZ = compact(plot >>> 1);
+        return new BlockPos(plotX * PLOT_SIZE + PLOT_SIZE / 2, INTERIOR_Y, plotZ * PLOT_SIZE + PLOT_SIZE / 2);
+    }
+
+    // Interleave the low 16 bits of a value with zeros
+    private static int spread(int value) {
+        value &= 0x0000FFFF;
+        value = (value | (value << 8)) & 0x00FF00FF;
+        value = (value | (value << 4)) & 0x0F0F0F0F;
+        value = (value | (value << 2)) & 0x33333333;
+        value = (value | (value << 1)) & 0x55555555;
+        return value;
+    }
+
+    // Inverse of spread: collect every other bit
+    private static int compact(int value) {
+        value &= 0x55555555;
+        value = (value | (value >>> 1)) & 0x33333333;
+        value = (value | (value >>> 2)) & 0x0F0F0F0F;
+        value = (value | (value >>> 4)) & 0x00FF00FF;
+        value = (value | (value >>> 8)) & 0x0000FFFF;
+        return value;
+    }
+}
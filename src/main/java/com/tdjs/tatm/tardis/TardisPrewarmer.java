@@ -0,0 +1,136 @@
+package com.tdjs.tatm.tardis;
+
+import com.tdjs.tatm.config.TatmConfig;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
+import net.minecraft.registry.RegistryKey;
+import net.minecraft.registry.RegistryKeys;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.network.ServerPlayerEntity;
+import net.minecraft.server.world.ChunkTicketType;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+
+import java.util.Comparator;
+import java.util.UUID;
+
+/**
+ * Loads the interior spawn chunks of a TARDIS while a player is standing near its exterior,
+ * so they are already loaded by the time the player walks in.
+ * The ticket is added whenever the interior world is loaded, which the shared interiors
+ * dimension always is, and does not wake a hibernated interior. A dedicated world that is not
+ * loaded is not created just for pre-warming, so entering it is counted as a miss.
+ * Players only look at the exterior buckets of the chunk sections around them, never the whole fleet.
+ * Entries are counted as hits when the spawn chunk was already loaded and misses otherwise.
+ */
+public class TardisPrewarmer {
+    // Refreshed on every scan while a player stays nearby, so it lapses shortly after they leave
+    private static final ChunkTicketType<ChunkPos> PREWARM_TICKET =
+        ChunkTicketType.create("tatm_prewarm", Comparator.comparingLong(ChunkPos::toLong), 20 * 5);
+    private static final int TICKET_RADIUS = 1;
+    private static final int SCAN_INTERVAL = 10;
+
+    private static long prewarmedInteriors;
+    private static long hits;
+    private static long misses;
+
+    public static void register() {
+        ServerTickEvents.END_SERVER_TICK.register(TardisPrewarmer::tick);
+        ServerLifecycleEvents.SERVER_STOPPED.register(server -> {
+            prewarmedInteriors = 0;
+            hits = 0;
+            misses = 0;
+        });
+    }
+
+    /**
+     * Record whether the interior spawn chunk of a TARDIS was loaded when an entity tried to enter it
+     */
+    public static void recordEntry(MinecraftServer server, TardisInstance tardis) {
+        ServerWorld world = server.getWorld(RegistryKey.of(RegistryKeys.WORLD, tardis.getInteriorDimension()));
+        BlockPos spawnPos = tardis.getInteriorPos();
+        if (world != null && world.getChunkManager().getWorldChunk(spawnPos.getX() >> 4, spawnPos.getZ() >> 4) != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+    }
+
+    /**
+     * Drop the pre-warm ticket of an interior before it expires on its own
+     */
+    public static void release(ServerWorld world, TardisInstance tardis) {
+        ChunkPos chunk = new ChunkPos(tardis.getInteriorPos());
+        world.getChunkManager().removeTicket(PREWARM_TICKET, chunk, TICKET_RADIUS, chunk);
+    }
+
+    public static long getPrewarmedInteriors() {
+        return prewarmedInteriors;
+    }
+
+    public static long getHits() {
+        return hits;
+    }
+
+    public static long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Fraction of entries that found their interior spawn chunk already loaded
+     */
+    public static double getHitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    private static void tick(MinecraftServer server) {
+        int radius = TatmConfig.prewarmRadius;
+        if (radius <= 0 || server.getTicks() % SCAN_INTERVAL != 0) {
+            return;
+        }
+
+        TardisRegistry registry = TardisRegistry.get(server);
+
+        for (ServerWorld world : server.getWorlds()) {
+            if (world.getPlayers().isEmpty()) {
+                continue;
+            }
+            TardisExteriorIndex exteriors = registry.getExteriorIndex(world.getRegistryKey().getValue());
+            if (exteriors == null || exteriors.isEmpty()) {
+                continue;
+            }
+
+            for (ServerPlayerEntity player : world.getPlayers()) {
+                if (player.isSpectator()) {
+                    continue;
+                }
+                exteriors.forEachWithinRadius(player.getBlockPos(), radius, (pos, tardisId) -> prewarm(server, registry, tardisId));
+            }
+        }
+    }
+
+    private static void prewarm(MinecraftServer server, TardisRegistry registry, UUID tardisId) {
+        TardisInstance tardis = tardisId != null ? registry.getTardis(tardisId) : null;
+        if (tardis == null || !tardis.isInitialized() || !tardis.isInteriorBuilt()) {
+            // Unbuilt interiors are already loaded by their build job
+            return;
+        }
+        if (TardisArchive.isArchived(tardis)) {
+            // Walking past a dormant TARDIS is no reason to unpack it; entering restores it
+            return;
+        }
+        ServerWorld world = server.getWorld(RegistryKey.of(RegistryKeys.WORLD, tardis.getInteriorDimension()));
+        if (world == null) {
+            return;
+        }
+
+        ChunkPos chunk = new ChunkPos(tardis.getInteriorPos());
+        if (world.getChunkManager().getWorldChunk(chunk.x, chunk.z) == null) {
+            prewarmedInteriors++;
+        }
+        // Adding an existing ticket again only resets its expiry
+        world.getChunkManager().addTicket(PREWARM_TICKET, chunk, TICKET_RADIUS, chunk);
+    }
+}
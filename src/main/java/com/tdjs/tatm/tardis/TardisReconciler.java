@@ -0,0 +1,272 @@
+package com.tdjs.tatm.tardis;
+
+import com.tdjs.tatm.Tatm;
+import com.tdjs.tatm.block.TardisBlockEntity;
+import com.tdjs.tatm.config.TatmConfig;
+import com.tdjs.tatm.metrics.TatmMetrics;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerChunkEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
+import net.minecraft.block.entity.BlockEntity;
+import net.minecraft.registry.RegistryKey;
+import net.minecraft.registry.RegistryKeys;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.util.Identifier;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.WorldChunk;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+
+/**
+ * Keeps TARDIS exterior blocks and the registry in agreement without ever sweeping the whole fleet at once.
+ * Exterior blocks can vanish without {@link com.tdjs.tatm.block.TardisBlock#onBreak} (explosions, pistons,
+ * world editors), and blocks can be copied or moved along with their UUID. Each tick a bounded amount of work
+ * is done: chunks that just loaded are checked first, then a slice of a rolling pass over every indexed exterior.
+ * Only loaded chunks are ever checked. Registry entries whose block is gone are quarantined, and restored if
+ * the block turns up elsewhere; blocks without a valid TARDIS get a new one.
+ */
+public class TardisReconciler {
+    // Minimum time between the starts of two passes over the registry
+    private static final int PASS_INTERVAL_TICKS = 20 * 30;
+
+    private record ChunkCheck(RegistryKey<World> world, ChunkPos chunk) {}
+
+    // Chunks loaded since they were last checked (server thread only)
+    private static final Queue<ChunkCheck> loadedChunks = new ArrayDeque<>();
+
+    // The current pass: a snapshot of the exterior positions of each dimension, consumed a slice at a time
+    private static final List<Identifier> passDimensions = new ArrayList<>();
+    private static final List<long[]> passPositions = new ArrayList<>();
+    private static int passDimension;
+    private static int passIndex;
+    private static int lastPassStart = Integer.MIN_VALUE / 2;
+
+    public static void register() {
+        ServerChunkEvents.CHUNK_LOAD.register((world, chunk) -> {
+            if (hasTardisData(world, chunk)) {
+                loadedChunks.add(new ChunkCheck(world.getRegistryKey(), chunk.getPos()));
+            }
+        });
+        ServerTickEvents.END_SERVER_TICK.register(TardisReconciler::tick);
+        ServerLifecycleEvents.SERVER_STOPPED.register(server -> {
+            loadedChunks.clear();
+            passDimensions.clear();
+            passPositions.clear();
+            passDimension = 0;
+            passIndex = 0;
+            lastPassStart = Integer.MIN_VALUE / 2;
+        });
+    }
+
+    private static void tick(MinecraftServer server) {
+        int budget = TatmConfig.reconcileChecksPerTick;
+        if (budget <= 0) {
+            loadedChunks.clear();
+            return;
+        }
+
+        TardisRegistry registry = TardisRegistry.get(server);
+
+        ChunkCheck check;
+        while (budget > 0 && (check = loadedChunks.poll()) != null) {
+            ServerWorld world = server.getWorld(check.world());
+            if (world != null) {
+                budget -= checkChunk(registry, world, check.chunk());
+            }
+        }
+
+        while (budget > 0) {
+            if (passDimension >= passDimensions.size()) {
+                if (!startPass(server, registry)) {
+                    return;
+                }
+            }
+
+            long[] positions = passPositions.get(passDimension);
+            if (passIndex >= positions.length) {
+                passDimension++;
+                passIndex = 0;
+                continue;
+            }
+
+            ServerWorld world = server.getWorld(RegistryKey.of(RegistryKeys.WORLD, passDimensions.get(passDimension)));
+            if (world == null) {
+                // Dimension not loaded; nothing in it can be checked
+                passDimension++;
+                passIndex = 0;
+                continue;
+            }
+
+            checkEntry(registry, world, BlockPos.fromLong(positions[passIndex++]));
+            budget--;
+        }
+    }
+
+    /**
+     * Snapshot the exterior positions of every dimension, at most once per pass interval
+     */
+    private static boolean startPass(MinecraftServer server, TardisRegistry registry) {
+        if (server.getTicks() - lastPassStart < PASS_INTERVAL_TICKS) {
+            return false;
+        }
+
+        passDimensions.clear();
+        passPositions.clear();
+        for (Identifier dimension : registry.getExteriorDimensions()) {
+            TardisExteriorIndex index = registry.getExteriorIndex(dimension);
+            if (index != null && !index.isEmpty()) {
+                passDimensions.add(dimension);
+                passPositions.add(index.positionsSnapshot());
+            }
+        }
+        passDimension = 0;
+        passIndex = 0;
+        lastPassStart = server.getTicks();
+        return !passDimensions.isEmpty();
+    }
+
+    /**
+     * Only chunks holding a TARDIS block or a registered exterior are queued, so ordinary chunk loads cost one scan
+     */
+    private static boolean hasTardisData(ServerWorld world, WorldChunk chunk) {
+        for (BlockEntity blockEntity : chunk.getBlockEntities().values()) {
+            if (blockEntity instanceof TardisBlockEntity) {
+                return true;
+            }
+        }
+        TardisExteriorIndex index = TardisRegistry.get(world).getExteriorIndex(world.getRegistryKey().getValue());
+        return index != null && index.hasAnyInChunk(chunk.getPos().x, chunk.getPos().z);
+    }
+
+    /**
+     * Check the registry entries and TARDIS blocks of a loaded chunk. Returns the work done.
+     */
+    private static int checkChunk(TardisRegistry registry, ServerWorld world, ChunkPos chunkPos) {
+        WorldChunk chunk = world.getChunkManager().getWorldChunk(chunkPos.x, chunkPos.z);
+        if (chunk == null) {
+            // Unloaded again before it was checked
+            return 1;
+        }
+
+        int work = 1;
+
+        // Registry entries first, so an entry whose block was replaced is quarantined before the block gets a TARDIS
+        TardisExteriorIndex index = registry.getExteriorIndex(world.getRegistryKey().getValue());
+        if (index != null) {
+            List<BlockPos> positions = new ArrayList<>();
+            index.forEachInChunk(chunkPos.x, chunkPos.z, (pos, tardisId) -> positions.add(BlockPos.fromLong(pos)));
+            for (BlockPos pos : positions) {
+                checkEntry(registry, world, pos);
+                work++;
+            }
+        }
+
+        List<TardisBlockEntity> blockEntities = new ArrayList<>();
+        for (BlockEntity blockEntity : chunk.getBlockEntities().values()) {
+            if (blockEntity instanceof TardisBlockEntity tardisBlockEntity) {
+                blockEntities.add(tardisBlockEntity);
+            }
+        }
+        for (TardisBlockEntity blockEntity : blockEntities) {
+            checkBlockEntity(registry, world, blockEntity);
+            work++;
+        }
+        return work;
+    }
+
+    /**
+     * Check that the exterior registered at a position still has a block pointing back at it
+     */
+    private static void checkEntry(TardisRegistry registry, ServerWorld world, BlockPos pos) {
+        if (!world.isChunkLoaded(pos.getX() >> 4, pos.getZ() >> 4)) {
+            // Checked once its chunk loads
+            return;
+        }
+
+        TardisExteriorIndex index = registry.getExteriorIndex(world.getRegistryKey().getValue());
+        UUID tardisId = index != null ? index.get(pos.asLong()) : null;
+        if (tardisId == null) {
+            return;
+        }
+        TatmMetrics.RECONCILE_CHECKS.increment();
+
+        if (world.getBlockEntity(pos) instanceof TardisBlockEntity blockEntity) {
+            if (tardisId.equals(blockEntity.getTardisId())) {
+                return;
+            }
+            if (blockEntity.getTardisId() == null) {
+                // Block lost its data (e.g. pasted without NBT) but is still where the registry expects it
+                blockEntity.setTardisId(tardisId);
+                TatmMetrics.RECONCILE_REPAIRED.increment();
+                return;
+            }
+        }
+
+        // The exterior block is gone or now belongs to another TARDIS
+        registry.quarantineTardis(tardisId);
+        TatmMetrics.RECONCILE_QUARANTINED.increment();
+        Tatm.LOGGER.warn("Quarantined TARDIS {}: its exterior block at {} in {} is missing",
+            tardisId, pos, world.getRegistryKey().getValue());
+
+        if (world.getBlockEntity(pos) instanceof TardisBlockEntity blockEntity) {
+            checkBlockEntity(registry, world, blockEntity);
+        }
+    }
+
+    /**
+     * Check that a TARDIS block points at a registered TARDIS whose exterior is this block
+     */
+    private static void checkBlockEntity(TardisRegistry registry, ServerWorld world, TardisBlockEntity blockEntity) {
+        TatmMetrics.RECONCILE_CHECKS.increment();
+        BlockPos pos = blockEntity.getPos();
+        Identifier dimension = world.getRegistryKey().getValue();
+        UUID tardisId = blockEntity.getTardisId();
+        TardisInstance tardis = tardisId != null ? registry.getTardis(tardisId) : null;
+
+        if (tardis == null) {
+            // Placed without an item, or pointing at a TARDIS that no longer exists
+            blockEntity.initializeWithNewTardis();
+            TatmMetrics.RECONCILE_REPAIRED.increment();
+            return;
+        }
+
+        if (pos.equals(tardis.getExteriorPos()) && dimension.equals(tardis.getExteriorDimension())) {
+            if (registry.isQuarantined(tardisId)) {
+                registry.restoreTardis(tardisId, pos, dimension);
+                TatmMetrics.RECONCILE_RESTORED.increment();
+            }
+            return;
+        }
+
+        if (registry.isQuarantined(tardisId)) {
+            // The block was moved; the TARDIS follows it
+            registry.restoreTardis(tardisId, pos, dimension);
+            TatmMetrics.RECONCILE_RESTORED.increment();
+            return;
+        }
+
+        ServerWorld registeredWorld = world.getServer().getWorld(RegistryKey.of(RegistryKeys.WORLD, tardis.getExteriorDimension()));
+        BlockPos registeredPos = tardis.getExteriorPos();
+        if (registeredWorld == null || !registeredWorld.isChunkLoaded(registeredPos.getX() >> 4, registeredPos.getZ() >> 4)) {
+            // Cannot tell a copy from a move until the registered position is loaded
+            return;
+        }
+
+        if (registeredWorld.getBlockEntity(registeredPos) instanceof TardisBlockEntity original
+                && tardisId.equals(original.getTardisId())) {
+            // A copy of a TARDIS that still exists; give the copy its own
+            blockEntity.initializeWithNewTardis();
+            TatmMetrics.RECONCILE_REPAIRED.increment();
+        } else {
+            registry.restoreTardis(tardisId, pos, dimension);
+            TatmMetrics.RECONCILE_RESTORED.increment();
+        }
+    }
+}
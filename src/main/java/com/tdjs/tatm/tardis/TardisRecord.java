@@ -0,0 +1,56 @@
+package com.tdjs.tatm.tardis;
+
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.util.Identifier;
+import net.minecraft.util.math.BlockPos;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.UUID;
+
+/**
+ * Immutable snapshot of the persisted state of a {@link TardisInstance}.
+ * Snapshots are taken on the server thread and can then be encoded on any thread.
+ */
+public record TardisRecord(
+    UUID tardisId,
+    boolean initialized,
+    boolean interiorBuilt,
+    @Nullable BlockPos exteriorPos,
+    @Nullable Identifier exteriorDimension,
+    @Nullable BlockPos interiorPos,
+    @Nullable Identifier interiorDimension,
+    long lastEnteredTime,
+    boolean archived
+) {
+
+    /**
+     * Serialize this snapshot to NBT for persistence
+     */
+    public NbtCompound toNbt() {
+        NbtCompound nbt = new NbtCompound();
+        nbt.putUuid("tardis_id", tardisId);
+        nbt.putBoolean("initialized", initialized);
+        nbt.putBoolean("interior_built", interiorBuilt);
+
+        if (exteriorPos != null) {
+            nbt.putLong("exterior_pos", exteriorPos.asLong());
+        }
+        if (exteriorDimension != null) {
+            nbt.putString("exterior_dimension", exteriorDimension.toString());
+        }
+        if (interiorPos != null) {
+            nbt.putLong("interior_pos", interiorPos.asLong());
+        }
+        if (interiorDimension != null) {
+            nbt.putString("interior_dimension", interiorDimension.toString());
+        }
+        if (lastEnteredTime != 0) {
+            nbt.putLong("last_entered", lastEnteredTime);
+        }
+        if (archived) {
+            nbt.putBoolean("archived", true);
+        }
+
+        return nbt;
+    }
+}
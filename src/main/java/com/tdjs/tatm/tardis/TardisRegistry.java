@@ -1,47 +1,186 @@
 package com.tdjs.tatm.tardis;
 
+import com.tdjs.tatm.Tatm;
+import com.tdjs.tatm.metrics.InteriorInitEvent;
+import com.tdjs.tatm.metrics.RegistryLoadEvent;
+import com.tdjs.tatm.metrics.RegistrySaveEvent;
+import com.tdjs.tatm.metrics.TatmMetrics;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
 import net.minecraft.nbt.NbtCompound;
+import net.minecraft.nbt.NbtElement;
+import net.minecraft.nbt.NbtHelper;
 import net.minecraft.nbt.NbtList;
+import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.world.ServerWorld;
 import net.minecraft.util.Identifier;
+import net.minecraft.util.WorldSavePath;
 import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
 import net.minecraft.world.PersistentState;
 import net.minecraft.world.PersistentStateManager;
 import net.minecraft.world.World;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 /**
- * Registry that manages all TARDIS instances in the world.
+ * Registry that manages all TARDIS instances on the server.
  * Handles persistence, creation, and retrieval of TARDIS data.
+ * There is exactly one registry per server; it is stored with the overworld
+ * and covers every dimension, so exterior and interior lookups agree.
+ * The vanilla data file only holds a small manifest; the instances themselves
+ * live in {@link TardisRegistryStorage} shards that are rewritten only when dirty,
+ * from snapshots taken on the server thread and written in the background.
+ * State is held in a {@link TardisStore} of parallel arrays; the instances handed
+ * out are views over its slots, created on lookup.
+ * Every mutation changes the store and the exterior, interior and plot indices under
+ * the store's write lock, so a TARDIS is never seen at neither or both of two locations.
+ * Lookups run as optimistic reads that are retried if a mutation overlapped them, so
+ * savers, metrics and exporters on other threads can use them without stalling the tick.
  */
 public class TardisRegistry extends PersistentState {
     private static final String DATA_NAME = "tardis_registry";
+    // Format 2 stores shards as fixed-width binary records, see TardisRegistryStorage
+    private static final int FORMAT_VERSION = 2;
+    // Change events kept for subscribers that have not caught up
+    private static final int CHANGE_BUFFER_SIZE = 8192;
+
+    // The registry of the running server, resolved once and then read directly on hot paths
+    private static volatile TardisRegistry instance;
     
-    // Maps TARDIS UUID to TardisInstance
-    private final Map<UUID, TardisInstance> tardisInstances = new ConcurrentHashMap<>();
+    // State of every TARDIS, by slot (server thread only)
+    private final TardisStore store = new TardisStore(1024);
     
-    // Maps exterior location to TARDIS UUID for quick lookup
-    private final Map<String, UUID> exteriorLocationMap = new ConcurrentHashMap<>();
+    // Maps exterior dimension to an index of packed exterior positions (BlockPos.asLong) to TARDIS UUIDs
+    private final Map<Identifier, TardisExteriorIndex> exteriorLocationMap = new ConcurrentHashMap<>();
     
-    // Maps interior dimension to TARDIS UUID
+    // Maps interior dimension to TARDIS UUID, for dimensions not named after their TARDIS (see TardisDimensionManager.getTardisIdOf)
     private final Map<Identifier, UUID> interiorDimensionMap = new ConcurrentHashMap<>();
 
-    public TardisRegistry() {
+    // Interior plots in the shared interiors dimension, and the TARDIS owning each (server thread only)
+    private final TardisPlotAllocator interiorPlots = new TardisPlotAllocator();
+
+    // Shard storage, or null for legacy per-dimension registries that are only read for migration
+    private final TardisRegistryStorage storage;
+
+    // TARDISes whose exterior block went missing; still registered, but not indexed by exterior position
+    private final Set<UUID> quarantined = ConcurrentHashMap.newKeySet();
+
+    // Creations, moves, interior initializations and removals, for subscribers
+    private final TardisChangeStream changes = new TardisChangeStream(CHANGE_BUFFER_SIZE);
+
+    // Shards whose background write failed, handed back from the IO thread
+    private final Queue<Integer> failedShards = new ConcurrentLinkedQueue<>();
+
+    // Lookups bound once, so hot paths hand them to TardisStore.read without allocating a lambda per call
+    private final Function<UUID, TardisInstance> findById = this::find;
+    private final Function<UUID, TardisRecord> findRecord = this::findRecord;
+    private final BiFunction<Identifier, BlockPos, UUID> findIdByExterior = this::findIdByExterior;
+    private final BiFunction<Identifier, BlockPos, TardisInstance> findByExterior = this::findByExterior;
+    private final Function<Identifier, UUID> findIdByInteriorDimension = this::findIdByInteriorDimension;
+    private final Function<Identifier, TardisInstance> findByInteriorDimension = this::findByInteriorDimension;
+    private final Function<BlockPos, UUID> findIdByInteriorPlot = this::findIdByInteriorPlot;
+    private final Function<BlockPos, TardisInstance> findByInteriorPlot = this::findByInteriorPlot;
+
+    public TardisRegistry(TardisRegistryStorage storage) {
         super();
+        this.storage = storage;
+    }
+
+    /**
+     * Resolve the registry when the server starts, and flush and drop it when the server stops
+     */
+    public static void registerLifecycleEvents() {
+        ServerLifecycleEvents.SERVER_STARTED.register(server -> get(server));
+        ServerTickEvents.END_SERVER_TICK.register(server -> {
+            TardisRegistry registry = instance;
+            if (registry != null) {
+                registry.changes.dispatch();
+            }
+        });
+        ServerLifecycleEvents.SERVER_STOPPED.register(server -> {
+            TardisRegistry registry = instance;
+            if (registry != null) {
+                registry.changes.dispatch();
+                registry.changes.closeAll();
+                registry.flush();
+            }
+            instance = null;
+        });
     }
 
     /**
-     * Get the TARDIS registry for a world
+     * Get the server-wide TARDIS registry. The world is only used to reach its server.
      */
     public static TardisRegistry get(ServerWorld world) {
-        PersistentStateManager persistentStateManager = world.getPersistentStateManager();
-        return persistentStateManager.getOrCreate(
-            TardisRegistry::createFromNbt,
-            TardisRegistry::new,
+        return get(world.getServer());
+    }
+
+    /**
+     * Get the server-wide TARDIS registry
+     */
+    public static TardisRegistry get(MinecraftServer server) {
+        TardisRegistry registry = instance;
+        if (registry == null) {
+            // Only reached before SERVER_STARTED (e.g. while spawn chunks load) or on the first call after it
+            synchronized (TardisRegistry.class) {
+                registry = instance;
+                if (registry == null) {
+                    registry = load(server);
+                    instance = registry;
+                }
+            }
+        }
+        return registry;
+    }
+
+    private static TardisRegistry load(MinecraftServer server) {
+        TardisRegistryStorage storage = new TardisRegistryStorage(
+            server.getSavePath(WorldSavePath.ROOT).resolve("data").resolve(DATA_NAME));
+        PersistentStateManager persistentStateManager = server.getOverworld().getPersistentStateManager();
+        TardisRegistry registry = persistentStateManager.getOrCreate(
+            nbt -> createFromNbt(nbt, storage),
+            () -> createFromNbt(new NbtCompound(), storage),
             DATA_NAME
         );
+        migrateLegacyRegistries(server, registry);
+        return registry;
+    }
+
+    /**
+     * Older versions kept a separate registry in every dimension's data folder.
+     * Fold those into the server-wide registry and leave the old files empty.
+     */
+    private static void migrateLegacyRegistries(MinecraftServer server, TardisRegistry registry) {
+        for (ServerWorld world : server.getWorlds()) {
+            if (world.getRegistryKey() == World.OVERWORLD) {
+                continue;
+            }
+
+            TardisRegistry legacy = world.getPersistentStateManager().get(nbt -> createFromNbt(nbt, null), DATA_NAME);
+            if (legacy == null || legacy.size() == 0) {
+                continue;
+            }
+
+            int migrated = 0;
+            for (TardisInstance tardis : legacy.getAllTardises()) {
+                if (registry.find(tardis.getTardisId()) == null) {
+                    registry.registerTardis(tardis);
+                    migrated++;
+                }
+            }
+            legacy.clear();
+            legacy.markDirty();
+
+            Tatm.LOGGER.info("Migrated {} TARDIS entries from the {} registry", migrated, world.getRegistryKey().getValue());
+        }
     }
 
     /**
@@ -49,149 +188,767 @@ public class TardisRegistry extends PersistentState {
      */
     public TardisInstance createTardis(BlockPos exteriorPos, Identifier exteriorDimension) {
         UUID tardisId = UUID.randomUUID();
-        TardisInstance tardis = new TardisInstance(tardisId, exteriorPos, exteriorDimension);
-        
-        tardisInstances.put(tardisId, tardis);
-        updateExteriorLocationMap(tardis);
+        TardisInstance tardis;
+        long stamp = store.lock().writeLock();
+        try {
+            int slot = store.add(tardisId);
+            store.setExteriorLocation(slot, exteriorPos, exteriorDimension);
+            tardis = new TardisInstance(store, slot, tardisId);
+            updateExteriorLocationMap(tardis);
+        } finally {
+            store.lock().unlockWrite(stamp);
+        }
         
-        markDirty();
+        changes.publish(TardisChangeStream.Kind.CREATED, tardisId, exteriorPos, exteriorDimension, null, null);
+        markShardDirty(tardisId);
+        TatmMetrics.CREATES.increment();
         return tardis;
     }
 
     /**
-     * Register an existing TARDIS instance
+     * Register an existing TARDIS instance. Its state is copied into the registry,
+     * and the instance becomes a view of the registered TARDIS.
      */
     public void registerTardis(TardisInstance tardis) {
-        tardisInstances.put(tardis.getTardisId(), tardis);
-        updateExteriorLocationMap(tardis);
-        if (tardis.getInteriorDimension() != null) {
-            interiorDimensionMap.put(tardis.getInteriorDimension(), tardis.getTardisId());
+        TardisRecord record = tardis.snapshot();
+        long stamp = store.lock().writeLock();
+        try {
+            int slot = store.add(record);
+            store.markDirty(slot);
+            tardis.bind(store, slot);
+            indexTardis(tardis);
+        } finally {
+            store.lock().unlockWrite(stamp);
         }
-        markDirty();
+        markShardDirty(tardis.getTardisId());
     }
 
     /**
      * Remove a TARDIS from the registry
      */
     public void removeTardis(UUID tardisId) {
-        TardisInstance tardis = tardisInstances.remove(tardisId);
-        if (tardis != null) {
-            removeFromLocationMaps(tardis);
-            markDirty();
+        BlockPos lastPos;
+        Identifier lastDimension;
+        long stamp = store.lock().writeLock();
+        try {
+            int slot = store.slotOf(tardisId);
+            if (slot < 0) {
+                return;
+            }
+            quarantined.remove(tardisId);
+            lastPos = store.getExteriorPos(slot);
+            lastDimension = store.getExteriorDimension(slot);
+            removeFromLocationMaps(new TardisInstance(store, slot, tardisId));
+            store.remove(slot);
+        } finally {
+            store.lock().unlockWrite(stamp);
         }
+        changes.publish(TardisChangeStream.Kind.REMOVED, tardisId, null, null, lastPos, lastDimension);
+        markShardDirty(tardisId);
+        TatmMetrics.REMOVES.increment();
     }
 
     /**
      * Get a TARDIS by its UUID
      */
     public TardisInstance getTardis(UUID tardisId) {
-        return tardisInstances.get(tardisId);
+        TatmMetrics.LOOKUPS_BY_ID.increment();
+        return countMiss(store.read(tardisId, findById));
+    }
+
+    /**
+     * Get a consistent snapshot of a TARDIS, or null. Safe to call from any thread.
+     */
+    public TardisRecord getRecord(UUID tardisId) {
+        TatmMetrics.LOOKUPS_BY_ID.increment();
+        TardisRecord record = store.read(tardisId, findRecord);
+        if (record == null) {
+            TatmMetrics.LOOKUP_MISSES.increment();
+        }
+        return record;
+    }
+
+    /**
+     * Subscribe to TARDIS creations, moves, quarantines, interior changes and removals.
+     * Batches arrive on the executor, at most one tick after the change; a subscriber
+     * that falls too far behind loses the oldest events (see {@link TardisChangeStream.Batch#dropped}).
+     * Subscriptions end when the server stops.
+     */
+    public TardisChangeStream.Subscription subscribe(Executor executor, TardisChangeStream.Listener listener) {
+        return changes.subscribe(executor, listener);
+    }
+
+    /**
+     * Look up a TARDIS without counting it as a registry lookup or taking the lock;
+     * callers are either writers holding the write lock or inside {@link TardisStore#read}
+     */
+    private TardisInstance find(UUID tardisId) {
+        int slot = store.slotOf(tardisId);
+        return slot >= 0 ? new TardisInstance(store, slot, tardisId) : null;
+    }
+
+    private TardisRecord findRecord(UUID tardisId) {
+        int slot = store.slotOf(tardisId);
+        return slot >= 0 ? store.snapshot(slot) : null;
     }
 
     /**
      * Get a TARDIS by its exterior location
      */
     public TardisInstance getTardisByExteriorLocation(BlockPos pos, Identifier dimension) {
-        String locationKey = createLocationKey(pos, dimension);
-        UUID tardisId = exteriorLocationMap.get(locationKey);
-        return tardisId != null ? tardisInstances.get(tardisId) : null;
+        TatmMetrics.LOOKUPS_BY_EXTERIOR.increment();
+        return countMiss(store.read(dimension, pos, findByExterior));
+    }
+
+    /**
+     * Get the UUID of the TARDIS at an exterior location, or null, without creating a view
+     */
+    public UUID getTardisIdByExteriorLocation(BlockPos pos, Identifier dimension) {
+        TatmMetrics.LOOKUPS_BY_EXTERIOR.increment();
+        return countMiss(store.read(dimension, pos, findIdByExterior));
+    }
+
+    private UUID findIdByExterior(Identifier dimension, BlockPos pos) {
+        TardisExteriorIndex positions = exteriorLocationMap.get(dimension);
+        return positions != null ? positions.get(pos.asLong()) : null;
+    }
+
+    private TardisInstance findByExterior(Identifier dimension, BlockPos pos) {
+        UUID tardisId = findIdByExterior(dimension, pos);
+        return tardisId != null ? find(tardisId) : null;
+    }
+
+    /**
+     * Find the TARDISes with an exterior within a radius (in blocks) of a position
+     */
+    public List<TardisInstance> findWithinRadius(Identifier dimension, BlockPos center, int radius) {
+        TatmMetrics.LOOKUPS_SPATIAL.increment();
+        return store.read(() -> {
+            List<TardisInstance> found = new ArrayList<>();
+            TardisExteriorIndex positions = exteriorLocationMap.get(dimension);
+            if (positions != null) {
+                positions.forEachWithinRadius(center, radius, (pos, tardisId) -> addIfPresent(found, tardisId));
+            }
+            return found;
+        });
+    }
+
+    /**
+     * Find the TARDISes with an exterior in a chunk
+     */
+    public List<TardisInstance> findInChunk(Identifier dimension, ChunkPos chunk) {
+        TatmMetrics.LOOKUPS_SPATIAL.increment();
+        return store.read(() -> {
+            List<TardisInstance> found = new ArrayList<>();
+            TardisExteriorIndex positions = exteriorLocationMap.get(dimension);
+            if (positions != null) {
+                positions.forEachInChunk(chunk.x, chunk.z, (pos, tardisId) -> addIfPresent(found, tardisId));
+            }
+            return found;
+        });
+    }
+
+    /**
+     * Find the TARDIS with the exterior closest to a position, within a radius (in blocks), or null
+     */
+    public TardisInstance nearest(Identifier dimension, BlockPos pos, int maxRadius) {
+        TatmMetrics.LOOKUPS_SPATIAL.increment();
+        return countMiss(store.read(() -> {
+            TardisExteriorIndex positions = exteriorLocationMap.get(dimension);
+            long nearest = positions != null ? positions.nearest(pos, maxRadius) : Long.MAX_VALUE;
+            return nearest != Long.MAX_VALUE ? find(positions.get(nearest)) : null;
+        }));
+    }
+
+    /**
+     * Dimensions that have (or had) TARDIS exteriors
+     */
+    public Set<Identifier> getExteriorDimensions() {
+        return Collections.unmodifiableSet(exteriorLocationMap.keySet());
+    }
+
+    /**
+     * Get the exterior index of a dimension, or null if no TARDIS has ever stood there.
+     * The index is not safe to read from other threads; use the registry's queries there.
+     */
+    public TardisExteriorIndex getExteriorIndex(Identifier dimension) {
+        return exteriorLocationMap.get(dimension);
     }
 
     /**
      * Get a TARDIS by its interior dimension
      */
     public TardisInstance getTardisByInteriorDimension(Identifier dimension) {
+        TatmMetrics.LOOKUPS_BY_INTERIOR.increment();
+        return countMiss(store.read(dimension, findByInteriorDimension));
+    }
+
+    /**
+     * Get the UUID of the TARDIS an interior dimension belongs to, or null, without creating a view
+     */
+    public UUID getTardisIdByInteriorDimension(Identifier dimension) {
+        TatmMetrics.LOOKUPS_BY_INTERIOR.increment();
+        return countMiss(store.read(dimension, findIdByInteriorDimension));
+    }
+
+    /**
+     * Slot of the TARDIS a dimension is named after, if its interior is still there; -1 otherwise
+     */
+    private int ownerSlotOf(Identifier dimension) {
+        if (!TardisDimensionManager.isTardisDimension(dimension)) {
+            return -1;
+        }
+        int slot = store.slotOf(TardisDimensionManager.getTardisIdMost(dimension), TardisDimensionManager.getTardisIdLeast(dimension));
+        return slot >= 0 && store.hasOwnInteriorDimension(slot) ? slot : -1;
+    }
+
+    private UUID findIdByInteriorDimension(Identifier dimension) {
+        int slot = ownerSlotOf(dimension);
+        return slot >= 0 ? store.getTardisId(slot) : interiorDimensionMap.get(dimension);
+    }
+
+    private TardisInstance findByInteriorDimension(Identifier dimension) {
+        int slot = ownerSlotOf(dimension);
+        if (slot >= 0) {
+            return new TardisInstance(store, slot, store.getTardisId(slot));
+        }
         UUID tardisId = interiorDimensionMap.get(dimension);
-        return tardisId != null ? tardisInstances.get(tardisId) : null;
+        return tardisId != null ? find(tardisId) : null;
     }
 
     /**
-     * Get all TARDIS instances
+     * Get the TARDIS whose interior plot in the shared interiors dimension contains a position
+     */
+    public TardisInstance getTardisByInteriorPlot(BlockPos pos) {
+        TatmMetrics.LOOKUPS_BY_INTERIOR.increment();
+        return countMiss(store.read(pos, findByInteriorPlot));
+    }
+
+    /**
+     * Get the UUID of the TARDIS whose interior plot contains a position, or null, without creating a view
+     */
+    public UUID getTardisIdByInteriorPlot(BlockPos pos) {
+        TatmMetrics.LOOKUPS_BY_INTERIOR.increment();
+        return countMiss(store.read(pos, findIdByInteriorPlot));
+    }
+
+    private UUID findIdByInteriorPlot(BlockPos pos) {
+        int plot = TardisPlotAllocator.plotOf(pos);
+        return plot >= 0 ? interiorPlots.getOwner(plot) : null;
+    }
+
+    private TardisInstance findByInteriorPlot(BlockPos pos) {
+        UUID tardisId = findIdByInteriorPlot(pos);
+        return tardisId != null ? find(tardisId) : null;
+    }
+
+    /**
+     * Reserve an interior plot in the shared interiors dimension and return its spawn position
+     */
+    public BlockPos allocateInteriorPlot(UUID tardisId) {
+        long stamp = store.lock().writeLock();
+        try {
+            return TardisPlotAllocator.spawnPosOf(interiorPlots.allocate(tardisId));
+        } finally {
+            store.lock().unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Get the plot of a removed TARDIS that is waiting to be cleared, or -1 (server thread only)
+     */
+    public int getUnclearedPlot() {
+        return interiorPlots.getUnclearedPlot();
+    }
+
+    /**
+     * Let a cleared plot be handed out again
+     */
+    public void markPlotCleared(int plot) {
+        long stamp = store.lock().writeLock();
+        try {
+            interiorPlots.markCleared(plot);
+        } finally {
+            store.lock().unlockWrite(stamp);
+        }
+        markDirty();
+    }
+
+    /**
+     * Get all TARDIS instances. This creates a view for every TARDIS, so keep it off hot paths.
      */
     public Collection<TardisInstance> getAllTardises() {
-        return Collections.unmodifiableCollection(tardisInstances.values());
+        return store.read(() -> {
+            List<TardisInstance> all = new ArrayList<>(store.size());
+            for (int slot = 0; slot < store.getSlotCount(); slot++) {
+                if (store.isLive(slot)) {
+                    all.add(new TardisInstance(store, slot, store.getTardisId(slot)));
+                }
+            }
+            return Collections.unmodifiableList(all);
+        });
+    }
+
+    /**
+     * Estimated heap held by the TARDIS state, excluding the lookup maps
+     */
+    public long getStoreBytes() {
+        return store.getRetainedBytes();
     }
 
     /**
      * Update the exterior location of a TARDIS (when it moves)
      */
     public void updateTardisExteriorLocation(UUID tardisId, BlockPos newPos, Identifier newDimension) {
-        TardisInstance tardis = tardisInstances.get(tardisId);
-        if (tardis != null) {
-            // Remove old location mapping
-            removeFromExteriorLocationMap(tardis);
-            
-            // Update TARDIS location
-            tardis.setExteriorLocation(newPos, newDimension);
-            
-            // Add new location mapping
-            updateExteriorLocationMap(tardis);
-            
-            markDirty();
+        BlockPos oldPos;
+        Identifier oldDimension;
+        long stamp = store.lock().writeLock();
+        try {
+            int slot = store.slotOf(tardisId);
+            if (slot < 0) {
+                return;
+            }
+            oldPos = store.getExteriorPos(slot);
+            oldDimension = store.getExteriorDimension(slot);
+            moveExterior(slot, tardisId, newPos, newDimension);
+        } finally {
+            store.lock().unlockWrite(stamp);
         }
+        changes.publish(TardisChangeStream.Kind.MOVED, tardisId, newPos, newDimension, oldPos, oldDimension);
+        markShardDirty(tardisId);
+    }
+
+    /**
+     * Move an exterior and its index entry; the caller holds the write lock
+     */
+    private void moveExterior(int slot, UUID tardisId, BlockPos newPos, Identifier newDimension) {
+        TardisInstance tardis = new TardisInstance(store, slot, tardisId);
+
+        // Remove old location mapping
+        removeFromExteriorLocationMap(tardis);
+
+        // Update TARDIS location
+        store.setExteriorLocation(slot, newPos, newDimension);
+
+        // Add new location mapping
+        updateExteriorLocationMap(tardis);
     }
 
     /**
      * Initialize the interior of a TARDIS
      */
     public void initializeTardisInterior(UUID tardisId, BlockPos interiorPos, Identifier interiorDimension) {
-        TardisInstance tardis = tardisInstances.get(tardisId);
+        InteriorInitEvent event = new InteriorInitEvent();
+        event.begin();
+
+        boolean found;
+        long stamp = store.lock().writeLock();
+        try {
+            int slot = store.slotOf(tardisId);
+            found = slot >= 0;
+            if (found) {
+                store.initializeInterior(slot, interiorPos, interiorDimension);
+                indexInterior(tardisId, interiorPos.asLong(), interiorDimension);
+            }
+        } finally {
+            store.lock().unlockWrite(stamp);
+        }
+        if (found) {
+            changes.publish(TardisChangeStream.Kind.INTERIOR_INITIALIZED, tardisId, interiorPos, interiorDimension, null, null);
+            markShardDirty(tardisId);
+        }
+
+        if (event.shouldCommit()) {
+            event.tardisId = tardisId.toString();
+            event.dimension = interiorDimension.toString();
+            event.shared = interiorDimension.equals(TardisDimensionManager.SHARED_INTERIOR_DIMENSION);
+            event.commit();
+        }
+    }
+
+    /**
+     * Mark the interior of a TARDIS as built, allowing players to enter it
+     */
+    public void markInteriorBuilt(UUID tardisId) {
+        long stamp = store.lock().writeLock();
+        try {
+            int slot = store.slotOf(tardisId);
+            if (slot < 0) {
+                return;
+            }
+            store.setInteriorBuilt(slot, true);
+        } finally {
+            store.lock().unlockWrite(stamp);
+        }
+        changes.publish(TardisChangeStream.Kind.INTERIOR_BUILT, tardisId, null, null, null, null);
+        markShardDirty(tardisId);
+    }
+
+    /**
+     * Record whether the interior of a TARDIS is packed away by TardisArchive
+     */
+    public void setArchived(UUID tardisId, boolean archived) {
+        long stamp = store.lock().writeLock();
+        try {
+            int slot = store.slotOf(tardisId);
+            if (slot < 0) {
+                return;
+            }
+            store.setArchived(slot, archived);
+        } finally {
+            store.lock().unlockWrite(stamp);
+        }
+        markShardDirty(tardisId);
+    }
+
+    /**
+     * Detach a TARDIS from its exterior position because its exterior block is gone.
+     * It stays registered, so it can be restored if its block turns up somewhere else.
+     */
+    public void quarantineTardis(UUID tardisId) {
+        BlockPos oldPos;
+        Identifier oldDimension;
+        long stamp = store.lock().writeLock();
+        try {
+            TardisInstance tardis = find(tardisId);
+            if (tardis == null || !quarantined.add(tardisId)) {
+                return;
+            }
+            oldPos = tardis.getExteriorPos();
+            oldDimension = tardis.getExteriorDimension();
+            removeFromExteriorLocationMap(tardis);
+        } finally {
+            store.lock().unlockWrite(stamp);
+        }
+        changes.publish(TardisChangeStream.Kind.MOVED, tardisId, null, null, oldPos, oldDimension);
+    }
+
+    /**
+     * Attach a quarantined or misplaced TARDIS to the exterior block now holding its UUID
+     */
+    public void restoreTardis(UUID tardisId, BlockPos exteriorPos, Identifier exteriorDimension) {
+        BlockPos oldPos;
+        Identifier oldDimension;
+        long stamp = store.lock().writeLock();
+        try {
+            quarantined.remove(tardisId);
+            int slot = store.slotOf(tardisId);
+            if (slot < 0) {
+                return;
+            }
+            oldPos = store.getExteriorPos(slot);
+            oldDimension = store.getExteriorDimension(slot);
+            moveExterior(slot, tardisId, exteriorPos, exteriorDimension);
+        } finally {
+            store.lock().unlockWrite(stamp);
+        }
+        changes.publish(TardisChangeStream.Kind.MOVED, tardisId, exteriorPos, exteriorDimension, oldPos, oldDimension);
+        markShardDirty(tardisId);
+    }
+
+    public boolean isQuarantined(UUID tardisId) {
+        return quarantined.contains(tardisId);
+    }
+
+    public int getQuarantinedCount() {
+        return quarantined.size();
+    }
+
+    /**
+     * Record that an entity is entering a TARDIS
+     */
+    public void markEntered(UUID tardisId) {
+        long stamp = store.lock().writeLock();
+        try {
+            int slot = store.slotOf(tardisId);
+            if (slot < 0) {
+                return;
+            }
+            store.setLastEnteredTime(slot, System.currentTimeMillis());
+        } finally {
+            store.lock().unlockWrite(stamp);
+        }
+        markShardDirty(tardisId);
+    }
+
+    /**
+     * Number of TARDISes in the registry
+     */
+    public int size() {
+        return store.size();
+    }
+
+    // Helper methods
+    private void addIfPresent(List<TardisInstance> found, UUID tardisId) {
+        TardisInstance tardis = find(tardisId);
         if (tardis != null) {
-            tardis.initializeInterior(interiorPos, interiorDimension);
+            found.add(tardis);
+        }
+    }
+
+    private static <T> T countMiss(T found) {
+        if (found == null) {
+            TatmMetrics.LOOKUP_MISSES.increment();
+        }
+        return found;
+    }
+
+    private void clear() {
+        long stamp = store.lock().writeLock();
+        try {
+            store.clear();
+            exteriorLocationMap.clear();
+            interiorDimensionMap.clear();
+            interiorPlots.clear();
+            quarantined.clear();
+        } finally {
+            store.lock().unlockWrite(stamp);
+        }
+    }
+
+    private void indexTardis(TardisInstance tardis) {
+        updateExteriorLocationMap(tardis);
+        if (tardis.getInteriorPos() != null && tardis.getInteriorDimension() != null) {
+            indexInterior(tardis.getTardisId(), tardis.getInteriorPos().asLong(), tardis.getInteriorDimension());
+        }
+    }
+
+    /**
+     * Add a TARDIS from its stored record and index it, without creating an instance
+     */
+    private void indexRecord(TardisRecord record) {
+        store.add(record);
+        if (record.exteriorPos() != null && record.exteriorDimension() != null) {
+            exteriorLocationMap
+                .computeIfAbsent(record.exteriorDimension(), dimension -> new TardisExteriorIndex())
+                .put(record.exteriorPos().asLong(), record.tardisId());
+        }
+        if (record.interiorPos() != null && record.interiorDimension() != null) {
+            indexInterior(record.tardisId(), record.interiorPos().asLong(), record.interiorDimension());
+        }
+    }
+
+    /**
+     * Interiors in the shared dimension are found by plot; all others by their own dimension
+     */
+    private void indexInterior(UUID tardisId, long interiorPos, Identifier interiorDimension) {
+        if (interiorDimension.equals(TardisDimensionManager.SHARED_INTERIOR_DIMENSION)) {
+            int plot = TardisPlotAllocator.plotOf(BlockPos.fromLong(interiorPos));
+            if (plot >= 0) {
+                interiorPlots.claim(plot, tardisId);
+            }
+        } else if (!TardisDimensionManager.isTardisDimension(interiorDimension)
+            || TardisDimensionManager.getTardisIdMost(interiorDimension) != tardisId.getMostSignificantBits()
+            || TardisDimensionManager.getTardisIdLeast(interiorDimension) != tardisId.getLeastSignificantBits()) {
             interiorDimensionMap.put(interiorDimension, tardisId);
-            markDirty();
         }
     }
 
-    // Helper methods
+    private void markShardDirty(UUID tardisId) {
+        // The store marks the shard of every change; this also covers a view changed after its TARDIS was removed
+        store.markShardDirty(TardisRegistryStorage.shardOf(tardisId));
+        markDirty();
+    }
+
     private void updateExteriorLocationMap(TardisInstance tardis) {
         if (tardis.getExteriorPos() != null && tardis.getExteriorDimension() != null) {
-            String locationKey = createLocationKey(tardis.getExteriorPos(), tardis.getExteriorDimension());
-            exteriorLocationMap.put(locationKey, tardis.getTardisId());
+            exteriorLocationMap
+                .computeIfAbsent(tardis.getExteriorDimension(), dimension -> new TardisExteriorIndex())
+                .put(tardis.getExteriorPos().asLong(), tardis.getTardisId());
         }
     }
 
     private void removeFromExteriorLocationMap(TardisInstance tardis) {
         if (tardis.getExteriorPos() != null && tardis.getExteriorDimension() != null) {
-            String locationKey = createLocationKey(tardis.getExteriorPos(), tardis.getExteriorDimension());
-            exteriorLocationMap.remove(locationKey);
+            TardisExteriorIndex positions = exteriorLocationMap.get(tardis.getExteriorDimension());
+            if (positions != null) {
+                positions.remove(tardis.getExteriorPos().asLong(), tardis.getTardisId());
+            }
         }
     }
 
     private void removeFromLocationMaps(TardisInstance tardis) {
         removeFromExteriorLocationMap(tardis);
-        if (tardis.getInteriorDimension() != null) {
+        if (tardis.getInteriorDimension() == null) {
+            return;
+        }
+
+        if (tardis.getInteriorDimension().equals(TardisDimensionManager.SHARED_INTERIOR_DIMENSION)) {
+            int plot = tardis.getInteriorPos() != null ? TardisPlotAllocator.plotOf(tardis.getInteriorPos()) : -1;
+            if (plot >= 0) {
+                interiorPlots.release(plot, tardis.getTardisId());
+            }
+        } else {
             interiorDimensionMap.remove(tardis.getInteriorDimension());
         }
     }
 
-    private String createLocationKey(BlockPos pos, Identifier dimension) {
-        return dimension.toString() + ":" + pos.getX() + "," + pos.getY() + "," + pos.getZ();
+    // Persistence methods
+
+    /**
+     * Snapshot dirty shards on the server thread and hand encoding
+     * and the file writes to the registry IO thread.
+     */
+    @Override
+    public void save(File file) {
+        if (storage == null) {
+            super.save(file);
+            return;
+        }
+
+        // Retry shards whose previous background write failed
+        Integer failed;
+        while ((failed = failedShards.poll()) != null) {
+            store.markShardDirty(failed);
+        }
+        if (!isDirty() && !store.hasDirtyShards()) {
+            return;
+        }
+
+        RegistrySaveEvent snapshotEvent = new RegistrySaveEvent();
+        snapshotEvent.begin();
+        List<ShardSnapshot> snapshot = snapshotDirtyShards();
+        NbtCompound manifest = new NbtCompound();
+        manifest.put("data", writeNbt(new NbtCompound()));
+        NbtHelper.putDataVersion(manifest);
+        setDirty(false);
+        if (snapshotEvent.shouldCommit()) {
+            snapshotEvent.shards = snapshot.size();
+            snapshotEvent.entityCount = countEntities(snapshot);
+            snapshotEvent.commit();
+        }
+
+        storage.submit(() -> {
+            RegistrySaveEvent writeEvent = new RegistrySaveEvent();
+            writeEvent.begin();
+            long start = System.nanoTime();
+            long bytes = 0;
+            int failedCount = 0;
+            int retriedCount = 0;
+            for (ShardSnapshot shard : snapshot) {
+                try {
+                    bytes += storage.writeShard(shard.shard(), shard.records());
+                    TatmMetrics.SAVED_SHARDS.increment();
+                } catch (IOException e) {
+                    Tatm.LOGGER.error("Failed to save TARDIS registry shard {}", shard.shard(), e);
+                    if (!storage.isWriteRefused(shard.shard())) {
+                        // A shard whose unreadable file is still in place would fail again; it is never retried
+                        failedShards.add(shard.shard());
+                        retriedCount++;
+                    }
+                    failedCount++;
+                }
+            }
+            TatmMetrics.SAVED_BYTES.add(bytes);
+
+            // Written last, and only once every shard that can be written is on disk, so a failed or
+            // interrupted save never drops a format 1 list before its shards exist; the retried shards
+            // rewrite it. Shards that are never written do not hold it back, or the next interior plot
+            // would stop being saved.
+            if (retriedCount == 0) {
+                try {
+                    TardisRegistryStorage.writeAtomically(manifest, file.toPath());
+                } catch (IOException e) {
+                    Tatm.LOGGER.error("Failed to save TARDIS registry manifest", e);
+                }
+            }
+            TatmMetrics.SAVE_TIME.recordSince(start);
+            TatmMetrics.SAVES.increment();
+
+            if (writeEvent.shouldCommit()) {
+                writeEvent.write = true;
+                writeEvent.shards = snapshot.size();
+                writeEvent.entityCount = countEntities(snapshot);
+                writeEvent.bytes = bytes;
+                writeEvent.failedShards = failedCount;
+                writeEvent.commit();
+            }
+        });
+    }
+
+    private static int countEntities(List<ShardSnapshot> snapshot) {
+        int count = 0;
+        for (ShardSnapshot shard : snapshot) {
+            count += shard.records().size();
+        }
+        return count;
+    }
+
+    /**
+     * Contents of a dirty shard at the time of a save
+     */
+    private record ShardSnapshot(int shard, List<TardisRecord> records) {}
+
+    /**
+     * Copy the instances of every dirty shard into immutable records and clear their dirty state.
+     * Changes mark their shard in the store, so only the slots of dirty shards are visited.
+     */
+    private List<ShardSnapshot> snapshotDirtyShards() {
+        List<ShardSnapshot> snapshot = new ArrayList<>();
+        // Runs on the server thread, the only writer; clearing dirty bits changes nothing readers look at
+        for (int shard = store.nextDirtyShard(0); shard >= 0; shard = store.nextDirtyShard(shard + 1)) {
+            List<TardisRecord> records = new ArrayList<>();
+            for (int slot = store.firstInShard(shard); slot >= 0; slot = store.nextInShard(slot)) {
+                records.add(store.snapshot(slot));
+                store.clearDirty(slot);
+            }
+            snapshot.add(new ShardSnapshot(shard, records));
+        }
+        store.clearDirtyShards();
+        return snapshot;
+    }
+
+    /**
+     * Wait for queued background saves to reach disk
+     */
+    public void flush() {
+        if (storage != null) {
+            storage.close();
+        }
     }
 
-    // Persistence methods
     @Override
     public NbtCompound writeNbt(NbtCompound nbt) {
-        NbtList tardisesList = new NbtList();
-        
-        for (TardisInstance tardis : tardisInstances.values()) {
-            tardisesList.add(tardis.toNbt());
-        }
-        
-        nbt.put("tardises", tardisesList);
+        nbt.putInt("format_version", FORMAT_VERSION);
+        nbt.putInt("shard_count", TardisRegistryStorage.SHARD_COUNT);
+        interiorPlots.writeNbt(nbt);
         return nbt;
     }
 
-    public static TardisRegistry createFromNbt(NbtCompound nbt) {
-        TardisRegistry registry = new TardisRegistry();
-        
-        NbtList tardisesList = nbt.getList("tardises", 10); // 10 = NBT compound type
+    public static TardisRegistry createFromNbt(NbtCompound nbt, TardisRegistryStorage storage) {
+        RegistryLoadEvent event = new RegistryLoadEvent();
+        event.begin();
+        TardisRegistry registry = new TardisRegistry(storage);
+        registry.interiorPlots.readNbt(nbt);
+        int shards = 0;
+
+        if (storage != null) {
+            // Records go straight into the store; instances are only created as views on lookup
+            for (TardisRegistryStorage.Shard shard : storage.loadShards()) {
+                if (shard != null) {
+                    shards++;
+                    for (TardisRecord record : shard.records()) {
+                        registry.indexRecord(record);
+                    }
+                }
+            }
+        }
+
+        // Format 1 kept every instance in a single list inside the vanilla data file.
+        // Registering them marks their shards dirty, so the next save moves them into shards.
+        NbtList tardisesList = nbt.getList("tardises", NbtElement.COMPOUND_TYPE);
         for (int i = 0; i < tardisesList.size(); i++) {
             NbtCompound tardisNbt = tardisesList.getCompound(i);
             TardisInstance tardis = TardisInstance.fromNbt(tardisNbt);
             registry.registerTardis(tardis);
         }
-        
+
+        if (event.shouldCommit()) {
+            event.shards = shards;
+            event.entityCount = registry.size();
+            event.migrated = tardisesList.size();
+            event.commit();
+        }
         return registry;
     }
-}
\ No newline at end of file
+}
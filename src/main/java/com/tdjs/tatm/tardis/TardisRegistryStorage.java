@@ -0,0 +1,373 @@
+package com.tdjs.tatm.tardis;
+
+import com.tdjs.tatm.Tatm;
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.nbt.NbtIo;
+import net.minecraft.util.Identifier;
+import net.minecraft.util.math.BlockPos;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * On-disk layout of the TARDIS registry.
+ * Instances are bucketed into shards by the first byte of their UUID, so a save only
+ * has to rewrite the shards that contain changed instances. Each shard is a single
+ * file ({@code xx.idx}) holding a table of the dimension identifiers used in it,
+ * followed by one fixed-width binary record per TARDIS that refers to dimensions by
+ * their index in that table. A TARDIS's own interior dimension is derived from its UUID,
+ * so it never enters the table. Records are {@value #RECORD_BYTES} bytes, and a whole
+ * shard is read with one bulk read and decoded without any per-field lookups.
+ * Writes run on a single background thread, in submission order, and replace the
+ * shard file atomically. A shard that fails to load is moved aside as {@code .corrupt},
+ * to be recovered by hand, and is then written again as usual with the TARDISes created
+ * in it since. If the file cannot be moved aside, the shard is not written until the server
+ * restarts, so a save cannot replace what could not be read.
+ */
+public class TardisRegistryStorage {
+    public static final int SHARD_COUNT = 256;
+    private static final int INDEX_VERSION = 1;
+    // UUID, flags, exterior and interior position, two dimension indices and the last entry time
+    public static final int RECORD_BYTES = 16 + 1 + 8 + 8 + 2 + 2 + 8;
+
+    private static final int FLAG_INITIALIZED = 1;
+    private static final int FLAG_INTERIOR_BUILT = 1 << 1;
+    private static final int FLAG_HAS_EXTERIOR_POS = 1 << 2;
+    private static final int FLAG_HAS_INTERIOR_POS = 1 << 3;
+    private static final int FLAG_ARCHIVED = 1 << 4;
+
+    // Dimension indices that do not refer to the table
+    private static final int NO_DIMENSION = -1;
+    // The dimension named after the TARDIS itself (TardisDimensionManager.createTardisDimension), kept out of the table
+    private static final int OWN_DIMENSION = -2;
+
+    private final Path directory;
+    // Shards that could not be read, and those of them whose file could not be moved aside;
+    // set while loading, before any write is queued
+    private final BitSet failedLoads = new BitSet(SHARD_COUNT);
+    private final BitSet refusedWrites = new BitSet(SHARD_COUNT);
+    private final ExecutorService ioExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "TARDIS Registry IO");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * A shard as loaded at startup
+     */
+    public record Shard(int shard, List<TardisRecord> records) {}
+
+    public TardisRegistryStorage(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Get the shard a TARDIS is stored in (the first two hex digits of its UUID)
+     */
+    public static int shardOf(UUID tardisId) {
+        return shardOf(tardisId.getMostSignificantBits());
+    }
+
+    /**
+     * Get the shard of a TARDIS from the most significant half of its UUID
+     */
+    public static int shardOf(long mostSignificantBits) {
+        return (int) (mostSignificantBits >>> 56);
+    }
+
+    /**
+     * Read every shard. Missing shards, and shards that fail to load, are left null.
+     */
+    public Shard[] loadShards() {
+        Shard[] shards = new Shard[SHARD_COUNT];
+        if (!Files.isDirectory(directory)) {
+            return shards;
+        }
+
+        for (int shard = 0; shard < SHARD_COUNT; shard++) {
+            try {
+                shards[shard] = loadShard(shard);
+            } catch (IOException e) {
+                Tatm.LOGGER.error("Failed to load TARDIS registry shard {}", shard, e);
+                setAside(shard, indexPath(shard));
+            }
+        }
+        deleteStaleFiles();
+        return shards;
+    }
+
+    @Nullable
+    private Shard loadShard(int shard) throws IOException {
+        Path indexPath = indexPath(shard);
+        if (!Files.exists(indexPath)) {
+            return null;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(indexPath));
+        if (buffer.remaining() < Integer.BYTES) {
+            throw new IOException("Empty TARDIS index");
+        }
+        int version = buffer.getInt();
+        if (version != INDEX_VERSION) {
+            throw new IOException("Unsupported TARDIS index version " + version);
+        }
+        return new Shard(shard, decodeShard(buffer));
+    }
+
+    /**
+     * Encode records into the current shard layout
+     */
+    public static byte[] encodeShard(List<TardisRecord> records) {
+        Map<Identifier, Integer> pool = new HashMap<>();
+        List<String> poolOrder = new ArrayList<>();
+        for (TardisRecord record : records) {
+            for (Identifier dimension : new Identifier[] { record.exteriorDimension(), record.interiorDimension() }) {
+                if (dimension != null && !pool.containsKey(dimension) && !isOwnDimension(record, dimension)) {
+                    pool.put(dimension, poolOrder.size());
+                    poolOrder.add(dimension.toString());
+                }
+            }
+        }
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + poolOrder.size() * 32 + records.size() * RECORD_BYTES);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(INDEX_VERSION);
+            out.writeInt(poolOrder.size());
+            for (String dimension : poolOrder) {
+                out.writeUTF(dimension);
+            }
+            out.writeInt(records.size());
+            for (TardisRecord record : records) {
+                int flags = (record.initialized() ? FLAG_INITIALIZED : 0)
+                    | (record.interiorBuilt() ? FLAG_INTERIOR_BUILT : 0)
+                    | (record.exteriorPos() != null ? FLAG_HAS_EXTERIOR_POS : 0)
+                    | (record.interiorPos() != null ? FLAG_HAS_INTERIOR_POS : 0)
+                    | (record.archived() ? FLAG_ARCHIVED : 0);
+                out.writeLong(record.tardisId().getMostSignificantBits());
+                out.writeLong(record.tardisId().getLeastSignificantBits());
+                out.writeByte(flags);
+                out.writeLong(record.exteriorPos() != null ? record.exteriorPos().asLong() : 0L);
+                out.writeLong(record.interiorPos() != null ? record.interiorPos().asLong() : 0L);
+                out.writeShort(dimensionIndex(record, record.exteriorDimension(), pool));
+                out.writeShort(dimensionIndex(record, record.interiorDimension(), pool));
+                out.writeLong(record.lastEnteredTime());
+            }
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            // Writing to memory cannot fail
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Decode a shard in the current layout, positioned just after its version
+     */
+    public static List<TardisRecord> decodeShard(ByteBuffer buffer) throws IOException {
+        try {
+            Identifier[] pool = new Identifier[buffer.getInt()];
+            for (int i = 0; i < pool.length; i++) {
+                pool[i] = new Identifier(readUtf(buffer));
+            }
+
+            int count = buffer.getInt();
+            if (count < 0 || (long) count * RECORD_BYTES > buffer.remaining()) {
+                throw new IOException("Truncated TARDIS shard: " + count + " records in " + buffer.remaining() + " bytes");
+            }
+            List<TardisRecord> records = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                UUID tardisId = new UUID(buffer.getLong(), buffer.getLong());
+                int flags = buffer.get();
+                long exteriorPos = buffer.getLong();
+                long interiorPos = buffer.getLong();
+                int exteriorDimension = buffer.getShort();
+                int interiorDimension = buffer.getShort();
+                long lastEnteredTime = buffer.getLong();
+                records.add(new TardisRecord(
+                    tardisId,
+                    (flags & FLAG_INITIALIZED) != 0,
+                    (flags & FLAG_INTERIOR_BUILT) != 0,
+                    (flags & FLAG_HAS_EXTERIOR_POS) != 0 ? BlockPos.fromLong(exteriorPos) : null,
+                    dimension(tardisId, exteriorDimension, pool),
+                    (flags & FLAG_HAS_INTERIOR_POS) != 0 ? BlockPos.fromLong(interiorPos) : null,
+                    dimension(tardisId, interiorDimension, pool),
+                    lastEnteredTime,
+                    (flags & FLAG_ARCHIVED) != 0
+                ));
+            }
+            return records;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException("Corrupt TARDIS shard", e);
+        }
+    }
+
+    private static boolean isOwnDimension(TardisRecord record, Identifier dimension) {
+        return dimension.getNamespace().equals("tatm")
+            && dimension.equals(TardisDimensionManager.createTardisDimension(record.tardisId()));
+    }
+
+    private static int dimensionIndex(TardisRecord record, @Nullable Identifier dimension, Map<Identifier, Integer> pool) {
+        if (dimension == null) {
+            return NO_DIMENSION;
+        }
+        return isOwnDimension(record, dimension) ? OWN_DIMENSION : pool.get(dimension);
+    }
+
+    @Nullable
+    private static Identifier dimension(UUID tardisId, int index, Identifier[] pool) {
+        return switch (index) {
+            case NO_DIMENSION -> null;
+            case OWN_DIMENSION -> TardisDimensionManager.createTardisDimension(tardisId);
+            default -> pool[index];
+        };
+    }
+
+    private static String readUtf(ByteBuffer buffer) throws IOException {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        // Dimension identifiers are ASCII, where modified UTF-8 and UTF-8 agree
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Check if a shard could not be read at startup
+     */
+    public boolean hasFailedToLoad(int shard) {
+        return failedLoads.get(shard);
+    }
+
+    /**
+     * Check if a shard failed to load and its file is still in place, so writing it would replace that file
+     */
+    public boolean isWriteRefused(int shard) {
+        return refusedWrites.get(shard);
+    }
+
+    /**
+     * Mark a shard as failed to load and move its unreadable file aside, to be recovered by hand.
+     * Earlier copies moved aside are kept.
+     */
+    private void setAside(int shard, Path path) {
+        failedLoads.set(shard);
+        try {
+            Path target = path.resolveSibling(path.getFileName() + ".corrupt");
+            for (int n = 1; Files.exists(target); n++) {
+                target = path.resolveSibling(path.getFileName() + ".corrupt" + n);
+            }
+            moveAtomically(path, target);
+            Tatm.LOGGER.error("TARDIS registry shard {} could not be read and was moved aside to {}; "
+                + "the TARDISes in it are not loaded", shard, target.getFileName());
+        } catch (IOException e) {
+            refusedWrites.set(shard);
+            Tatm.LOGGER.error("Failed to move unreadable TARDIS registry shard {} aside; it will not be saved", shard, e);
+        }
+    }
+
+    /**
+     * Replace the contents of a shard. Must run on the IO thread.
+     *
+     * @return bytes written
+     * @throws IOException if writing failed, or the shard failed to load and its file could not be moved aside
+     */
+    public long writeShard(int shard, List<TardisRecord> records) throws IOException {
+        if (refusedWrites.get(shard)) {
+            throw new IOException("TARDIS registry shard " + shard + " failed to load and is not written");
+        }
+        Path path = indexPath(shard);
+        if (records.isEmpty()) {
+            Files.deleteIfExists(path);
+            return 0;
+        }
+
+        byte[] bytes = encodeShard(records);
+        Files.createDirectories(directory);
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.write(temp, bytes);
+        moveAtomically(temp, path);
+        return bytes.length;
+    }
+
+    /**
+     * Write a compressed compound to a temporary file and move it over the target
+     */
+    public static void writeAtomically(NbtCompound nbt, Path path) throws IOException {
+        Files.createDirectories(path.getParent());
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        NbtIo.writeCompressed(nbt, temp.toFile());
+        moveAtomically(temp, path);
+    }
+
+    static void moveAtomically(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Queue work on the registry IO thread
+     */
+    public void submit(Runnable task) {
+        ioExecutor.execute(task);
+    }
+
+    /**
+     * Finish all queued writes and stop the IO thread
+     */
+    public void close() {
+        ioExecutor.shutdown();
+        try {
+            if (!ioExecutor.awaitTermination(30, TimeUnit.SECONDS)) {
+                Tatm.LOGGER.warn("Timed out waiting for TARDIS registry writes to finish");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Remove temporary files left by an interrupted save
+     */
+    private void deleteStaleFiles() {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.tmp")) {
+            for (Path file : files) {
+                deleteQuietly(file);
+            }
+        } catch (IOException e) {
+            Tatm.LOGGER.warn("Failed to clean up TARDIS registry directory", e);
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            // Locked; cleaned up at the next load
+        }
+    }
+
+    private Path indexPath(int shard) {
+        return directory.resolve(String.format("%02x.idx", shard));
+    }
+}
@@ -0,0 +1,390 @@
+package com.tdjs.tatm.tardis;
+
+import com.mojang.serialization.Codec;
+import com.tdjs.tatm.Tatm;
+import com.tdjs.tatm.metrics.TatmMetrics;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import it.unimi.dsi.fastutil.longs.LongSets;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
+import net.minecraft.block.Block;
+import net.minecraft.block.BlockState;
+import net.minecraft.block.Blocks;
+import net.minecraft.nbt.NbtByteArray;
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.nbt.NbtElement;
+import net.minecraft.nbt.NbtIo;
+import net.minecraft.nbt.NbtList;
+import net.minecraft.nbt.NbtOps;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.util.Identifier;
+import net.minecraft.util.Util;
+import net.minecraft.util.WorldSavePath;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.chunk.PalettedContainer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Chunk section data shared by TARDIS interiors. Every interior starts as the same template,
+ * so when an interior chunk is saved, each section whose blocks still match a template section
+ * is written as a reference into this store instead of its own block states and light.
+ * A section stops being shared once its blocks change, since it then no longer matches.
+ * References are restored before the chunk is read, so the game only ever sees whole sections.
+ * Entries are keyed by content and kept in one file in the world's data folder. New entries
+ * are written in batches on an IO thread, and a section only becomes a reference once the
+ * file holding its entry is on disk, so it is saved in full until then. If the file cannot
+ * be read, or a chunk refers to an entry it does not hold, nothing is shared or written for
+ * the rest of the session, and a chunk whose references cannot be restored is never saved,
+ * so its missing sections are not written back as air.
+ */
+public class TardisSectionStore {
+    private static final String FILE_NAME = "tatm_shared_sections.dat";
+    // Light arrays vary a little while light settles, so only this many entries are ever added
+    private static final int MAX_ENTRIES = 1024;
+    private static final String[] SHARED_KEYS = { "block_states", "BlockLight", "SkyLight" };
+    private static final String REFERENCE_PREFIX = "tatm_shared_";
+
+    // The codec vanilla uses for section block states, so encoded sections compare equal to saved ones
+    private static final Codec<PalettedContainer<BlockState>> BLOCK_STATE_CODEC = PalettedContainer.createPalettedContainerCodec(
+        Block.STATE_IDS, BlockState.CODEC, PalettedContainer.PaletteProvider.BLOCK_STATE, Blocks.AIR.getDefaultState());
+
+    private static volatile TardisSectionStore instance;
+    // Chunks read with references that could not be restored, by dimension; never saved
+    private static final Map<Identifier, LongSet> unsaveableChunks = new ConcurrentHashMap<>();
+
+    private final Path file;
+    // Entries in the file on disk, which chunks may reference
+    private final Long2ObjectMap<NbtElement> entries = new Long2ObjectOpenHashMap<>();
+    // Entries added since, waiting for the next write
+    private final Long2ObjectMap<NbtElement> pending = new Long2ObjectOpenHashMap<>();
+    // Encoded block states of each template section as built into an empty section; filled once the template is compiled
+    private final Set<NbtElement> templateSections = new HashSet<>();
+    private boolean full;
+    // The file could not be read or lacks entries chunks reference, so writing it could lose or misplace them
+    private volatile boolean failed;
+    // The running write, or null
+    private CompletableFuture<Void> write;
+
+    private TardisSectionStore(Path file) {
+        this.file = file;
+    }
+
+    public static void register() {
+        ServerLifecycleEvents.SERVER_STOPPED.register(server -> {
+            TardisSectionStore store = instance;
+            if (store != null) {
+                // Entries added by the final save are kept for the next one
+                store.awaitWrite();
+            }
+            instance = null;
+            unsaveableChunks.clear();
+        });
+    }
+
+    /**
+     * Replace the sections of a chunk about to be saved that still match the template with references
+     */
+    public static void share(ServerWorld world, NbtCompound chunk) {
+        if (!isInterior(world.getRegistryKey().getValue())) {
+            return;
+        }
+        TardisSectionStore store = get(world.getServer());
+        if (store.failed) {
+            return;
+        }
+        long start = System.nanoTime();
+        Set<NbtElement> templateSections = store.getTemplateSections();
+
+        NbtList sections = chunk.getList("sections", NbtElement.COMPOUND_TYPE);
+        for (int i = 0; i < sections.size(); i++) {
+            NbtCompound section = sections.getCompound(i);
+            NbtElement blockStates = section.get("block_states");
+            if (blockStates == null || !templateSections.contains(blockStates)) {
+                if (blockStates != null) {
+                    TatmMetrics.SECTIONS_DIVERGED.increment();
+                }
+                continue;
+            }
+
+            for (String key : SHARED_KEYS) {
+                NbtElement element = section.get(key);
+                long id = element != null ? store.intern(element) : 0;
+                if (id != 0) {
+                    section.remove(key);
+                    section.putLong(REFERENCE_PREFIX + key, id);
+                    TatmMetrics.SECTION_BYTES_SHARED.add(estimateBytes(element));
+                }
+            }
+            TatmMetrics.SECTIONS_SHARED.increment();
+        }
+        TatmMetrics.SECTION_SHARE_TIME.recordSince(start);
+    }
+
+    /**
+     * Put the shared data back into a chunk that was just read, before the game decodes it
+     */
+    public static void restore(ServerWorld world, ChunkPos pos, NbtCompound chunk) {
+        if (!isInterior(world.getRegistryKey().getValue())) {
+            return;
+        }
+
+        NbtList sections = chunk.getList("sections", NbtElement.COMPOUND_TYPE);
+        TardisSectionStore store = null;
+        for (int i = 0; i < sections.size(); i++) {
+            NbtCompound section = sections.getCompound(i);
+            for (String key : SHARED_KEYS) {
+                if (!section.contains(REFERENCE_PREFIX + key, NbtElement.LONG_TYPE)) {
+                    continue;
+                }
+                if (store == null) {
+                    store = get(world.getServer());
+                }
+
+                long id = section.getLong(REFERENCE_PREFIX + key);
+                NbtElement element = store.lookup(id);
+                if (element != null) {
+                    section.put(key, element.copy());
+                    section.remove(REFERENCE_PREFIX + key);
+                } else {
+                    // The section loads without it (air, or unlit); the reference stays on disk only if the chunk is never saved
+                    store.fail();
+                    unsaveableChunks.computeIfAbsent(world.getRegistryKey().getValue(), dimension -> LongSets.synchronize(new LongOpenHashSet()))
+                        .add(pos.toLong());
+                    Tatm.LOGGER.error("Missing shared section data {} for section {} of {} in {}; the chunk will not be saved",
+                        Long.toHexString(id), section.getByte("Y"), pos, world.getRegistryKey().getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Check if a chunk was read with sections that could not be restored, so saving it would write them as air
+     */
+    public static boolean isUnsaveable(ServerWorld world, ChunkPos pos) {
+        if (unsaveableChunks.isEmpty()) {
+            return false;
+        }
+        LongSet chunks = unsaveableChunks.get(world.getRegistryKey().getValue());
+        return chunks != null && chunks.contains(pos.toLong());
+    }
+
+    private static boolean isInterior(Identifier dimension) {
+        return dimension.equals(TardisDimensionManager.SHARED_INTERIOR_DIMENSION)
+            || TardisDimensionManager.getTardisIdOf(dimension) != null;
+    }
+
+    private static TardisSectionStore get(MinecraftServer server) {
+        TardisSectionStore store = instance;
+        if (store == null) {
+            synchronized (TardisSectionStore.class) {
+                store = instance;
+                if (store == null) {
+                    store = new TardisSectionStore(server.getSavePath(WorldSavePath.ROOT).resolve("data").resolve(FILE_NAME));
+                    store.load();
+                    instance = store;
+                }
+            }
+        }
+        return store;
+    }
+
+    private synchronized Set<NbtElement> getTemplateSections() {
+        InteriorTemplate template = TardisInteriorBuilder.getTemplate();
+        if (templateSections.isEmpty() && template != null) {
+            for (InteriorTemplate.CompiledSection section : template.getSections()) {
+                NbtElement blockStates = encode(section);
+                templateSections.add(blockStates);
+                // Known up front, so later saves can reference them without waiting for a first full save
+                intern(blockStates);
+            }
+        }
+        return templateSections;
+    }
+
+    private synchronized NbtElement lookup(long id) {
+        return entries.get(id);
+    }
+
+    /**
+     * Get the id of an element already on disk, queueing it to be written if it is new.
+     * Returns 0 if it cannot be referenced yet.
+     */
+    private synchronized long intern(NbtElement element) {
+        // Ids are content hashes, probed past collisions; 0 is never used
+        long id = Integer.toUnsignedLong(element.hashCode()) << 8 | element.getType();
+        while (true) {
+            NbtElement existing = entries.get(id);
+            if (existing == null) {
+                existing = pending.get(id);
+            }
+            if (existing == null) {
+                break;
+            }
+            if (existing.equals(element)) {
+                // A pending entry may not reach the disk before the chunk does
+                return entries.containsKey(id) ? id : 0;
+            }
+            id += 1L << 40;
+        }
+
+        if (entries.size() + pending.size() >= MAX_ENTRIES) {
+            if (!full) {
+                full = true;
+                Tatm.LOGGER.warn("{} is full; further interior sections are saved in full", FILE_NAME);
+            }
+            return 0;
+        }
+
+        pending.put(id, element.copy());
+        scheduleWrite();
+        return 0;
+    }
+
+    /**
+     * Start writing the pending entries, unless a write is already running; it starts the next one when it ends
+     */
+    private synchronized void scheduleWrite() {
+        if (write != null || failed || pending.isEmpty()) {
+            return;
+        }
+        write = CompletableFuture.runAsync(this::writePending, Util.getIoWorkerExecutor());
+    }
+
+    /**
+     * Stop sharing and writing, since the file does not hold what chunks refer to
+     */
+    private synchronized void fail() {
+        if (!failed) {
+            failed = true;
+            pending.clear();
+            Tatm.LOGGER.error("{} is missing entries that chunks refer to; interior sections are saved in full until it is fixed", FILE_NAME);
+        }
+    }
+
+    private void writePending() {
+        NbtCompound nbt;
+        Long2ObjectMap<NbtElement> written;
+        synchronized (this) {
+            if (failed) {
+                write = null;
+                return;
+            }
+            written = new Long2ObjectOpenHashMap<>(pending);
+            nbt = toNbt(written);
+        }
+
+        long start = System.nanoTime();
+        boolean saved;
+        try {
+            TardisRegistryStorage.writeAtomically(nbt, file);
+            saved = true;
+        } catch (IOException e) {
+            // Matching sections are saved in full meanwhile, and add their entries again on a later save
+            Tatm.LOGGER.error("Failed to write {}", FILE_NAME, e);
+            saved = false;
+        }
+        TatmMetrics.SHARED_SECTIONS_WRITE_TIME.recordSince(start);
+
+        synchronized (this) {
+            pending.keySet().removeAll(written.keySet());
+            if (saved) {
+                entries.putAll(written);
+            }
+            write = null;
+            if (saved) {
+                scheduleWrite();
+            }
+        }
+    }
+
+    private void awaitWrite() {
+        while (true) {
+            CompletableFuture<Void> running;
+            synchronized (this) {
+                running = write;
+            }
+            if (running == null) {
+                return;
+            }
+            running.join();
+        }
+    }
+
+    private void load() {
+        if (!Files.exists(file)) {
+            return;
+        }
+        try {
+            NbtCompound nbt = NbtIo.readCompressed(file.toFile());
+            NbtList list = nbt.getList("entries", NbtElement.COMPOUND_TYPE);
+            for (int i = 0; i < list.size(); i++) {
+                NbtCompound entry = list.getCompound(i);
+                entries.put(entry.getLong("id"), entry.get("data"));
+            }
+            Tatm.LOGGER.info("Loaded {} shared interior sections", entries.size());
+        } catch (IOException e) {
+            // Shared sections are restored as air; keep the file as it is and add nothing to it
+            entries.clear();
+            failed = true;
+            Tatm.LOGGER.error("Failed to read {}; interior sections are saved in full until it is fixed", FILE_NAME, e);
+        }
+    }
+
+    /**
+     * Every entry on disk plus the ones about to be written
+     */
+    private NbtCompound toNbt(Long2ObjectMap<NbtElement> added) {
+        NbtList list = new NbtList();
+        for (Long2ObjectMap<NbtElement> map : List.of(entries, added)) {
+            for (Long2ObjectMap.Entry<NbtElement> entry : map.long2ObjectEntrySet()) {
+                NbtCompound compound = new NbtCompound();
+                compound.putLong("id", entry.getLongKey());
+                compound.put("data", entry.getValue());
+                list.add(compound);
+            }
+        }
+        NbtCompound nbt = new NbtCompound();
+        nbt.put("entries", list);
+        return nbt;
+    }
+
+    /**
+     * Rough size of an element's arrays, which is most of what a section saves
+     */
+    private static long estimateBytes(NbtElement element) {
+        if (element instanceof NbtByteArray light) {
+            return light.getByteArray().length;
+        }
+        if (element instanceof NbtCompound blockStates) {
+            return blockStates.getLongArray("data").length * 8L;
+        }
+        return 0;
+    }
+
+    /**
+     * Encode a template section the way vanilla saves it once built into an empty section
+     */
+    private static NbtElement encode(InteriorTemplate.CompiledSection section) {
+        PalettedContainer<BlockState> container = new PalettedContainer<>(
+            Block.STATE_IDS, Blocks.AIR.getDefaultState(), PalettedContainer.PaletteProvider.BLOCK_STATE);
+        for (int i = 0; i < 16 * 16 * 16; i++) {
+            int paletteIndex = section.blocks().get(i);
+            if (paletteIndex != 0) {
+                container.set(i & 15, i >> 8 & 15, i >> 4 & 15, section.palette()[paletteIndex]);
+            }
+        }
+        return BLOCK_STATE_CODEC.encodeStart(NbtOps.INSTANCE, container).getOrThrow(false, Tatm.LOGGER::error);
+    }
+}
@@ -0,0 +1,674 @@
+package com.tdjs.tatm.tardis;
+
+import it.unimi.dsi.fastutil.HashCommon;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import net.minecraft.util.Identifier;
+import net.minecraft.util.math.BlockPos;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * State of many TARDISes in parallel primitive arrays, addressed by slot.
+ * UUIDs are stored as their two halves and found through an open-addressing table
+ * of slots, positions are packed (BlockPos.asLong), and dimensions are indices into
+ * a table of interned identifiers; a TARDIS's own interior dimension is derived from
+ * its UUID instead. No objects are kept per TARDIS: {@link TardisInstance} is a view
+ * over a slot. Slots of removed TARDISes are reused, so views check {@link #holds}
+ * before every access. Slots are also linked into one list per registry shard, and
+ * changes mark their shard dirty, so a save only visits the slots of dirty shards.
+ * Only mutated on the server thread, under the write lock of {@link #lock()}. Other
+ * threads read through {@link #read}, which runs optimistically and retries if a
+ * write overlapped, so they see every multi-field change either whole or not at all.
+ */
+public class TardisStore {
+    // Optimistic reads overlapped by a write before a reader takes the read lock
+    private static final int OPTIMISTIC_ATTEMPTS = 3;
+
+    // Dimension indices that do not refer to the table
+    private static final short NO_DIMENSION = -1;
+    private static final short OWN_DIMENSION = -2;
+
+    private static final byte LIVE = 1;
+    private static final byte INITIALIZED = 1 << 1;
+    private static final byte INTERIOR_BUILT = 1 << 2;
+    private static final byte HAS_EXTERIOR_POS = 1 << 3;
+    private static final byte HAS_INTERIOR_POS = 1 << 4;
+    // Set whenever persisted state changes; cleared once the slot has been written to its shard
+    private static final byte DIRTY = 1 << 5;
+    // Interior region files packed away by TardisArchive
+    private static final byte ARCHIVED = 1 << 6;
+
+    private long[] idMost;
+    private long[] idLeast;
+    private long[] exteriorPos;
+    private long[] interiorPos;
+    // Wall-clock time (epoch millis) an entity last entered the interior, 0 if never
+    private long[] lastEntered;
+    private short[] exteriorDimension;
+    private short[] interiorDimension;
+    private byte[] flags;
+    // Players currently inside the interior; not persisted, refreshed by TardisHibernation
+    private int[] occupants;
+
+    // Slots ever used, including freed ones
+    private int slotCount;
+    private int size;
+    private final IntArrayList freeSlots = new IntArrayList();
+
+    // Doubly linked list of the live slots of each shard (TardisRegistryStorage.shardOf), -1 terminated
+    private final int[] shardHead = new int[TardisRegistryStorage.SHARD_COUNT];
+    private int[] shardNext;
+    private int[] shardPrev;
+    // Shards with a change not yet handed to a save; set by every change, and by removals
+    private final BitSet dirtyShards = new BitSet(TardisRegistryStorage.SHARD_COUNT);
+
+    // Linear-probing table from UUID to slot + 1, 0 meaning empty; at most half full
+    private int[] table;
+
+    private final List<Identifier> dimensions = new ArrayList<>();
+    private final Object2IntMap<Identifier> dimensionIndices = new Object2IntOpenHashMap<>();
+
+    // Guards the arrays and everything indexed from them; its stamps version every write
+    private final StampedLock lock = new StampedLock();
+
+    public TardisStore(int expectedSize) {
+        int capacity = Math.max(expectedSize, 1);
+        idMost = new long[capacity];
+        idLeast = new long[capacity];
+        exteriorPos = new long[capacity];
+        interiorPos = new long[capacity];
+        lastEntered = new long[capacity];
+        exteriorDimension = new short[capacity];
+        interiorDimension = new short[capacity];
+        flags = new byte[capacity];
+        occupants = new int[capacity];
+        shardNext = new int[capacity];
+        shardPrev = new int[capacity];
+        Arrays.fill(shardHead, -1);
+        table = new int[HashCommon.nextPowerOfTwo(capacity * 2)];
+        dimensionIndices.defaultReturnValue(-1);
+    }
+
+    /**
+     * The lock writers hold while changing the store, and any index that must agree with it
+     */
+    public StampedLock lock() {
+        return lock;
+    }
+
+    /**
+     * Run a read without blocking, and run it again if a write overlapped it.
+     * Falls back to the read lock if writes keep overlapping. The reader may see
+     * inconsistent state (and throw) on an attempt that is then discarded, so it
+     * must have no side effects beyond its result.
+     */
+    public <T> T read(Supplier<T> reader) {
+        for (int attempt = 0; attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp == 0) {
+                // Write in progress
+                Thread.onSpinWait();
+                continue;
+            }
+            try {
+                T result = reader.get();
+                if (lock.validate(stamp)) {
+                    return result;
+                }
+            } catch (RuntimeException e) {
+                if (lock.validate(stamp)) {
+                    throw e;
+                }
+                // Torn read of arrays being changed
+            }
+        }
+
+        long stamp = lock.readLock();
+        try {
+            return reader.get();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * {@link #read(Supplier)} with an argument, for readers that capture nothing and so are not allocated per call
+     */
+    public <A, T> T read(A argument, Function<A, T> reader) {
+        for (int attempt = 0; attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp == 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+            try {
+                T result = reader.apply(argument);
+                if (lock.validate(stamp)) {
+                    return result;
+                }
+            } catch (RuntimeException e) {
+                if (lock.validate(stamp)) {
+                    throw e;
+                }
+            }
+        }
+
+        long stamp = lock.readLock();
+        try {
+            return reader.apply(argument);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * {@link #read(Supplier)} with two arguments, for readers that capture nothing and so are not allocated per call
+     */
+    public <A, B, T> T read(A first, B second, BiFunction<A, B, T> reader) {
+        for (int attempt = 0; attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp == 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+            try {
+                T result = reader.apply(first, second);
+                if (lock.validate(stamp)) {
+                    return result;
+                }
+            } catch (RuntimeException e) {
+                if (lock.validate(stamp)) {
+                    throw e;
+                }
+            }
+        }
+
+        long stamp = lock.readLock();
+        try {
+            return reader.apply(first, second);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Check if a slot still holds a TARDIS, for views that may have outlived it
+     */
+    public boolean holds(int slot, UUID tardisId) {
+        return slot < slotCount && isLive(slot)
+            && idMost[slot] == tardisId.getMostSignificantBits() && idLeast[slot] == tardisId.getLeastSignificantBits();
+    }
+
+    /**
+     * Number of TARDISes in the store
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Upper bound (exclusive) of the slots in use, for iterating with {@link #isLive}
+     */
+    public int getSlotCount() {
+        return slotCount;
+    }
+
+    public boolean isLive(int slot) {
+        return (flags[slot] & LIVE) != 0;
+    }
+
+    /**
+     * Get the slot of a TARDIS, or -1 if it is not in the store
+     */
+    public int slotOf(UUID tardisId) {
+        return slotOf(tardisId.getMostSignificantBits(), tardisId.getLeastSignificantBits());
+    }
+
+    /**
+     * Get the slot of a TARDIS by the two halves of its UUID, or -1 if it is not in the store
+     */
+    public int slotOf(long most, long least) {
+        // Read once, so an optimistic reader never mixes the table and mask of two sizes
+        int[] table = this.table;
+        int mask = table.length - 1;
+        for (int pos = (int) HashCommon.mix(most ^ least) & mask; ; pos = (pos + 1) & mask) {
+            int entry = table[pos];
+            if (entry == 0) {
+                return -1;
+            }
+            if (idMost[entry - 1] == most && idLeast[entry - 1] == least) {
+                return entry - 1;
+            }
+        }
+    }
+
+    /**
+     * Add a TARDIS that is not in the store yet, with nothing set but its UUID, and mark it dirty
+     */
+    public int add(UUID tardisId) {
+        int slot = allocate(tardisId);
+        markDirty(slot);
+        return slot;
+    }
+
+    /**
+     * Take a slot for a TARDIS that is not in the store yet, with nothing set but its UUID
+     */
+    private int allocate(UUID tardisId) {
+        if ((size + 1) * 2 > table.length) {
+            rehash(table.length * 2);
+        }
+
+        int slot;
+        if (!freeSlots.isEmpty()) {
+            slot = freeSlots.popInt();
+        } else {
+            if (slotCount == flags.length) {
+                grow(slotCount * 2);
+            }
+            slot = slotCount++;
+        }
+
+        idMost[slot] = tardisId.getMostSignificantBits();
+        idLeast[slot] = tardisId.getLeastSignificantBits();
+        exteriorPos[slot] = 0L;
+        interiorPos[slot] = 0L;
+        lastEntered[slot] = 0L;
+        exteriorDimension[slot] = NO_DIMENSION;
+        interiorDimension[slot] = NO_DIMENSION;
+        flags[slot] = LIVE;
+        occupants[slot] = 0;
+
+        size++;
+        insert(slot);
+        linkToShard(slot);
+        return slot;
+    }
+
+    /**
+     * Add a TARDIS from a stored record, or overwrite it if it is already in the store. Not marked dirty.
+     */
+    public int add(TardisRecord record) {
+        int slot = slotOf(record.tardisId());
+        if (slot < 0) {
+            slot = allocate(record.tardisId());
+        }
+        load(slot, record);
+        return slot;
+    }
+
+    /**
+     * Remove the TARDIS in a slot; the slot may be reused by the next TARDIS added
+     */
+    public void remove(int slot) {
+        if (!isLive(slot)) {
+            return;
+        }
+        // The shard must be rewritten without it
+        dirtyShards.set(shardOf(slot));
+        removeFromTable(slot);
+        unlinkFromShard(slot);
+        flags[slot] = 0;
+        freeSlots.add(slot);
+        size--;
+    }
+
+    public void clear() {
+        Arrays.fill(flags, 0, slotCount, (byte) 0);
+        Arrays.fill(table, 0);
+        Arrays.fill(shardHead, -1);
+        dirtyShards.clear();
+        freeSlots.clear();
+        slotCount = 0;
+        size = 0;
+    }
+
+    private void load(int slot, TardisRecord record) {
+        byte slotFlags = LIVE;
+        if (record.initialized()) {
+            slotFlags |= INITIALIZED;
+        }
+        if (record.interiorBuilt()) {
+            slotFlags |= INTERIOR_BUILT;
+        }
+        if (record.archived()) {
+            slotFlags |= ARCHIVED;
+        }
+        flags[slot] = slotFlags;
+        setExterior(slot, record.exteriorPos(), record.exteriorDimension());
+        setInterior(slot, record.interiorPos(), record.interiorDimension());
+        lastEntered[slot] = record.lastEnteredTime();
+    }
+
+    /**
+     * Take an immutable snapshot of the persisted state in a slot
+     */
+    public TardisRecord snapshot(int slot) {
+        return new TardisRecord(
+            getTardisId(slot),
+            isInitialized(slot),
+            isInteriorBuilt(slot),
+            getExteriorPos(slot),
+            getExteriorDimension(slot),
+            getInteriorPos(slot),
+            getInteriorDimension(slot),
+            lastEntered[slot],
+            isArchived(slot)
+        );
+    }
+
+    // Accessors by slot
+
+    public UUID getTardisId(int slot) {
+        return new UUID(idMost[slot], idLeast[slot]);
+    }
+
+    public long getTardisIdMost(int slot) {
+        return idMost[slot];
+    }
+
+    /**
+     * Check if the interior of a TARDIS is in the dimension named after it, without building the identifier
+     */
+    public boolean hasOwnInteriorDimension(int slot) {
+        return interiorDimension[slot] == OWN_DIMENSION;
+    }
+
+    public boolean isInitialized(int slot) {
+        return (flags[slot] & INITIALIZED) != 0;
+    }
+
+    public boolean isInteriorBuilt(int slot) {
+        return (flags[slot] & INTERIOR_BUILT) != 0;
+    }
+
+    public void setInteriorBuilt(int slot, boolean interiorBuilt) {
+        setFlag(slot, INTERIOR_BUILT, interiorBuilt);
+        markDirty(slot);
+    }
+
+    public boolean isArchived(int slot) {
+        return (flags[slot] & ARCHIVED) != 0;
+    }
+
+    public void setArchived(int slot, boolean archived) {
+        setFlag(slot, ARCHIVED, archived);
+        markDirty(slot);
+    }
+
+    @Nullable
+    public BlockPos getExteriorPos(int slot) {
+        return (flags[slot] & HAS_EXTERIOR_POS) != 0 ? BlockPos.fromLong(exteriorPos[slot]) : null;
+    }
+
+    @Nullable
+    public Identifier getExteriorDimension(int slot) {
+        return dimensionAt(slot, exteriorDimension[slot]);
+    }
+
+    public void setExteriorLocation(int slot, @Nullable BlockPos pos, @Nullable Identifier dimension) {
+        setExterior(slot, pos, dimension);
+        markDirty(slot);
+    }
+
+    private void setExterior(int slot, @Nullable BlockPos pos, @Nullable Identifier dimension) {
+        setFlag(slot, HAS_EXTERIOR_POS, pos != null);
+        exteriorPos[slot] = pos != null ? pos.asLong() : 0L;
+        exteriorDimension[slot] = indexOf(slot, dimension);
+    }
+
+    @Nullable
+    public BlockPos getInteriorPos(int slot) {
+        return (flags[slot] & HAS_INTERIOR_POS) != 0 ? BlockPos.fromLong(interiorPos[slot]) : null;
+    }
+
+    @Nullable
+    public Identifier getInteriorDimension(int slot) {
+        return dimensionAt(slot, interiorDimension[slot]);
+    }
+
+    /**
+     * Set the interior position and dimension and mark the TARDIS initialized
+     */
+    public void initializeInterior(int slot, BlockPos pos, Identifier dimension) {
+        setInterior(slot, pos, dimension);
+        setFlag(slot, INITIALIZED, true);
+        markDirty(slot);
+    }
+
+    private void setInterior(int slot, @Nullable BlockPos pos, @Nullable Identifier dimension) {
+        setFlag(slot, HAS_INTERIOR_POS, pos != null);
+        interiorPos[slot] = pos != null ? pos.asLong() : 0L;
+        interiorDimension[slot] = indexOf(slot, dimension);
+    }
+
+    public long getLastEnteredTime(int slot) {
+        return lastEntered[slot];
+    }
+
+    public void setLastEnteredTime(int slot, long time) {
+        lastEntered[slot] = time;
+        markDirty(slot);
+    }
+
+    public int getOccupants(int slot) {
+        return occupants[slot];
+    }
+
+    public void setOccupants(int slot, int count) {
+        occupants[slot] = count;
+    }
+
+    public boolean isDirty(int slot) {
+        return (flags[slot] & DIRTY) != 0;
+    }
+
+    public void markDirty(int slot) {
+        flags[slot] |= DIRTY;
+        dirtyShards.set(shardOf(slot));
+    }
+
+    public void clearDirty(int slot) {
+        flags[slot] &= ~DIRTY;
+    }
+
+    /**
+     * Mark a shard as needing to be rewritten, e.g. because it was read from an older layout
+     */
+    public void markShardDirty(int shard) {
+        dirtyShards.set(shard);
+    }
+
+    public boolean hasDirtyShards() {
+        return !dirtyShards.isEmpty();
+    }
+
+    /**
+     * The next dirty shard from a shard on, or -1, for iterating like {@link BitSet#nextSetBit}
+     */
+    public int nextDirtyShard(int fromShard) {
+        return dirtyShards.nextSetBit(fromShard);
+    }
+
+    /**
+     * Forget every dirty shard, once they have been handed to a save
+     */
+    public void clearDirtyShards() {
+        dirtyShards.clear();
+    }
+
+    /**
+     * First live slot of a shard, or -1; continue with {@link #nextInShard}
+     */
+    public int firstInShard(int shard) {
+        return shardHead[shard];
+    }
+
+    /**
+     * Next live slot in the same shard, or -1
+     */
+    public int nextInShard(int slot) {
+        return shardNext[slot];
+    }
+
+    /**
+     * Estimate the heap held by the store, in bytes: the arrays, the slot table and the dimension table
+     */
+    public long getRetainedBytes() {
+        long capacity = flags.length;
+        // 5 longs, 2 shorts, a byte and 3 ints (occupants and the shard list links) per slot
+        long perSlot = capacity * (5 * Long.BYTES + 2 * Short.BYTES + Byte.BYTES + 3 * Integer.BYTES);
+        long dimensionBytes = 0;
+        for (Identifier dimension : dimensions) {
+            // Identifier and its two strings, plus the map entry
+            dimensionBytes += 16 + 2 * 40 + dimension.getNamespace().length() + dimension.getPath().length() + 32;
+        }
+        return perSlot + (long) table.length * Integer.BYTES + (long) freeSlots.elements().length * Integer.BYTES + dimensionBytes;
+    }
+
+    private void setFlag(int slot, byte flag, boolean value) {
+        if (value) {
+            flags[slot] |= flag;
+        } else {
+            flags[slot] &= ~flag;
+        }
+    }
+
+    @Nullable
+    private Identifier dimensionAt(int slot, short index) {
+        return switch (index) {
+            case NO_DIMENSION -> null;
+            case OWN_DIMENSION -> TardisDimensionManager.createTardisDimension(getTardisId(slot));
+            default -> dimensions.get(index);
+        };
+    }
+
+    private short indexOf(int slot, @Nullable Identifier dimension) {
+        if (dimension == null) {
+            return NO_DIMENSION;
+        }
+        if (TardisDimensionManager.isTardisDimension(dimension)
+            && TardisDimensionManager.getTardisIdMost(dimension) == idMost[slot]
+            && TardisDimensionManager.getTardisIdLeast(dimension) == idLeast[slot]) {
+            return OWN_DIMENSION;
+        }
+
+        int index = dimensionIndices.getInt(dimension);
+        if (index < 0) {
+            if (dimensions.size() > Short.MAX_VALUE) {
+                throw new IllegalStateException("Too many distinct TARDIS dimensions");
+            }
+            index = dimensions.size();
+            dimensions.add(dimension);
+            dimensionIndices.put(dimension, index);
+        }
+        return (short) index;
+    }
+
+    private void grow(int capacity) {
+        idMost = Arrays.copyOf(idMost, capacity);
+        idLeast = Arrays.copyOf(idLeast, capacity);
+        exteriorPos = Arrays.copyOf(exteriorPos, capacity);
+        interiorPos = Arrays.copyOf(interiorPos, capacity);
+        lastEntered = Arrays.copyOf(lastEntered, capacity);
+        exteriorDimension = Arrays.copyOf(exteriorDimension, capacity);
+        interiorDimension = Arrays.copyOf(interiorDimension, capacity);
+        flags = Arrays.copyOf(flags, capacity);
+        occupants = Arrays.copyOf(occupants, capacity);
+        shardNext = Arrays.copyOf(shardNext, capacity);
+        shardPrev = Arrays.copyOf(shardPrev, capacity);
+    }
+
+    // Shard lists
+
+    private int shardOf(int slot) {
+        return TardisRegistryStorage.shardOf(idMost[slot]);
+    }
+
+    private void linkToShard(int slot) {
+        int shard = shardOf(slot);
+        int head = shardHead[shard];
+        shardPrev[slot] = -1;
+        shardNext[slot] = head;
+        if (head >= 0) {
+            shardPrev[head] = slot;
+        }
+        shardHead[shard] = slot;
+    }
+
+    private void unlinkFromShard(int slot) {
+        int prev = shardPrev[slot];
+        int next = shardNext[slot];
+        if (prev >= 0) {
+            shardNext[prev] = next;
+        } else {
+            shardHead[shardOf(slot)] = next;
+        }
+        if (next >= 0) {
+            shardPrev[next] = prev;
+        }
+    }
+
+    // Slot table
+
+    private int bucketOf(long most, long least) {
+        return (int) HashCommon.mix(most ^ least) & (table.length - 1);
+    }
+
+    private void insert(int slot) {
+        int mask = table.length - 1;
+        int pos = bucketOf(idMost[slot], idLeast[slot]);
+        while (table[pos] != 0) {
+            pos = (pos + 1) & mask;
+        }
+        table[pos] = slot + 1;
+    }
+
+    private void rehash(int length) {
+        table = new int[length];
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (isLive(slot)) {
+                insert(slot);
+            }
+        }
+    }
+
+    private void removeFromTable(int slot) {
+        int mask = table.length - 1;
+        int pos = bucketOf(idMost[slot], idLeast[slot]);
+        while (table[pos] != slot + 1) {
+            pos = (pos + 1) & mask;
+        }
+
+        // Shift later entries of the probe sequence back over the hole, so lookups never stop early
+        for (;;) {
+            int last = pos;
+            pos = (pos + 1) & mask;
+            int entry;
+            for (;;) {
+                entry = table[pos];
+                if (entry == 0) {
+                    table[last] = 0;
+                    return;
+                }
+                int bucket = bucketOf(idMost[entry - 1], idLeast[entry - 1]);
+                if (last <= pos ? last >= bucket || bucket > pos : last >= bucket && bucket > pos) {
+                    break;
+                }
+                pos = (pos + 1) & mask;
+            }
+            table[last] = entry;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.tdjs.tatm.tardis;
+
+import com.tdjs.tatm.config.TatmConfig;
+import com.tdjs.tatm.metrics.LatencyHistogram;
+import com.tdjs.tatm.metrics.TatmMetrics;
+import com.tdjs.tatm.metrics.TeleportResult;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
+import net.minecraft.entity.Entity;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.network.ServerPlayerEntity;
+import net.minecraft.server.world.ChunkTicketType;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.text.Text;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.Vec3d;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Queues entity transfers into and out of TARDISes until their destination chunk is loaded.
+ * A chunk ticket is added when the transfer is requested, so the chunk loads in the
+ * background; the queue is drained each tick under a time budget, so many players
+ * using doors at once never force a synchronous chunk load on the tick thread.
+ */
+public class TardisTransferQueue {
+    // Expires on its own as a safety net; normally removed as soon as the transfer completes
+    private static final ChunkTicketType<ChunkPos> TRANSFER_TICKET =
+        ChunkTicketType.create("tatm_transfer", Comparator.comparingLong(ChunkPos::toLong), 20 * 60);
+    private static final int TICKET_RADIUS = 1;
+    private static final int TIMEOUT_TICKS = 20 * 30;
+
+    // Pending transfers by entity UUID, in request order (server thread only)
+    private static final Map<UUID, Transfer> pending = new LinkedHashMap<>();
+
+    private static final LatencyHistogram transferLatency = new LatencyHistogram();
+
+    private record Transfer(Entity entity, UUID tardisId, ServerWorld targetWorld, Vec3d targetPos, boolean inbound, ChunkPos chunk, long requestedAt, int requestedTick) {}
+
+    public static void register() {
+        ServerTickEvents.END_SERVER_TICK.register(TardisTransferQueue::tick);
+        ServerLifecycleEvents.SERVER_STOPPED.register(server -> pending.clear());
+    }
+
+    /**
+     * Request that an entity be moved to a position, once the destination chunk is loaded.
+     * Returns false if the entity already has a transfer pending.
+     *
+     * @param tardisId the TARDIS being entered or left
+     * @param inbound whether this is an entry into a TARDIS rather than an exit, for the teleport metrics
+     */
+    public static boolean request(Entity entity, UUID tardisId, ServerWorld targetWorld, Vec3d targetPos, boolean inbound) {
+        if (pending.containsKey(entity.getUuid())) {
+            TatmMetrics.recordTeleport(inbound, TeleportResult.ALREADY_PENDING);
+            return false;
+        }
+
+        ChunkPos chunk = new ChunkPos((int) Math.floor(targetPos.x) >> 4, (int) Math.floor(targetPos.z) >> 4);
+        targetWorld.getChunkManager().addTicket(TRANSFER_TICKET, chunk, TICKET_RADIUS, chunk);
+        pending.put(entity.getUuid(), new Transfer(
+            entity, tardisId, targetWorld, targetPos, inbound, chunk, System.nanoTime(), targetWorld.getServer().getTicks()));
+        return true;
+    }
+
+    /**
+     * Check if an entity is waiting for a transfer
+     */
+    public static boolean isPending(Entity entity) {
+        return pending.containsKey(entity.getUuid());
+    }
+
+    public static int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Time from a transfer being requested to the entity arriving
+     */
+    public static LatencyHistogram getTransferLatency() {
+        return transferLatency;
+    }
+
+    private static void tick(MinecraftServer server) {
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        long deadline = System.nanoTime() + TatmConfig.teleportBudgetMicros * 1000L;
+        boolean movedAny = false;
+
+        Iterator<Transfer> iterator = pending.values().iterator();
+        while (iterator.hasNext()) {
+            Transfer transfer = iterator.next();
+
+            if (transfer.entity().isRemoved()) {
+                // Player logged out or entity died while waiting
+                iterator.remove();
+                release(transfer);
+                TatmMetrics.recordTeleport(transfer.inbound(), TeleportResult.ENTITY_REMOVED);
+                continue;
+            }
+
+            if (server.getTicks() - transfer.requestedTick() > TIMEOUT_TICKS) {
+                iterator.remove();
+                release(transfer);
+                TatmMetrics.recordTeleport(transfer.inbound(), TeleportResult.TIMED_OUT);
+                if (transfer.entity() instanceof ServerPlayerEntity player) {
+                    player.sendMessage(Text.literal("TARDIS transfer timed out!"), false);
+                }
+                continue;
+            }
+
+            if (transfer.targetWorld().getChunkManager().getWorldChunk(transfer.chunk().x, transfer.chunk().z) == null) {
+                // Still loading; later transfers may already be ready
+                continue;
+            }
+
+            // Always move at least one entity per tick, even with a tiny budget
+            if (movedAny && System.nanoTime() >= deadline) {
+                return;
+            }
+
+            iterator.remove();
+            if (TardisDimensionManager.teleportEntity(
+                    transfer.entity(), transfer.targetWorld(), transfer.targetPos(), transfer.tardisId(), transfer.inbound())) {
+                TatmMetrics.recordTeleport(transfer.inbound(), TeleportResult.SUCCESS);
+                transferLatency.recordSince(transfer.requestedAt());
+            } else {
+                TatmMetrics.recordTeleport(transfer.inbound(), TeleportResult.TELEPORT_FAILED);
+            }
+            release(transfer);
+            movedAny = true;
+        }
+    }
+
+    private static void release(Transfer transfer) {
+        transfer.targetWorld().getChunkManager().removeTicket(TRANSFER_TICKET, transfer.chunk(), TICKET_RADIUS, transfer.chunk());
+    }
+}
@@ -0,0 +1,149 @@
+package com.tdjs.tatm.tardis;
+
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.nbt.NbtList;
+import net.minecraft.util.Identifier;
+import net.minecraft.util.math.BlockPos;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Round trips of the shard layout, and migration of the single-list registry into it
+ */
+class TardisRegistryStorageTest {
+    private static final int SHARD = 0x2a;
+    private static final Identifier OVERWORLD = new Identifier("minecraft", "overworld");
+    private static final Identifier NETHER = new Identifier("minecraft", "the_nether");
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void encodeAndDecodeRoundTrip() throws IOException {
+        List<TardisRecord> records = sampleRecords();
+        ByteBuffer buffer = ByteBuffer.wrap(TardisRegistryStorage.encodeShard(records));
+        assertEquals(1, buffer.getInt());
+        assertEquals(records, TardisRegistryStorage.decodeShard(buffer));
+    }
+
+    @Test
+    void ownDimensionStaysOutOfThePool() throws IOException {
+        UUID tardisId = tardisId(1);
+        TardisRecord record = new TardisRecord(tardisId, true, true, new BlockPos(1, 64, 1), OVERWORLD,
+            new BlockPos(0, 64, 0), TardisDimensionManager.createTardisDimension(tardisId), 0, false);
+        ByteBuffer buffer = ByteBuffer.wrap(TardisRegistryStorage.encodeShard(List.of(record)));
+        buffer.getInt();
+        // Only the exterior dimension is pooled
+        assertEquals(1, buffer.getInt());
+        buffer.rewind();
+        buffer.getInt();
+        assertEquals(List.of(record), TardisRegistryStorage.decodeShard(buffer));
+    }
+
+    @Test
+    void truncatedShardFailsToDecode() {
+        byte[] bytes = TardisRegistryStorage.encodeShard(sampleRecords());
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, bytes.length - 1).slice();
+        buffer.getInt();
+        assertThrows(IOException.class, () -> TardisRegistryStorage.decodeShard(buffer));
+    }
+
+    @Test
+    void writtenShardLoadsBack() throws IOException {
+        List<TardisRecord> records = sampleRecords();
+        TardisRegistryStorage storage = new TardisRegistryStorage(directory);
+        storage.writeShard(SHARD, records);
+
+        TardisRegistryStorage.Shard shard = new TardisRegistryStorage(directory).loadShards()[SHARD];
+        assertNotNull(shard);
+        assertEquals(records, shard.records());
+    }
+
+    @Test
+    void migratesFormat1List() {
+        List<TardisRecord> records = sampleRecords();
+        NbtList tardises = new NbtList();
+        for (TardisRecord record : records) {
+            tardises.add(record.toNbt());
+        }
+        NbtCompound nbt = new NbtCompound();
+        nbt.put("tardises", tardises);
+
+        TardisRegistry registry = TardisRegistry.createFromNbt(nbt, new TardisRegistryStorage(directory));
+        assertRegistryHolds(registry, records);
+    }
+
+    @Test
+    void corruptShardIsSetAsideAndWrittenAgain() throws IOException {
+        byte[] corrupt = { 0, 0, 0, 1, 0, 0, 0, 7, 0 };
+        Files.write(directory.resolve("2a.idx"), corrupt);
+
+        TardisRegistryStorage storage = new TardisRegistryStorage(directory);
+        assertNull(storage.loadShards()[SHARD]);
+        assertTrue(storage.hasFailedToLoad(SHARD));
+        assertFalse(storage.isWriteRefused(SHARD));
+        assertArrayEquals(corrupt, Files.readAllBytes(directory.resolve("2a.idx.corrupt")));
+
+        // TARDISes created in the shard after startup are saved, and the copy set aside survives
+        List<TardisRecord> records = sampleRecords();
+        storage.writeShard(SHARD, records);
+        assertArrayEquals(corrupt, Files.readAllBytes(directory.resolve("2a.idx.corrupt")));
+        TardisRegistryStorage.Shard shard = new TardisRegistryStorage(directory).loadShards()[SHARD];
+        assertNotNull(shard);
+        assertEquals(records, shard.records());
+    }
+
+    @Test
+    void earlierCorruptCopyIsKept() throws IOException {
+        byte[] earlier = { 0, 0, 0, 1, 0, 0, 0, 5 };
+        byte[] corrupt = { 0, 0, 0, 1, 0, 0, 0, 7, 0 };
+        Files.write(directory.resolve("2a.idx.corrupt"), earlier);
+        Files.write(directory.resolve("2a.idx"), corrupt);
+
+        new TardisRegistryStorage(directory).loadShards();
+        assertArrayEquals(earlier, Files.readAllBytes(directory.resolve("2a.idx.corrupt")));
+        assertArrayEquals(corrupt, Files.readAllBytes(directory.resolve("2a.idx.corrupt1")));
+    }
+
+    private static void assertRegistryHolds(TardisRegistry registry, List<TardisRecord> records) {
+        assertEquals(records.size(), registry.size());
+        for (TardisRecord record : records) {
+            TardisInstance tardis = registry.getTardis(record.tardisId());
+            assertNotNull(tardis);
+            assertEquals(record, tardis.snapshot());
+        }
+    }
+
+    private static List<TardisRecord> sampleRecords() {
+        UUID own = tardisId(1);
+        return List.of(
+            // Interior in a dimension of its own, entered once
+            new TardisRecord(own, true, true, new BlockPos(100, 64, -200), OVERWORLD,
+                new BlockPos(0, 64, 0), TardisDimensionManager.createTardisDimension(own), 123456789L, false),
+            // Interior in a shared plot, archived
+            new TardisRecord(tardisId(2), true, true, new BlockPos(-5, 30, 7), NETHER,
+                new BlockPos(1024, 64, 0), TardisDimensionManager.SHARED_INTERIOR_DIMENSION, 42L, true),
+            // Placed but not initialized yet
+            new TardisRecord(tardisId(3), false, false, new BlockPos(0, -64, 0), OVERWORLD, null, null, 0L, false)
+        );
+    }
+
+    private static UUID tardisId(int n) {
+        return new UUID((long) SHARD << 56 | n, 0x8000_0000_0000_0000L | n);
+    }
+}